@@ -5,10 +5,75 @@ import game.Game;
 
 public class AlienEntity extends DynamicEntity {
 
+	// Time which has passed without this alien being updated
+	private long deferredDelta;
+	// Time this alien has been idle for, while awake
+	private long idleTime;
+	private boolean asleep;
+	
 	public AlienEntity(Sprite sprite, Game game, int x, int y, double rotation) {
 		super(sprite, game, x, y, rotation);
 	}
 	
+	/**
+	 * Holds back a tick for which this alien is not being updated, to be made up at its next update.  The
+	 * alien does not move on this tick, so it has no move to be undone.
+	 * 
+	 * @param delta The length of the tick skipped (millis)
+	 */
+	public void defer(long delta) {
+		deferredDelta += delta;
+		settle();
+	}
+	
+	/**
+	 * Takes the time held back by defer along with the time of the tick now being updated.
+	 * 
+	 * @param delta The length of the tick being updated (millis)
+	 * @return The total time this alien must be updated by (millis)
+	 */
+	public long takeDeferred(long delta) {
+		long total = deferredDelta + delta;
+		deferredDelta = 0;
+		return total;
+	}
+	
+	/**
+	 * Adds to the time this alien has been idle, or forgets it if the alien has just moved.
+	 * 
+	 * @param delta The length of the update just made (millis)
+	 * @return The time this alien has been idle since it last moved (millis)
+	 */
+	public long rest(long delta) {
+		idleTime = isIdle() ? idleTime + delta : 0;
+		return idleTime;
+	}
+	
+	/**
+	 * Puts this alien to sleep.  A sleeping alien is neither updated nor collided with, and any time
+	 * held back by defer is dropped, as an idle alien has nothing to make up.
+	 */
+	public void sleep() {
+		asleep = true;
+		deferredDelta = 0;
+		settle();
+	}
+	
+	/**
+	 * Wakes this alien, so that it is updated and collided with again.
+	 */
+	public void wake() {
+		asleep = false;
+		idleTime = 0;
+	}
+	
+	/**
+	 * @return true if this alien is asleep, false otherwise
+	 */
+	public boolean isAsleep() {
+		return asleep;
+	}
+	
 	public void move(long delta) {
 		// if we have reached the edge of the screen and
 		// are moving left then reverse direction
@@ -19,7 +84,13 @@ public class AlienEntity extends DynamicEntity {
 	
 	public boolean collidesWith(Entity other) {
 		
-		boolean collides = super.collidesWith(other);
+		boolean collides;
+		if (other instanceof ShotEntity) {
+			collides = ((ShotEntity)other).hits(this);
+		}
+		else {
+			collides = super.collidesWith(other);
+		}
 		
 		// if its an shot, notify the game that the player
 		// is dead
@@ -27,6 +98,10 @@ public class AlienEntity extends DynamicEntity {
 			game.removeEntity(this);
 			game.removeEntity(other);
 		}
+		// if its another alien, back off so that aliens do not pile into each other
+		if (collides && other instanceof AlienEntity) {
+			unmove();
+		}
 		
 		return collides;
 	}
@@ -5,6 +5,9 @@ import java.awt.Image;
 import java.awt.geom.AffineTransform;
 
 import resources.Sprite;
+import trigUtil.TrigUtil;
+import game.ContactCache;
+import game.Environment;
 import game.Game;
 
 public class DynamicEntity extends Entity {
@@ -15,6 +18,8 @@ public class DynamicEntity extends Entity {
 	private double oldX;
 	private double oldRotation;
 	protected Game game;
+	private final int id;
+	private final ContactCache contactCache = new ContactCache();
 
 	
 	public DynamicEntity(Sprite sprite,Game game,int x,int y, double rotation) {
@@ -25,6 +30,33 @@ public class DynamicEntity extends Entity {
 		this.game = game;
 		this.sprite = sprite;
 		this.velocity = 0;
+		this.id = game == null ? 0 : game.nextEntityId();
+		settle();
+	}
+	
+	/**
+	 * Forgets the last move made by this entity, so that unmove and the revert methods leave it where it is.
+	 */
+	public void settle() {
+		oldX = getX();
+		oldY = getY();
+		oldRotation = getRotation();
+	}
+	
+	/**
+	 * Indicates whether this entity is at rest, neither moved by its last move nor trying to move.
+	 * 
+	 * @return true if this entity is idle, false otherwise
+	 */
+	public boolean isIdle() {
+		return velocity == 0 && rotationalVelocity == 0 && getX() == oldX && getY() == oldY && getRotation() == oldRotation;
+	}
+	
+	/**
+	 * @return The identifier of this entity, unique within its game
+	 */
+	public int getId() {
+		return id;
 	}
 	
 	/**
@@ -47,30 +79,64 @@ public class DynamicEntity extends Entity {
 	
 	public void move(long delta) {
 		double rV = (delta*rotationalVelocity)/1000;
-		double xV = -(velocity * Math.sin(getRotation()));
-		double yV = (velocity * Math.cos(getRotation()));
+		double xV = -(velocity * getDirectionX());
+		double yV = -(velocity * getDirectionY());
 		setRotation(getRotation() + rV);
-		setX(getX() + (delta*xV)/1000);
-		setY(getY() + (delta*yV)/1000);
+		translate((delta*xV)/1000, (delta*yV)/1000);
 	}
 	
 	/**
-	 * Undoes the last move made by this entity
+	 * Moves this entity by (dx,dy).  If this entity belongs to a game with an environment the
+	 * movement is swept against the walls, stopping and sliding along any that are in the way.
+	 * 
+	 * @param dx The x displacement
+	 * @param dy The y displacement
+	 */
+	protected void translate(double dx, double dy) {
+		Environment environment = game == null ? null : game.getEnvironment();
+		if (environment == null || (dx == 0 && dy == 0)) {
+			setX(getX() + dx);
+			setY(getY() + dy);
+		}
+		else {
+			environment.moveAndSlide(this, dx, dy);
+		}
+	}
+	
+	/**
+	 * Undoes the last move made by this entity.  Undoing again does nothing until the entity next moves, so
+	 * an entity backing off from more than one collision on the same tick is only moved back once.
 	 */
 	public void unmove() {
 		setX(oldX);
 		setY(oldY);
+		oldX = getX();
+		oldY = getY();
 	}
 
 	public void draw(Graphics2D g) {
 		Image image = sprite.getImage();
 		int width = sprite.getWidth();
 		int height = sprite.getHeight();
-		AffineTransform xform = AffineTransform.getRotateInstance(getRotation(),getX()+(width/2),getY()+(height/2));
+		AffineTransform xform = getRotateInstance(getX()+(width/2),getY()+(height/2));
 		xform.translate(getX(), getY());
 		g.drawImage(image, xform, null);
 	}
 	
+	/**
+	 * @return The walls remembered as near to this entity, or null if they should not be remembered
+	 */
+	public ContactCache getContactCache() {
+		return contactCache;
+	}
+	
+	/**
+	 * @return The sprite drawn for this entity
+	 */
+	public Sprite getSprite() {
+		return sprite;
+	}
+	
 	public void setX(double newX) {
 		oldX = getX();
 		super.setX(newX);
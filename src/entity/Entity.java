@@ -1,10 +1,7 @@
 package entity;
 
 import java.awt.Graphics2D;
-import java.awt.Rectangle;
-import java.awt.Shape;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.PathIterator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -16,29 +13,27 @@ public abstract class Entity implements Displayable {
 	private double x;
 	private double y;
 	private double rotation;
+	// sin and cos of rotation, recomputed only when the rotation changes
+	private double sinRotation;
+	private double cosRotation;
+	private final OrientedBox box = new OrientedBox();
 
 	/**
 	 * Returns a list of lines, represented by a size four array of double {x1,y1,x2,y2}, for this Entity.
-	 * 
-	 * TODO This should probably account for rotation but currently does not!
+	 * The lines are rotated with this Entity, and are shared until it next moves, so they must not be modified.
 	 * 
 	 * @return A list of lines for this Entity
 	 */
 	public List<double[]> getLines() {
-		double leftX = getX();
-		double rightX = getX() + getWidth();
-		double topY = getY();
-		double bottomY = getY() + getHeight();
-		double[] leftSide = new double[] {leftX,topY,leftX,bottomY};
-		double[] rightSide = new double[] {rightX,topY,rightX,bottomY};
-		double[] topSide = new double[] {leftX,topY,rightX,topY};
-		double[] bottomSide = new double[] {leftX,bottomY,rightX,bottomY};
-		List<double[]> lines = new ArrayList<double[]>(4);
-		lines.add(leftSide);
-		lines.add(rightSide);
-		lines.add(topSide);
-		lines.add(bottomSide);
-		return lines;
+		return getBox().getLines();
+	}
+	
+	/**
+	 * @return The outline of this Entity as it now stands, rotation included
+	 */
+	public OrientedBox getBox() {
+		box.update(x, y, getWidth(), getHeight(), cosRotation, sinRotation);
+		return box;
 	}
 	
 	/**
@@ -123,7 +118,7 @@ public abstract class Entity implements Displayable {
 		for (double[] line : lines) {
 			double[] intersection = TrigUtil.findRayIntersectionByRotation(lineRotation,lineX,lineY,line[0],line[1],line[2],line[3]);
 			if (intersection != null) {
-				double distance = TrigUtil.getDistance(lineX, lineY, intersection[0], intersection[1]);
+				double distance = TrigUtil.getDistanceSquared(lineX, lineY, intersection[0], intersection[1]);
 				if (distance < nearestDistance) {
 					nearestDistance = distance;
 					lineIntersection = new double[] {line[0],line[1],line[2],line[3],intersection[0],intersection[1]};
@@ -149,7 +144,7 @@ public abstract class Entity implements Displayable {
 		for (double[] line : lines) {
 			double[] intersection = TrigUtil.findNearestPointAlongSegment(x, y, line[0], line[1], line[2], line[3]);
 			if (intersection != null) {
-				double distance = TrigUtil.getDistance(x, y, intersection[0], intersection[1]);
+				double distance = TrigUtil.getDistanceSquared(x, y, intersection[0], intersection[1]);
 				if (distance < nearestDistance) {
 					nearestDistance = distance;
 					nearestPoint = intersection;
@@ -160,21 +155,22 @@ public abstract class Entity implements Displayable {
 	}
 	
 	/**
-	 * Returns the four corner points for this Entity in no particular order.
+	 * Returns the four corner points for this Entity in no particular order.  The corners are rotated with
+	 * this Entity, and are shared until it next moves, so they must not be modified.
 	 * 
 	 * @return The four corner points for this Entity.
 	 */
 	public List<double[]> getCorners() {
-		double[] topLeft = new double[] {x,y};
-		double[] topRight = new double[] {x+this.getWidth(),y};
-		double[] bottomLeft = new double[] {x,y+this.getHeight()};
-		double[] bottomRight = new double[] {x+this.getWidth(),y+this.getHeight()};
-		List<double[]> points = new ArrayList<double[]>(4);
-		points.add(topLeft);
-		points.add(topRight);
-		points.add(bottomLeft);
-		points.add(bottomRight);
-		return points;
+		return getBox().getCorners();
+	}
+	
+	/**
+	 * Writes the axis aligned bounding box of this Entity, rotation included, into bounds as {minX,minY,maxX,maxY}.
+	 * 
+	 * @param bounds A size four array which receives the bounding box
+	 */
+	public void getBounds(double[] bounds) {
+		getBox().getBounds(bounds);
 	}
 	
 	/**
@@ -198,6 +194,7 @@ public abstract class Entity implements Displayable {
 		this.x = x;
 		this.y = y;
 		this.rotation = rotation;
+		updateDirection();
 	}
 	
 	public abstract void draw(Graphics2D g);
@@ -210,78 +207,7 @@ public abstract class Entity implements Displayable {
 	 * @return
 	 */
 	public boolean collidesWith(Entity other) {
-		AffineTransform xformMe = AffineTransform.getRotateInstance(rotation,x+(getWidth()/2),y+(getHeight()/2));
-		Shape me = xformMe.createTransformedShape(new Rectangle((int) x,(int) y,this.getWidth(),this.getHeight()));
-		AffineTransform xformOther = AffineTransform.getRotateInstance(other.rotation,other.x+(other.getWidth()/2),other.y+(other.getHeight()/2));
-		Shape him = xformOther.createTransformedShape(new Rectangle((int) other.x,(int) other.y,other.getWidth(),other.getHeight()));
-		
-		if (shapeContainedBy(me,him) || shapeContainedBy(him,me) || shapesIntersect(me,him)) {
-			return true;
-		}
-		else {
-			return false;
-		}
-	}
-
-	/**
-	 * Indicates whether the isContained has any point contained by container.
-	 * 
-	 * @param isContained
-	 * @param container
-	 * @return
-	 */
-	private boolean shapeContainedBy(Shape isContained, Shape container) {
-		double[] point = new double[6];
-		for (PathIterator itr = isContained.getPathIterator(new AffineTransform()); !itr.isDone(); itr.next()) {
-			itr.currentSegment(point);
-			if (container.contains(point[0],point[1])) {
-				return true;
-			}
-		}
-		
-		return false;
-	}
-	
-	/**
-	 * Indicates whether any of the line segments making up intersector intersects with
-	 * isIntersected.
-	 * 
-	 * @param isIntersected
-	 * @param intersector
-	 * @return
-	 */
-	private boolean shapesIntersect(Shape shape1, Shape shape2) {
-		
-		List<double[]> lines1 = getShapeLines(shape1);
-		List<double[]> lines2 = getShapeLines(shape2);
-		
-		for (double[] line1 : lines1) {
-			for (double[] line2 : lines2) {
-				if (TrigUtil.findLineSegmentIntersection(line1[0], line1[1], line1[2], line1[3], line2[0], line2[1], line2[2], line2[3]) != null) {
-					return true;
-				}
-			}
-		}
-		
-		return false;
-	}
-	
-	private List<double[]> getShapeLines(Shape shape) {
-		
-		List<double[]> points = new ArrayList<double[]>(4);
-		double[] point1 = new double[6];
-		double[] point2 = new double[6];
-		PathIterator itr = shape.getPathIterator(new AffineTransform());
-		itr.currentSegment(point1);
-		itr.next();
-		
-		for (;!itr.isDone();itr.next()) {
-			itr.currentSegment(point2);
-			points.add(new double[] {point1[0], point1[1], point2[0], point2[1]});
-			System.arraycopy(point2, 0, point1, 0, point2.length);
-		}
-		
-		return points;
+		return getBox().overlaps(other.getBox());
 	}
 	
 	/**
@@ -291,7 +217,9 @@ public abstract class Entity implements Displayable {
 	 * @return
 	 */
 	public List<double[]> pushOutPoints(List<double[]> points, double pushingDistance) {
-		double[] centre = TrigUtil.findIntersectionOfTwoLines(getX(), getY(), getX()+getWidth(), getY()+getHeight(), getX()+getWidth(), getY(), getX(), getY()+getHeight());
+		List<double[]> corners = getCorners();
+		double[] topLeft = corners.get(0), topRight = corners.get(1), bottomLeft = corners.get(2), bottomRight = corners.get(3);
+		double[] centre = TrigUtil.findIntersectionOfTwoLines(topLeft[0], topLeft[1], bottomRight[0], bottomRight[1], topRight[0], topRight[1], bottomLeft[0], bottomLeft[1]);
 		List<double[]> pushedPoints = new ArrayList<double[]>(points.size());
 		
 		for (double[] point : points) {
@@ -335,13 +263,48 @@ public abstract class Entity implements Displayable {
 	}
 	
 	public void setRotation(double newRotation) {
-		this.rotation = TrigUtil.normaliseRadians(newRotation);
+		double normalised = TrigUtil.normaliseRadians(newRotation);
+		if (normalised != rotation) {
+			this.rotation = normalised;
+			updateDirection();
+		}
 	}
 	
 	public double getRotation() {
 		return rotation;
 	}
 	
+	/**
+	 * @return The x component of the unit vector pointing the way this entity faces
+	 */
+	public double getDirectionX() {
+		return sinRotation;
+	}
+	
+	/**
+	 * @return The y component of the unit vector pointing the way this entity faces
+	 */
+	public double getDirectionY() {
+		return -cosRotation;
+	}
+	
+	/**
+	 * Creates a transform rotating by this entity's rotation about the anchor point given, built from the
+	 * cached direction rather than the angle.
+	 * 
+	 * @param anchorX The x coord of the point rotated about
+	 * @param anchorY The y coord of the point rotated about
+	 * @return The rotating transform
+	 */
+	protected AffineTransform getRotateInstance(double anchorX, double anchorY) {
+		return AffineTransform.getRotateInstance(cosRotation, sinRotation, anchorX, anchorY);
+	}
+	
+	private void updateDirection() {
+		sinRotation = TrigUtil.sin(rotation);
+		cosRotation = TrigUtil.cos(rotation);
+	}
+	
 	public abstract int getWidth();
 	
 	public abstract int getHeight();
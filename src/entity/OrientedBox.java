@@ -0,0 +1,226 @@
+package entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import trigUtil.TrigUtil;
+
+/**
+ * The outline of an entity, rotated exactly as the entity is drawn, about the centre of its sprite.  The
+ * corners, edges and edge normals are worked out together and held until the entity's position, size or
+ * rotation change, so every geometry query made between moves shares a single calculation.
+ *
+ * An unrotated box is worked out without any rounding, so its outline is exactly the entity's own box.
+ *
+ * @author Francis Stephens
+ */
+public class OrientedBox {
+	// The corners as {x,y} pairs, in outline order: top left, top right, bottom right, bottom left
+	private final double[] corners;
+	// The outward unit normal of each edge as {x,y} pairs, in the order of lines
+	private final double[] normals;
+	// {minX,minY,maxX,maxY}
+	private final double[] bounds;
+	private final List<double[]> lines;
+	private final List<double[]> cornerList;
+	private final List<double[]> readOnlyLines;
+	private final List<double[]> readOnlyCorners;
+	private double x = Double.NaN, y, cos, sin;
+	private int width, height;
+
+	public OrientedBox() {
+		corners = new double[8];
+		normals = new double[8];
+		bounds = new double[4];
+		lines = new ArrayList<double[]>(4);
+		cornerList = new ArrayList<double[]>(4);
+		readOnlyLines = Collections.unmodifiableList(lines);
+		readOnlyCorners = Collections.unmodifiableList(cornerList);
+	}
+
+	/**
+	 * Brings this box up to date, doing nothing if none of the values given has changed since it was
+	 * last updated.
+	 *
+	 * @param x The left of the unrotated box
+	 * @param y The top of the unrotated box
+	 * @param width The width of the box
+	 * @param height The height of the box
+	 * @param cos The cosine of the rotation
+	 * @param sin The sine of the rotation
+	 */
+	void update(double x, double y, int width, int height, double cos, double sin) {
+		if (x == this.x && y == this.y && width == this.width && height == this.height && cos == this.cos && sin == this.sin) {
+			return;
+		}
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		this.cos = cos;
+		this.sin = sin;
+		// Rotated about the same point the sprite is drawn rotated about
+		if (cos == 1 && sin == 0) {
+			// Taken straight from the box, as rotating about the pivot would round fractional coords
+			putCorner(0, x, y);
+			putCorner(1, x + width, y);
+			putCorner(2, x + width, y + height);
+			putCorner(3, x, y + height);
+		}
+		else {
+			double pivotX = x + width/2;
+			double pivotY = y + height/2;
+			double left = x - pivotX, right = x + width - pivotX;
+			double top = y - pivotY, bottom = y + height - pivotY;
+			putCorner(0, pivotX + (left*cos - top*sin), pivotY + (left*sin + top*cos));
+			putCorner(1, pivotX + (right*cos - top*sin), pivotY + (right*sin + top*cos));
+			putCorner(2, pivotX + (right*cos - bottom*sin), pivotY + (right*sin + bottom*cos));
+			putCorner(3, pivotX + (left*cos - bottom*sin), pivotY + (left*sin + bottom*cos));
+		}
+		putNormal(0, -cos, -sin); // left
+		putNormal(1, cos, sin); // right
+		putNormal(2, sin, -cos); // top
+		putNormal(3, -sin, cos); // bottom
+
+		// New arrays each time, as callers of the previous outline may still hold its lines and corners
+		double[] topLeft = {corners[0],corners[1]};
+		double[] topRight = {corners[2],corners[3]};
+		double[] bottomRight = {corners[4],corners[5]};
+		double[] bottomLeft = {corners[6],corners[7]};
+		lines.clear();
+		lines.add(new double[] {topLeft[0],topLeft[1],bottomLeft[0],bottomLeft[1]});
+		lines.add(new double[] {topRight[0],topRight[1],bottomRight[0],bottomRight[1]});
+		lines.add(new double[] {topLeft[0],topLeft[1],topRight[0],topRight[1]});
+		lines.add(new double[] {bottomLeft[0],bottomLeft[1],bottomRight[0],bottomRight[1]});
+		cornerList.clear();
+		cornerList.add(topLeft);
+		cornerList.add(topRight);
+		cornerList.add(bottomLeft);
+		cornerList.add(bottomRight);
+
+		bounds[0] = Math.min(Math.min(corners[0], corners[2]), Math.min(corners[4], corners[6]));
+		bounds[1] = Math.min(Math.min(corners[1], corners[3]), Math.min(corners[5], corners[7]));
+		bounds[2] = Math.max(Math.max(corners[0], corners[2]), Math.max(corners[4], corners[6]));
+		bounds[3] = Math.max(Math.max(corners[1], corners[3]), Math.max(corners[5], corners[7]));
+	}
+
+	private void putCorner(int i, double cornerX, double cornerY) {
+		corners[i*2] = cornerX;
+		corners[i*2+1] = cornerY;
+	}
+
+	private void putNormal(int i, double nx, double ny) {
+		normals[i*2] = nx;
+		normals[i*2+1] = ny;
+	}
+
+	/**
+	 * @return The edges as {x1,y1,x2,y2}, in the order left, right, top, bottom.  Neither the list nor its lines may be modified
+	 */
+	public List<double[]> getLines() {
+		return readOnlyLines;
+	}
+
+	/**
+	 * @return The corners as {x,y}, in the order top left, top right, bottom left, bottom right.  Neither the list nor its corners may be modified
+	 */
+	public List<double[]> getCorners() {
+		return readOnlyCorners;
+	}
+
+	/**
+	 * @return The outward unit normal of each edge as consecutive {x,y}, in the order of getLines.  The array must not be modified
+	 */
+	public double[] getNormals() {
+		return normals;
+	}
+
+	/**
+	 * Writes the axis aligned box around this outline into bounds as {minX,minY,maxX,maxY}.
+	 *
+	 * @param bounds A size four array which receives the bounding box
+	 */
+	public void getBounds(double[] bounds) {
+		System.arraycopy(this.bounds, 0, bounds, 0, 4);
+	}
+
+	/**
+	 * Indicates whether the segment from (x1,y1) to (x2,y2) crosses an edge of this outline.  Each edge is tested
+	 * as <code>Entity.findIntersectionsIgnoringMutualTerminals</code> tests it, so an edge sharing an end with
+	 * the segment is ignored.
+	 *
+	 * @param x1 The first x coord of the segment
+	 * @param y1 The first y coord of the segment
+	 * @param x2 The second x coord of the segment
+	 * @param y2 The second y coord of the segment
+	 * @return true if the segment crosses the outline, false otherwise
+	 */
+	public boolean isCrossedBy(double x1, double y1, double x2, double y2) {
+		for (double[] line : lines) {
+			boolean sharesEnd = (line[0] == x1 && line[1] == y1) || (line[2] == x2 && line[3] == y2)
+					|| (line[0] == x2 && line[1] == y2) || (line[2] == x1 && line[3] == y1);
+			if (!sharesEnd && TrigUtil.findLineSegmentIntersection(x1,y1,x2,y2,line[0],line[1],line[2],line[3]) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Indicates whether this box and other overlap, boxes which only touch do overlap.  Two convex outlines
+	 * are apart if and only if one of their edge normals separates them, and a box has only two normals
+	 * which are not simply reversed, so at most four axes are tried.
+	 *
+	 * @param other The other box
+	 * @return true if the two boxes overlap, false otherwise
+	 */
+	public boolean overlaps(OrientedBox other) {
+		// The right and bottom normals of each box, which between them give every axis of that box
+		return !separates(normals[2], normals[3], other) && !separates(normals[6], normals[7], other)
+				&& !separates(other.normals[2], other.normals[3], other) && !separates(other.normals[6], other.normals[7], other);
+	}
+
+	/**
+	 * Indicates whether this box and an axis aligned box overlap by more than touching.
+	 *
+	 * @param minX The left of the axis aligned box
+	 * @param minY The top of the axis aligned box
+	 * @param maxX The right of the axis aligned box
+	 * @param maxY The bottom of the axis aligned box
+	 * @return true if some area lies within both boxes, false otherwise
+	 */
+	public boolean overlapsInterior(double minX, double minY, double maxX, double maxY) {
+		if (bounds[2] <= minX || maxX <= bounds[0] || bounds[3] <= minY || maxY <= bounds[1]) {
+			return false;
+		}
+		return !separatesBox(normals[2], normals[3], minX, minY, maxX, maxY) && !separatesBox(normals[6], normals[7], minX, minY, maxX, maxY);
+	}
+
+	private boolean separatesBox(double axisX, double axisY, double minX, double minY, double maxX, double maxY) {
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for (int i = 0; i < 8; i += 2) {
+			double projection = corners[i]*axisX + corners[i+1]*axisY;
+			min = Math.min(min, projection);
+			max = Math.max(max, projection);
+		}
+		// The box's corner furthest along the axis either way
+		double boxMin = Math.min(minX*axisX, maxX*axisX) + Math.min(minY*axisY, maxY*axisY);
+		double boxMax = Math.max(minX*axisX, maxX*axisX) + Math.max(minY*axisY, maxY*axisY);
+		return max <= boxMin || boxMax <= min;
+	}
+
+	private boolean separates(double axisX, double axisY, OrientedBox other) {
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		double otherMin = Double.MAX_VALUE, otherMax = -Double.MAX_VALUE;
+		for (int i = 0; i < 8; i += 2) {
+			double projection = corners[i]*axisX + corners[i+1]*axisY;
+			min = Math.min(min, projection);
+			max = Math.max(max, projection);
+			double otherProjection = other.corners[i]*axisX + other.corners[i+1]*axisY;
+			otherMin = Math.min(otherMin, otherProjection);
+			otherMax = Math.max(otherMax, otherProjection);
+		}
+		return max < otherMin || otherMax < min;
+	}
+}
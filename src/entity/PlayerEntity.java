@@ -30,7 +30,12 @@ public class PlayerEntity extends DynamicEntity {
 	// Triggers for indicating directed movement of the player
 	private boolean left, right, up, down, fire;
 	private boolean keyPressed;
-	private long lastFire;
+	// Input gathered by the listeners, waiting to be applied at the start of the next tick
+	private int heldKeys;
+	private int[] pendingDestination;
+	private long lastFire = -FIRING_INTERVAL;
+	// The tick of the world this player is looking at, behind the present when playing over a network
+	private int viewTick = -1;
 	private KeyAdapter controlListener;
 	private MouseAdapter mouseListener;
 	private Navigator navigator;
@@ -60,6 +65,59 @@ public class PlayerEntity extends DynamicEntity {
 		super.reset();
 	}
 	
+	/**
+	 * Takes the input gathered by the listeners since the last tick.  The keys currently held down are
+	 * reported every time but a new destination is only reported once.
+	 * 
+	 * @return The input to be applied to this player for the next tick
+	 */
+	public synchronized PlayerInput sampleInput() {
+		PlayerInput input;
+		if (pendingDestination != null) {
+			input = new PlayerInput(heldKeys,pendingDestination[0],pendingDestination[1]);
+			pendingDestination = null;
+		}
+		else {
+			input = new PlayerInput(heldKeys);
+		}
+		return input;
+	}
+	
+	/**
+	 * Applies input to this player.  This should be called at the start of a tick, before the player moves.
+	 * 
+	 * @param input The input for this tick
+	 */
+	public void applyInput(PlayerInput input) {
+		applyKeys(input);
+		if (input.hasDestination()) {
+			setDestination(input.getDestX(),input.getDestY());
+		}
+	}
+	
+	private void applyKeys(PlayerInput input) {
+		left = input.isPressed(PlayerInput.LEFT);
+		right = input.isPressed(PlayerInput.RIGHT);
+		up = input.isPressed(PlayerInput.UP);
+		down = input.isPressed(PlayerInput.DOWN);
+		fire = input.isPressed(PlayerInput.FIRE);
+		keyPressed = input.getKeys() != 0;
+	}
+	
+	/**
+	 * Moves this player through a single tick of input exactly as the game would, but without affecting
+	 * anything other than this player's position and rotation.  Nothing is fired and destinations are
+	 * ignored, so a player following its navigator is not predicted.
+	 * 
+	 * @param input The input for this tick
+	 * @param delta The length of the tick (millis)
+	 */
+	public void predict(PlayerInput input, long delta) {
+		applyKeys(input);
+		reset();
+		move(delta);
+	}
+	
 	/**
 	 * Set the destination for this PlayerEntity.
 	 * 
@@ -67,7 +125,23 @@ public class PlayerEntity extends DynamicEntity {
 	 * @param destY The y coordinate for the destination
 	 */
 	public void setDestination(int destX, int destY) {
-		navigator = new Navigator(game.getEnvironment(),getX(),getY(),destX,destY);
+		abandonNavigator();
+		follow(new Navigator(game.getEnvironment(),getX(),getY(),destX,destY));
+	}
+	
+	/**
+	 * Follows newNavigator once its search, which is handed to the game's scheduler, is complete.
+	 */
+	private void follow(Navigator newNavigator) {
+		navigator = newNavigator;
+		game.getNavigationScheduler().submit(newNavigator);
+	}
+	
+	private void abandonNavigator() {
+		if (navigator != null) {
+			navigator.cancel();
+			navigator = null;
+		}
 	}
 	
 	@Override
@@ -85,7 +159,6 @@ public class PlayerEntity extends DynamicEntity {
 			g.drawLine((int)leftFLine[0],(int)leftFLine[1],(int)leftFLine[2],(int)leftFLine[3]);
 			g.drawLine((int)rightFLine[0],(int)rightFLine[1],(int)rightFLine[2],(int)rightFLine[3]);
 		}
-		//flashlight.draw(g);
 	}
 	
 	@Override
@@ -93,10 +166,18 @@ public class PlayerEntity extends DynamicEntity {
 		double[] currentStep = null;
 		
 		if (!keyPressed) {
-			if (navigator != null) {
+			if (navigator != null && navigator.isInvalidated()) {
+				// The walls have changed under our path, and the old search must not go on taking its share of the budget
+				Navigator replanned = navigator.replan(getX(),getY());
+				abandonNavigator();
+				follow(replanned);
+			}
+			// A navigator still searching for its path leaves the player waiting where it is
+			if (navigator != null && navigator.isComplete()) {
 				if (navigator.hasMoreSteps()) {
 					currentStep = navigator.currentStep();
-					if (TrigUtil.getDistance(currentStep[0], currentStep[1], getX(), getY()) < (-FORWARD_SPEED*delta)/1000) {
+					double stepLength = (-FORWARD_SPEED*delta)/1000;
+					if (TrigUtil.getDistanceSquared(currentStep[0], currentStep[1], getX(), getY()) < stepLength*stepLength) {
 						navigator.discardCurrentStep();
 						setX(currentStep[0]);
 						setY(currentStep[1]);
@@ -138,7 +219,7 @@ public class PlayerEntity extends DynamicEntity {
 			}
 		}
 		else { // using the controls aborts the navigator
-			navigator = null;
+			abandonNavigator();
 			
 			if (left && !right) {
 				rotationalVelocity = -ROTATION_SPEED;
@@ -169,49 +250,23 @@ public class PlayerEntity extends DynamicEntity {
 	
 	private void tryToFire() {
 		// check that we have waiting long enough to fire
-		if (System.currentTimeMillis() - lastFire >= FIRING_INTERVAL) {
+		if (game.getTime() - lastFire >= FIRING_INTERVAL) {
 			// if we waited long enough, create the shot entity, and record the time.
-			lastFire = System.currentTimeMillis();
-			double[] firingPoint = TrigUtil.getExtensionPoint(getRotation(), getX()+getWidth()/2, getY()+getHeight()/2, getHeight()/2 + VISION_EXTENSION);
-			ShotEntity shot = new ShotEntity(SpriteStore.getSprite(SpriteStore.shotImage),game,(int)firingPoint[0],(int)firingPoint[1],getRotation());
+			lastFire = game.getTime();
+			double extension = getHeight()/2 + VISION_EXTENSION;
+			double firingX = getX()+getWidth()/2 + getDirectionX()*extension;
+			double firingY = getY()+getHeight()/2 + getDirectionY()*extension;
+			ShotEntity shot = new ShotEntity(SpriteStore.getSprite(SpriteStore.shotImage),game,(int)firingX,(int)firingY,getRotation());
+			shot.setViewTick(viewTick);
 			game.addEntity(shot);
 		}
 	}
 	
 	@Override
 	public boolean collidesWith(Entity other) {
-		flashlight.checkEnvironment(other);
 //		manageFeelers(other);
 		
-		// Cheap and cheerful sliding collision with vertical and horizontal walls
-		if (super.collidesWith(other)) {
-			// If we a re going backwards we just sneakily spin the rotation around for our calculations
-			double effectiveRotation = down && !up ? TrigUtil.normaliseRadians(getRotation()+Math.PI) : getRotation();
-			// The nearest intersecting line and the intersection itself, 0-3 make the line, 4,5 make the intersection
-			double[] lineIntersection = other.nearestIntersectingLine(effectiveRotation, getOldX()+(getWidth()/2), getOldY()+(getHeight()/2));
-			if (lineIntersection != null) {
-				double xDiff = Math.abs(getOldX() - getX());
-				double yDiff = Math.abs(getOldY() - getY());
-				if (lineIntersection[0] == lineIntersection[2]) { // This is a vertical wall
-					revertX();
-//					if (navigator != null && xDiff > yDiff) {
-//						// We are head-butting a wall directly
-//						System.out.println("We are stuck, recalculating the path now...");
-//						double[] dest = navigator.getUltimateDestination();
-//						navigator = new Navigator(game.getEnvironment(),getX(),getY(),dest[0],dest[1]);
-//					}
-				}
-				if (lineIntersection[1] == lineIntersection[3]) { // This is a horizontal wall
-					revertY();
-//					if (navigator != null && yDiff > xDiff) {
-//						System.out.println("We are stuck, recalculating the path now...");
-//						// We are head-butting a wall directly
-//						double[] dest = navigator.getUltimateDestination();
-//						navigator = new Navigator(game.getEnvironment(),getX(),getY(),dest[0],dest[1]);
-//					}
-				}
-			}
-		}
+		// Wall collisions are resolved by the swept movement in DynamicEntity.move
 		// Below is a poor stab at sliding collision with angled walls
 		/*if (super.collidesWith(other)) {
 			// The nearest intersecting line and the intersection itself, 0-3 make the line, 4,5 make the intersection
@@ -281,6 +336,30 @@ public class PlayerEntity extends DynamicEntity {
 		}
 	}
 
+	/**
+	 * Sets the tick of the world this player is seeing.  Shots it fires will be tested against the world as it
+	 * was at that tick.
+	 * 
+	 * @param viewTick The tick being seen, or -1 if this player sees the present
+	 */
+	public void setViewTick(int viewTick) {
+		this.viewTick = viewTick;
+	}
+	
+	/**
+	 * @return The navigator this player is following, or null if it is being steered by hand
+	 */
+	public Navigator getNavigator() {
+		return navigator;
+	}
+	
+	/**
+	 * @return The flashlight lighting up what this player can see
+	 */
+	public Flashlight getFlashlight() {
+		return flashlight;
+	}
+	
 	public KeyAdapter getControlListener() {
 		return controlListener;
 	}
@@ -291,53 +370,28 @@ public class PlayerEntity extends DynamicEntity {
 	
 	private class KeyInputHandler extends KeyAdapter {
 		
-		public KeyInputHandler() {
-			System.out.println("KeyInputHandler");
-		}
-		
 		@Override
 		public void keyPressed(KeyEvent e) {
-			if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-				keyPressed = true;
-				left = true;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-				keyPressed = true;
-				right = true;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_SPACE) {
-				keyPressed = true;
-				fire = true;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_UP) {
-				keyPressed = true;
-				up = true;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_DOWN) {
-				keyPressed = true;
-				down = true;
+			synchronized(PlayerEntity.this) {
+				heldKeys |= keyFor(e);
 			}
 		}
 		
 		@Override
 		public void keyReleased(KeyEvent e) {
-			if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-				left = false;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-				right = false;
+			synchronized(PlayerEntity.this) {
+				heldKeys &= ~keyFor(e);
 			}
-			if (e.getKeyCode() == KeyEvent.VK_SPACE) {
-				fire = false;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_UP) {
-				up = false;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_DOWN) {
-				down = false;
-			}
-			if (!left && !right && !fire && ! up && !down) {
-				keyPressed = false;
+		}
+		
+		private int keyFor(KeyEvent e) {
+			switch (e.getKeyCode()) {
+			case KeyEvent.VK_LEFT: return PlayerInput.LEFT;
+			case KeyEvent.VK_RIGHT: return PlayerInput.RIGHT;
+			case KeyEvent.VK_SPACE: return PlayerInput.FIRE;
+			case KeyEvent.VK_UP: return PlayerInput.UP;
+			case KeyEvent.VK_DOWN: return PlayerInput.DOWN;
+			default: return 0;
 			}
 		}
 		
@@ -355,14 +409,12 @@ public class PlayerEntity extends DynamicEntity {
 		private static final long DOUBLE_CLICK_THRESHOLD = 1000;
 		private long lastClick;
 
-		public MouseInputHandler() {
-			System.out.println("MouseInputHandler");
-		}
-		
 		@Override
 		public void mouseClicked(MouseEvent e) {
 			if (isDoubleClick()) {
-				setDestination(e.getX(),e.getY());
+				synchronized(PlayerEntity.this) {
+					pendingDestination = new int[] {e.getX(),e.getY()};
+				}
 			}
 		}
 
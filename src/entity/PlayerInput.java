@@ -0,0 +1,69 @@
+package entity;
+
+/**
+ * The input driving a <code>PlayerEntity</code> for a single tick of the game loop.  Input is gathered
+ * asynchronously by the AWT listeners but is only applied to the player at the start of a tick, so a
+ * sequence of PlayerInputs, together with the tick lengths, fully determines how the player behaves.
+ *
+ * @author Francis Stephens
+ */
+public class PlayerInput {
+	public static final int LEFT = 1;
+	public static final int RIGHT = 1 << 1;
+	public static final int UP = 1 << 2;
+	public static final int DOWN = 1 << 3;
+	public static final int FIRE = 1 << 4;
+	public static final int ALL_KEYS = LEFT | RIGHT | UP | DOWN | FIRE;
+
+	public static final PlayerInput NONE = new PlayerInput(0);
+
+	private final int keys;
+	private final boolean hasDestination;
+	private final int destX, destY;
+
+	/**
+	 * Creates input with the given keys held down and no new destination.
+	 *
+	 * @param keys A bitmask of the keys held down
+	 */
+	public PlayerInput(int keys) {
+		this.keys = keys & ALL_KEYS;
+		this.hasDestination = false;
+		this.destX = 0;
+		this.destY = 0;
+	}
+
+	/**
+	 * Creates input with the given keys held down and a new navigation destination.
+	 *
+	 * @param keys A bitmask of the keys held down
+	 * @param destX The x coordinate of the destination
+	 * @param destY The y coordinate of the destination
+	 */
+	public PlayerInput(int keys, int destX, int destY) {
+		this.keys = keys & ALL_KEYS;
+		this.hasDestination = true;
+		this.destX = destX;
+		this.destY = destY;
+	}
+
+	public boolean isPressed(int key) {
+		return (keys & key) != 0;
+	}
+
+	public int getKeys() {
+		return keys;
+	}
+
+	public boolean hasDestination() {
+		return hasDestination;
+	}
+
+	public int getDestX() {
+		return destX;
+	}
+
+	public int getDestY() {
+		return destY;
+	}
+}
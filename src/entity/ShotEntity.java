@@ -8,7 +8,9 @@ import java.util.Random;
 
 import resources.Sprite;
 import trigUtil.TrigUtil;
+import game.ContactCache;
 import game.Game;
+import game.HitHistory;
 
 public class ShotEntity extends DynamicEntity {
 	
@@ -22,27 +24,31 @@ public class ShotEntity extends DynamicEntity {
 	double coefficient = -1;
 	double shift = -1;
 	Random random;
+	int viewTick = -1;
+	private final double[] rewound = new double[3];
+	private final OrientedBox rewoundBox = new OrientedBox();
+	private final double[] offscreen = new double[2];
 	
 	public ShotEntity(Sprite sprite, Game game, int x, int y, double rotation) {
 		super(sprite,game, x, y, rotation);
 		this.sprite = sprite;
-		random = new Random();
+		random = game.getRandom();
 		setRotation(rotation);
 		jiggleGunfire();
-		birthdate = System.currentTimeMillis();
+		birthdate = game.getTime();
 	}
 	
 	protected void jiggleGunfire() {
 		double rotation = getRotation();
-		// Every time we draw this guy he gets a new position by jiggling the rotation
+		// Every tick this guy gets a new position by jiggling the rotation
 		if (random.nextBoolean()) {
 			rotation += random.nextDouble()*SHOT_SPREAD;
 		} else {
 			rotation -= random.nextDouble()*SHOT_SPREAD;
 		}
 		setRotation(rotation);
-		// We take the negative of the coefficient because the coord system of the screen is top down
-		coefficient = -(Math.cos(rotation) / Math.sin(rotation));
+		// The slope of the line of fire, getDirectionY is already negated for the screen's downward y axis
+		coefficient = getDirectionY() / getDirectionX();
 		shift = -(coefficient * getX()) + getY();
 	}
 
@@ -51,7 +57,7 @@ public class ShotEntity extends DynamicEntity {
 		List<double[]> intersections = other.findIntersections(getRotation(),getX(),getY());
 		
 		for (double[] intersection : intersections) {
-			double intersectionDistance = TrigUtil.getDistance(intersection[0],intersection[1],getX(),getY());
+			double intersectionDistance = TrigUtil.getDistanceSquared(intersection[0],intersection[1],getX(),getY());
 			
 			if (nearestDistance > intersectionDistance) {
 				nearestDistance = intersectionDistance;
@@ -63,13 +69,110 @@ public class ShotEntity extends DynamicEntity {
 		return doesIntersect;
 	}
 
+	/**
+	 * Indicates whether the tracer of this shot, from its origin to its impact point, passes through other.
+	 * 
+	 * @param other The entity which may have been hit
+	 * @return true if this shot hits other, false otherwise
+	 */
+	public boolean hits(Entity other) {
+		double[] end = getTracerEnd();
+		HitHistory history = game.getHitHistory();
+		if (viewTick >= 0 && history != null && other instanceof DynamicEntity && history.findTransform(viewTick, (DynamicEntity) other, rewound)) {
+			// The outline other had then, rotated as it was, tested just as its present outline would be
+			rewoundBox.update(rewound[0], rewound[1], other.getWidth(), other.getHeight(), TrigUtil.cos(rewound[2]), TrigUtil.sin(rewound[2]));
+			return rewoundBox.isCrossedBy(getX(),getY(),end[0],end[1]);
+		}
+		return !other.findIntersectionsIgnoringMutualTerminals(getX(),getY(),end[0],end[1]).isEmpty();
+	}
+	
+	/**
+	 * Indicates whether the tracer of this shot passes within margin of the bounding box of other.  This is
+	 * a quick test, and for a lag compensated shot the box is widened by as far as other could have moved
+	 * since the tick the shooter was seeing.
+	 * 
+	 * @param other The entity which may be in the shot's way
+	 * @param margin The distance around other's bounding box which counts as near
+	 * @return true if this shot passes near to other, false otherwise
+	 */
+	public boolean passesNear(Entity other, double margin) {
+		double[] end = getTracerEnd();
+		HitHistory history = game.getHitHistory();
+		if (viewTick >= 0 && history != null) {
+			margin += history.getRewindMargin(viewTick);
+		}
+		return TrigUtil.segmentIntersectsBox(getX(),getY(),end[0],end[1],other.getX()-margin,other.getY()-margin,other.getWidth()+2*margin,other.getHeight()+2*margin);
+	}
+	
+	/**
+	 * Sets the tick of the world the shooter was seeing when this shot was fired.  If the game has a
+	 * <code>HitHistory</code> this shot hits entities where they were at that tick rather than where they are now.
+	 * 
+	 * @param viewTick The tick the shooter was seeing, or -1 to test against the present
+	 */
+	public void setViewTick(int viewTick) {
+		this.viewTick = viewTick;
+	}
+	
+	/**
+	 * The tracer of this shot ends at its impact point.  If the shot has not hit anything it runs
+	 * off the screen.
+	 * 
+	 * @return The end point of this shot's tracer, which is only valid until this is next called
+	 */
+	private double[] getTracerEnd() {
+		if (nearestDistance == Double.MAX_VALUE) {
+			offscreen[0] = getX()+getDirectionX()*Game.DIAGONAL_LENGTH;
+			offscreen[1] = getY()+getDirectionY()*Game.DIAGONAL_LENGTH;
+			return offscreen;
+		}
+		return impactPoint;
+	}
+	
+	/**
+	 * @return The point where this shot's tracer ends, the array must not be modified
+	 */
+	public double[] getImpactPoint() {
+		return impactPoint;
+	}
+	
+	@Override
+	public void getBounds(double[] bounds) {
+		double[] end = getTracerEnd();
+		bounds[0] = Math.min(getX(),end[0]);
+		bounds[1] = Math.min(getY(),end[1]);
+		bounds[2] = Math.max(getX(),end[0]);
+		bounds[3] = Math.max(getY(),end[1]);
+		// Entities which have since moved away from the tracer must still be offered to a rewound shot
+		HitHistory history = game.getHitHistory();
+		if (viewTick >= 0 && history != null) {
+			double margin = history.getRewindMargin(viewTick);
+			bounds[0] -= margin;
+			bounds[1] -= margin;
+			bounds[2] += margin;
+			bounds[3] += margin;
+		}
+	}
+
+	/**
+	 * A shot's tracer runs the length of the screen, so it has no near walls worth remembering.
+	 */
+	@Override
+	public ContactCache getContactCache() {
+		return null;
+	}
+	
 	@Override
 	public void draw(Graphics2D g) {
 		Image image = sprite.getImage();
 		g.setColor(Color.magenta);
 		g.drawLine((int)getX(), (int)getY(), (int)impactPoint[0], (int)impactPoint[1]);
 		g.drawImage(image, (int)impactPoint[0], (int)impactPoint[1], null);
-		if (System.currentTimeMillis() > (SHOT_PERSISTENCE + birthdate)) {
+	}
+	
+	@Override
+	public void act(long delta) {
+		if (game.getTime() > (SHOT_PERSISTENCE + birthdate)) {
 			game.removeEntity(this);
 		}
 		jiggleGunfire();
@@ -2,6 +2,7 @@ package entity;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Image;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 
@@ -40,12 +41,19 @@ public class Wall extends Entity {
 	}
 	
 	public void draw(Graphics2D g) {
-		AffineTransform xform = AffineTransform.getRotateInstance(getRotation(),getX()+(width/2),getY()+(height/2));
+		AffineTransform xform = getRotateInstance(getX()+(width/2),getY()+(height/2));
 		xform.translate(getX(), getY());
 		g.setColor(Color.red);
 		g.drawImage(image, xform, null);
 	}
 
+	/**
+	 * @return The image drawn for this wall, unrotated
+	 */
+	public Image getImage() {
+		return image;
+	}
+
 	@Override
 	public int getHeight() {
 		return height;
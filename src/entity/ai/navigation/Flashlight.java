@@ -1,148 +1,145 @@
 package entity.ai.navigation;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 
+import profiling.FrameProfiler;
+import profiling.Phase;
 import trigUtil.TrigUtil;
-import entity.Displayable;
-import entity.Entity;
 import entity.PlayerEntity;
+import game.Environment;
 import game.Game;
+import game.OptionalWork;
+import game.WallHierarchy;
 
 /**
  * This entity highlights the viewable section of the map in front of the <code>PlayerEntity</code>.
- * 
- * TODO this really looks like an entity now.  But maybe it's not.
- * 
+ *
+ * The lit region is a visibility polygon found by sweeping across the field of view in angular order.
+ * A ray is cast at each edge of the field of view and at, and just either side of, every wall corner
+ * within it; the nearest wall each ray meets gives a vertex of the polygon.  The polygon is cached and
+ * only recomputed once the player has moved or turned far enough to make a visible difference, or the
+ * walls have changed.
+ *
  * @author Francis Stephens
  */
-public class Flashlight implements Displayable {
+public class Flashlight {
 	// The angle, either side from straight ahead, that the player entity can see
-	private static final double rightHorizon = (Math.PI / 2) * 0.8;
-	private static final double leftHorizon = (Math.PI * 2) - rightHorizon;
+	private static final double HORIZON = (Math.PI / 2) * 0.8;
 	private static final double flashlightLength = TrigUtil.getDistance(0,0,Game.SCREEN_WIDTH,Game.SCREEN_HEIGHT);
-	
+	// Rays cast just past a corner find whatever lies behind it
+	private static final double CORNER_OFFSET = 0.0001;
+	private static final double MOVE_THRESHOLD = 1;
+	private static final double TURN_THRESHOLD = 0.005;
+	// Used in place of the thresholds above while the frame budget is shedding flashlight precision
+	private static final double COARSE_MOVE_THRESHOLD = 6;
+	private static final double COARSE_TURN_THRESHOLD = 0.05;
+	public static final Color LIGHT = new Color(255, 255, 160, 60);
+
 	PlayerEntity player;
 	Game game;
-	List<Obstruction> obstructions;
 	double x,y,rotation;
-	double[] leftPeriphery, rightPeriphery;
-	double leftRotation, rightRotation;
-	
+	private int revision = -1;
+	private double[] angles = new double[0];
+	private double[] polygon = new double[0]; // {x0,y0,x1,y1...} starting at the light itself
+	private int vertexCount;
+
 	public Flashlight(PlayerEntity player, Game game) {
 		this.game = game;
 		this.player = player;
-		obstructions = new ArrayList<Obstruction>();
-		leftPeriphery = rightPeriphery = null;
-	}
-	
-	public void draw (Graphics2D g) {
-		List<double[]> viewablePoints = findViewablePoints(g);
-		g.setColor(Color.blue);
-		g.drawLine((int)x,(int)y,(int)leftPeriphery[0],(int)leftPeriphery[1]);
-		g.drawLine((int)x,(int)y,(int)rightPeriphery[0],(int)rightPeriphery[1]);
-		for (double[] point : viewablePoints) {
-			g.drawString("/",(int)point[0],(int)point[1]);
-		}
-		obstructions.clear();
-		leftPeriphery = rightPeriphery = null;
 	}
 
 	/**
-	 * Traversing the list of obstructions we find every point (corner of an entity) which is visible to 
-	 * the flashlight.
-	 * @param g A graphics context on which visible points can be drawn for debugging purposes
+	 * Recomputes the visibility polygon if the player has moved or turned past the thresholds, or the walls
+	 * have changed, since it was last computed.  The time taken is counted against <code>Phase.VISION</code>,
+	 * which the frame budget reads when deciding whether to shed flashlight precision.
 	 */
-	private List<double[]> findViewablePoints(Graphics2D g) {
-		List<double[]> viewablePoints = VisionUtil.findViewablePoints(x, y, obstructions,0);
-		filterForFieldOfView(viewablePoints,g);
-		return viewablePoints;
+	public void update() {
+		long start = FrameProfiler.getInstance().start(Phase.VISION);
+		updatePolygon();
+		FrameProfiler.getInstance().stop(Phase.VISION, start);
 	}
 
-	private void filterForFieldOfView(List<double[]> viewablePoints, Graphics2D g) {
-		List<double[]> newPoints = new ArrayList<double[]>();
-		
-		for (Iterator<double[]> itr = viewablePoints.iterator();itr.hasNext();) {
-			double[] point = itr.next();
-			
-			if (!isWithinFieldOfView(point)) {
-				itr.remove();
-				continue;
-			}
-			if (g != null) {
-				g.setColor(Color.orange);
-				g.drawLine((int)x,(int)y, (int)point[0], (int)point[1]);
-			}
-		}
-		viewablePoints.addAll(newPoints);
-	}
-	
-	private boolean isWithinFieldOfView(double[] point) {
-		double r = TrigUtil.getLineRotation(player.getX()+player.getWidth()/2, player.getY()+player.getHeight()/2, point[0], point[1]);
-		if (leftRotation < rightRotation) {
-			return TrigUtil.isBetween(r, leftRotation, rightRotation);
-		}
-		else {
-			return r > leftRotation || r < rightRotation;
+	private void updatePolygon() {
+		Environment environment = game.getEnvironment();
+		double centreX = player.getX() + player.getWidth()/2;
+		double centreY = player.getY() + player.getHeight()/2;
+		double extension = player.getHeight()/2+PlayerEntity.VISION_EXTENSION;
+		double frontX = centreX + player.getDirectionX()*extension;
+		double frontY = centreY + player.getDirectionY()*extension;
+		boolean coarse = game.getFrameBudget().isShed(OptionalWork.FLASHLIGHT_PRECISION);
+		double moveThreshold = coarse ? COARSE_MOVE_THRESHOLD : MOVE_THRESHOLD;
+		double turnThreshold = coarse ? COARSE_TURN_THRESHOLD : TURN_THRESHOLD;
+		if (revision == environment.getRevision() && vertexCount > 0
+				&& TrigUtil.getDistanceSquared(x, y, frontX, frontY) < moveThreshold*moveThreshold
+				&& TrigUtil.rotationDistance(TrigUtil.normaliseRadians(rotation), TrigUtil.normaliseRadians(player.getRotation())) < turnThreshold) {
+			return;
 		}
+		x = frontX;
+		y = frontY;
+		rotation = player.getRotation();
+		revision = environment.getRevision();
+		computePolygon(environment.getSegments(), environment.getWallHierarchy());
 	}
 
 	/**
-	 * Provides an entity so that it can be tested to see if it obstructs the path of the flashlight.
-	 * 
-	 * @param entity The entity which may be obstructing this flashlight
+	 * @return The number of vertices in the visibility polygon, the first being the light itself
 	 */
-	public void checkEnvironment(Entity entity) {
-		if (cornersWithinFlashlight(entity) || entityWithinFlashlight(entity)) {
-			obstructions.add(new Obstruction(entity,this.x,this.y));
-		}
+	public int getVertexCount() {
+		return vertexCount;
 	}
 
 	/**
-	 * Indicates whether the entity provided lies between the two periphery
-	 * lines.
-	 * 
-	 * @param entity The entity to test for visibility
-	 * @return Whether entity lies within the flashlight
+	 * @return The vertices of the visibility polygon as {x0,y0,x1,y1...}, only the first getVertexCount are in use
 	 */
-	private boolean entityWithinFlashlight(Entity entity) {
-		setFieldOfView();
-		double[] point = entity.nearestSurfacePoint(x,y);
-		List<double[]> pointList = new ArrayList<double[]>(1);
-		pointList.add(point);
-		filterForFieldOfView(pointList,null);
-		return pointList.size() > 0;
-	}
-	
-	/**
-	 * Indicates whether the entity provided has at least one corner point lying between the two periphery
-	 * lines.
-	 * 
-	 * @param entity The entity to test for visibility
-	 * @return Whether entity lies within the flashlight
-	 */
-	private boolean cornersWithinFlashlight(Entity entity) {
-		setFieldOfView();
-		List<double[]> points = entity.getCorners();
-		filterForFieldOfView(points,null);
-		return points.size() > 0;
+	public double[] getPolygon() {
+		return polygon;
 	}
 
-	private void setFieldOfView() {
-		if (leftPeriphery == null || rightPeriphery == null) {
-			double centreX = player.getX() + player.getWidth()/2;
-			double centreY = player.getY() + player.getHeight()/2;
-			rotation = player.getRotation();
-			double[] frontPoint = TrigUtil.getExtensionPoint(rotation, centreX, centreY, player.getHeight()/2+PlayerEntity.VISION_EXTENSION);
-			x = frontPoint[0];
-			y = frontPoint[1];
-			leftRotation = TrigUtil.normaliseRadians(rotation + leftHorizon);
-			rightRotation = TrigUtil.normaliseRadians(rotation + rightHorizon);
-			leftPeriphery = TrigUtil.getExtensionPoint(leftRotation,x,y,flashlightLength);
-			rightPeriphery = TrigUtil.getExtensionPoint(rightRotation,x,y,flashlightLength);
+	private void computePolygon(double[] segments, WallHierarchy walls) {
+		// The direction faced, measured anticlockwise from the x axis in screen coordinates
+		double facingX = player.getDirectionX();
+		double facingY = player.getDirectionY();
+		double facing = TrigUtil.atan2(facingY, facingX);
+		// Every ray angle is held relative to the direction faced, so the field of view is [-HORIZON,HORIZON]
+		int maxRays = 2 + (segments.length / 2) * 3;
+		if (angles.length < maxRays) {
+			angles = new double[maxRays];
+			polygon = new double[(maxRays + 1) * 2];
+		}
+		int rays = 0;
+		angles[rays++] = -HORIZON;
+		angles[rays++] = HORIZON;
+		for (int i = 0; i < segments.length; i += 2) {
+			double dx = segments[i] - x;
+			double dy = segments[i+1] - y;
+			double angle = TrigUtil.atan2(facingX*dy - facingY*dx, facingX*dx + facingY*dy);
+			if (angle > -HORIZON && angle < HORIZON) {
+				angles[rays++] = angle - CORNER_OFFSET;
+				angles[rays++] = angle;
+				angles[rays++] = angle + CORNER_OFFSET;
+			}
+		}
+		Arrays.sort(angles, 0, rays);
+		// Each corner ends two of its wall's segments, and walls may share corners, so cast each angle only once
+		int unique = 0;
+		for (int r = 0; r < rays; r++) {
+			if (unique == 0 || angles[r] != angles[unique-1]) {
+				angles[unique++] = angles[r];
+			}
+		}
+		rays = unique;
+		polygon[0] = x;
+		polygon[1] = y;
+		vertexCount = 1;
+		for (int r = 0; r < rays; r++) {
+			double angle = Math.max(-HORIZON, Math.min(HORIZON, angles[r]));
+			double rayX = TrigUtil.cos(facing + angle);
+			double rayY = TrigUtil.sin(facing + angle);
+			double distance = walls.castRay(x, y, rayX, rayY, flashlightLength);
+			polygon[vertexCount*2] = x + rayX*distance;
+			polygon[vertexCount*2+1] = y + rayY*distance;
+			vertexCount++;
 		}
 	}
-}
\ No newline at end of file
+}
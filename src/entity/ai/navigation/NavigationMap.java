@@ -1,103 +1,588 @@
 package entity.ai.navigation;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import entity.Displayable;
+import profiling.FrameProfiler;
+import profiling.NavigationMapBuildEvent;
+import profiling.Phase;
+import trigUtil.TrigUtil;
 import entity.Entity;
 import game.Environment;
+import game.Game;
 
 /**
  * A Map of points, size two double array (x,y), which are directly navigable by line of site.
  * It is expected that these points will be the corner points of static objects in the game such
  * as walls etc.  In this way navigation is made a simple case of graph traversal moving from
  * edge to edge.
- * 
+ *
+ * The map is kept up to date as walls come and go.  Every connection is filed in a coarse grid by its
+ * bounding box, so when a wall changes only the connections near it need to be looked at.
+ *
+ * Each connection records its clearance, how close it passes to any wall, so that one map serves entities of
+ * every size: an entity may follow a connection whose clearance is at least its radius.  Clearances are found
+ * once, as connections are made, and found again for the connections near a wall which comes or goes.
+ *
+ * The points are kept in two rings.  The inner ring, the corners pushed out by INNER_RING, serves entities
+ * narrower than that.  Its points are too near the walls for anything wider, so each corner also has a point in an
+ * outer ring, pushed out as far as MAX_CLEARANCE while it still has as much room around it as it has been
+ * pushed out.  The two rings are never connected to each other.
+ *
  * @author Francis Stephens
  */
-public class NavigationMap implements Displayable {
-	Map<double[],Set<double[]>> adjacencyMap;
+public class NavigationMap {
+	private static final int CELL_SIZE = 100;
+	/** Clearances are not measured beyond this, a connection further than this from every wall records this */
+	public static final double MAX_CLEARANCE = 64;
+	/** How far the corners are pushed out for the inner ring, which serves entities narrower than this */
+	public static final double INNER_RING = Environment.MIN_DIST_BETWEEN_WALLS/2;
+	// An outer point without room enough is tried this much nearer its corner
+	private static final double OUTER_RING_STEP = 8;
+
+	private final Environment environment;
+	private final Map<Point2D.Double,Map<Point2D.Double,Connection>> adjacencyMap;
+	private final Map<Entity,List<Point2D.Double>> pointsOf;
+	private final Map<Entity,List<Point2D.Double>> outerPointsOf;
+	private final List<List<Connection>> cells;
+	private final int columns, rows;
+	private int queryStamp;
 
 	/**
 	 * Private constructor locks up class
 	 */
-	private NavigationMap() {
-		adjacencyMap = new HashMap<double[],Set<double[]>>();
+	private NavigationMap(Environment environment) {
+		this.environment = environment;
+		adjacencyMap = new HashMap<Point2D.Double,Map<Point2D.Double,Connection>>();
+		pointsOf = new IdentityHashMap<Entity,List<Point2D.Double>>();
+		outerPointsOf = new IdentityHashMap<Entity,List<Point2D.Double>>();
+		columns = (Game.SCREEN_WIDTH + CELL_SIZE - 1) / CELL_SIZE;
+		rows = (Game.SCREEN_HEIGHT + CELL_SIZE - 1) / CELL_SIZE;
+		cells = new ArrayList<List<Connection>>(columns * rows);
+		for (int i = 0; i < columns * rows; i++) {
+			cells.add(new ArrayList<Connection>());
+		}
 	}
-	
+
 	/**
 	 * Makes two points directly navigable by line of site.
-	 * 
+	 *
 	 * @param point1 The first point
 	 * @param point2 The second point
 	 */
 	public void addConnection(double[] point1, double[] point2) {
-		Set<double[]> point1List = adjacencyMap.get(point1);
-		Set<double[]> point2List = adjacencyMap.get(point2);
-		
-		if (point1List != null) {
-			point1List.add(point2);
-		}
-		else {
-			point1List = new HashSet<double[]>();
-			point1List.add(point2);
-			adjacencyMap.put(point1, point1List);
-		}
-		if (point2List != null) {
-			point2List.add(point2);
-		}
-		else {
-			point2List = new HashSet<double[]>();
-			point2List.add(point1);
-			adjacencyMap.put(point2, point2List);
-		}
+		connect(new Point2D.Double(point1[0],point1[1]), new Point2D.Double(point2[0],point2[1]));
 	}
-	
+
 	/**
 	 * Returns a list of all the points directly navigable from the point of origin.
-	 * 
+	 *
 	 * @param origin The point whose neighbour points we wish for
-	 * @return The list of points directly navigable from origin.
+	 * @return The list of points directly navigable from origin, empty if origin is not in the map.
 	 */
-	public Set<double[]> accessiblePoints(double[] origin) {
-		return adjacencyMap.get(origin);
+	public List<double[]> accessiblePoints(double[] origin) {
+		return accessiblePoints(origin, 0);
 	}
-	
+
 	/**
-	 * 
-	 * 
-	 * @param game
-	 * @return
+	 * Returns a list of the points directly navigable from the point of origin by an entity of the radius given.
+	 *
+	 * @param origin The point whose neighbour points we wish for
+	 * @param radius The radius of the entity navigating, at most MAX_CLEARANCE
+	 * @return The list of points navigable from origin with at least radius clearance, empty if origin is not in the map.
+	 */
+	public List<double[]> accessiblePoints(double[] origin, double radius) {
+		Map<Point2D.Double,Connection> connections = adjacencyMap.get(new Point2D.Double(origin[0],origin[1]));
+		List<double[]> points = new ArrayList<double[]>();
+		if (connections != null) {
+			for (Map.Entry<Point2D.Double,Connection> entry : connections.entrySet()) {
+				if (entry.getValue().clearance >= radius) {
+					points.add(new double[] {entry.getKey().x,entry.getKey().y});
+				}
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * Finds the points of the outer ring which an entity at least INNER_RING wide can reach in a straight line
+	 * from (x,y), a point which need not be in the map.
+	 *
+	 * @param x The x coord to start from
+	 * @param y The y coord to start from
+	 * @param radius The radius of the entity navigating, at most MAX_CLEARANCE
+	 * @return The outer points reachable from (x,y) with at least radius clearance
+	 */
+	public List<double[]> findOuterPoints(double x, double y, double radius) {
+		List<double[]> points = new ArrayList<double[]>();
+		for (Point2D.Double point : outerPoints()) {
+			if (environment.hasLineOfSight(x, y, point.x, point.y)
+					&& environment.findClearance(x, y, point.x, point.y, radius) >= radius) {
+				points.add(new double[] {point.x,point.y});
+			}
+		}
+		return points;
+	}
+
+	/**
+	 * @param x The x coord of the point
+	 * @param y The y coord of the point
+	 * @return true if (x,y) is one of the points of this map, false otherwise
+	 */
+	public boolean contains(double x, double y) {
+		return adjacencyMap.containsKey(new Point2D.Double(x,y));
+	}
+
+	/**
+	 * Builds the navigation map for every wall in environment.
+	 *
+	 * @param environment The environment to be navigated
+	 * @return The navigation map of environment
 	 */
 	public static NavigationMap getInstance(Environment environment) {
-		NavigationMap navigationMap = new NavigationMap();
+		FrameProfiler profiler = FrameProfiler.getInstance();
+		long start = profiler.start(Phase.NAVIGATION);
+		NavigationMapBuildEvent event = new NavigationMapBuildEvent();
+		event.begin();
+		NavigationMap navigationMap = new NavigationMap(environment);
 		List<? extends Entity> allWalls = environment.getWalls();
-		
+
 		for (Entity entity : allWalls) {
-			List<double[]> points = entity.getCorners();
-			for (double[] point : points) {
-				List<double[]> viewablePoints = environment.findViewablePoints(point[0],point[1],Environment.MIN_DIST_BETWEEN_WALLS/2);
-				for (double[] viewablePoint : viewablePoints) {
-					navigationMap.addConnection(point, viewablePoint);
-				}
+			navigationMap.addPoints(entity);
+		}
+		for (Entity entity : allWalls) {
+			navigationMap.addOuterPoints(entity);
+		}
+		if (event.shouldCommit()) {
+			event.wallsConsidered = allWalls.size();
+			event.nodes = navigationMap.adjacencyMap.size();
+			for (Map<Point2D.Double,Connection> connections : navigationMap.adjacencyMap.values()) {
+				event.connections += connections.size();
 			}
+			event.commit();
 		}
+		profiler.stop(Phase.NAVIGATION, start);
 		return navigationMap;
 	}
 
-	@Override
-	public void draw(Graphics2D g) {
-		g.setColor(Color.DARK_GRAY);
-		for (double[] point : adjacencyMap.keySet()) {
-			Set<double[]> connectedPoints = adjacencyMap.get(point);
-			for (double[] connectedPoint : connectedPoints) {
-				g.drawLine((int)point[0],(int)point[1],(int)connectedPoint[0],(int)connectedPoint[1]);
+	/**
+	 * Updates the map for a wall which has just been added to the environment.  Connections passing through
+	 * the wall are cut and the corners of the wall are connected to every point they can see.  The outer
+	 * points of the walls near enough for the new wall to have taken their room are placed again.
+	 *
+	 * @param wall The new wall
+	 */
+	public void wallAdded(Entity wall) {
+		long start = FrameProfiler.getInstance().start(Phase.NAVIGATION);
+		double[] bounds = new double[4];
+		wall.getBounds(bounds);
+		List<Connection> nearby = findConnections(bounds[0], bounds[1], bounds[2], bounds[3]);
+		for (Connection connection : nearby) {
+			Point2D.Double a = connection.a, b = connection.b;
+			// Tested against the wall's outline just as the connections were made, so that the map matches a rebuilt one
+			if (crossesBounds(a, b, bounds) && !environment.hasLineOfSight(a.x, a.y, b.x, b.y)) {
+				disconnect(connection);
+			}
+		}
+		addPoints(wall);
+		List<Entity> crowded = findOuterPointOwners(bounds);
+		for (Entity other : crowded) {
+			removeOuterPoints(other);
+		}
+		crowded.add(wall);
+		for (Entity other : crowded) {
+			addOuterPoints(other);
+		}
+		updateClearances(bounds);
+		FrameProfiler.getInstance().stop(Phase.NAVIGATION, start);
+	}
+
+	/**
+	 * Updates the map for a wall which has just been removed from the environment.  The wall's corners are
+	 * dropped, unless another wall has a corner at the same place, and any pair of remaining points whose line
+	 * of sight ran through the wall is tested again.  The outer points of the walls near enough to have been
+	 * crowded by the wall are placed again.
+	 *
+	 * @param wall The wall which has gone
+	 */
+	public void wallRemoved(Entity wall) {
+		long start = FrameProfiler.getInstance().start(Phase.NAVIGATION);
+		double[] bounds = new double[4];
+		wall.getBounds(bounds);
+		dropPoints(pointsOf.remove(wall), pointsOf);
+		reconnectAcross(new ArrayList<Point2D.Double>(ownedPoints(pointsOf)), bounds);
+		dropPoints(outerPointsOf.remove(wall), outerPointsOf);
+		List<Entity> crowded = findOuterPointOwners(bounds);
+		for (Entity other : crowded) {
+			removeOuterPoints(other);
+		}
+		reconnectAcross(new ArrayList<Point2D.Double>(outerPoints()), bounds);
+		for (Entity other : crowded) {
+			addOuterPoints(other);
+		}
+		updateClearances(bounds);
+		FrameProfiler.getInstance().stop(Phase.NAVIGATION, start);
+	}
+
+	/**
+	 * Drops each of points, and its connections, unless a wall in owners still has a point at the same place.
+	 */
+	private void dropPoints(List<Point2D.Double> points, Map<Entity,List<Point2D.Double>> owners) {
+		if (points == null) {
+			return;
+		}
+		Set<Point2D.Double> remaining = ownedPoints(owners);
+		for (Point2D.Double point : points) {
+			Map<Point2D.Double,Connection> connections = adjacencyMap.get(point);
+			if (connections != null && !remaining.contains(point)) {
+				for (Connection connection : new ArrayList<Connection>(connections.values())) {
+					disconnect(connection);
+				}
+				adjacencyMap.remove(point);
+			}
+		}
+	}
+
+	private static Set<Point2D.Double> ownedPoints(Map<Entity,List<Point2D.Double>> owners) {
+		Set<Point2D.Double> points = new LinkedHashSet<Point2D.Double>();
+		for (List<Point2D.Double> wallPoints : owners.values()) {
+			points.addAll(wallPoints);
+		}
+		return points;
+	}
+
+	private Set<Point2D.Double> outerPoints() {
+		return ownedPoints(outerPointsOf);
+	}
+
+	/**
+	 * Connects every pair of points whose line of sight passes through bounds, the bounding box of a wall
+	 * which has gone, and is now clear.  The points are filed in the grid, and from each point only the
+	 * cells whose points might lie inside the wedge that point sees bounds within are searched for the other
+	 * end of a pair.
+	 */
+	private void reconnectAcross(List<Point2D.Double> points, double[] bounds) {
+		List<List<Integer>> pointCells = new ArrayList<List<Integer>>(columns * rows);
+		// The bounding box, {minX,minY,maxX,maxY}, of the points filed in each cell
+		double[][] extents = new double[columns * rows][];
+		for (int i = 0; i < columns * rows; i++) {
+			pointCells.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < points.size(); i++) {
+			Point2D.Double point = points.get(i);
+			int cell = row(point.y) * columns + column(point.x);
+			pointCells.get(cell).add(i);
+			double[] extent = extents[cell];
+			if (extent == null) {
+				extents[cell] = new double[] {point.x,point.y,point.x,point.y};
+			}
+			else {
+				extent[0] = Math.min(extent[0], point.x);
+				extent[1] = Math.min(extent[1], point.y);
+				extent[2] = Math.max(extent[2], point.x);
+				extent[3] = Math.max(extent[3], point.y);
+			}
+		}
+		double[][] corners = {{bounds[0],bounds[1]},{bounds[2],bounds[1]},{bounds[2],bounds[3]},{bounds[0],bounds[3]}};
+		for (int i = 0; i < points.size(); i++) {
+			Point2D.Double a = points.get(i);
+			double[] wedge = findWedge(a, corners);
+			for (int row = 0; row < rows; row++) {
+				for (int column = 0; column < columns; column++) {
+					double[] extent = extents[row * columns + column];
+					if (extent == null || (wedge != null && !inWedge(a, wedge, extent))) {
+						continue;
+					}
+					for (int j : pointCells.get(row * columns + column)) {
+						Point2D.Double b = points.get(j);
+						if (j > i && crossesBounds(a, b, bounds) && !isConnected(a, b)
+								&& environment.hasLineOfSight(a.x, a.y, b.x, b.y)) {
+							connect(a, b);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the two corners bounding the wedge from origin which contains every corner given.
+	 *
+	 * @return {x1,y1,x2,y2}, the directions from origin to the clockwise most and anticlockwise most corners,
+	 * or null if origin lies within the corners' box and so sees them in every direction
+	 */
+	private static double[] findWedge(Point2D.Double origin, double[][] corners) {
+		if (origin.x >= corners[0][0] && origin.x <= corners[2][0] && origin.y >= corners[0][1] && origin.y <= corners[2][1]) {
+			return null;
+		}
+		double[] first = null, last = null;
+		for (double[] candidate : corners) {
+			boolean isFirst = true, isLast = true;
+			for (double[] corner : corners) {
+				double cross = cross(candidate[0]-origin.x, candidate[1]-origin.y, corner[0]-origin.x, corner[1]-origin.y);
+				isFirst &= cross >= 0;
+				isLast &= cross <= 0;
+			}
+			if (isFirst) {
+				first = candidate;
+			}
+			if (isLast) {
+				last = candidate;
+			}
+		}
+		return new double[] {first[0]-origin.x, first[1]-origin.y, last[0]-origin.x, last[1]-origin.y};
+	}
+
+	/**
+	 * Indicates whether any of the box {minX,minY,maxX,maxY} might lie within the wedge from origin.
+	 */
+	private static boolean inWedge(Point2D.Double origin, double[] wedge, double[] box) {
+		boolean afterFirst = false, beforeLast = false;
+		for (int corner = 0; corner < 4; corner++) {
+			double x = box[(corner & 1) * 2] - origin.x;
+			double y = box[1 + (corner >> 1) * 2] - origin.y;
+			afterFirst |= cross(wedge[0], wedge[1], x, y) >= 0;
+			beforeLast |= cross(wedge[2], wedge[3], x, y) <= 0;
+		}
+		return afterFirst && beforeLast;
+	}
+
+	private static double cross(double x1, double y1, double x2, double y2) {
+		return x1 * y2 - y1 * x2;
+	}
+
+	/**
+	 * Indicates whether the segment from a to b passes through bounds, a wall's bounding box, rotation included.
+	 */
+	private static boolean crossesBounds(Point2D.Double a, Point2D.Double b, double[] bounds) {
+		return TrigUtil.segmentIntersectsBox(a.x, a.y, b.x, b.y, bounds[0], bounds[1], bounds[2]-bounds[0], bounds[3]-bounds[1]);
+	}
+
+	/**
+	 * Measures again the clearance of every connection which passes near enough to a wall, whose bounding box
+	 * is given, for its clearance to have been limited by the wall, or to be limited by it now.
+	 */
+	private void updateClearances(double[] bounds) {
+		for (Connection connection : findConnections(bounds[0]-MAX_CLEARANCE, bounds[1]-MAX_CLEARANCE,
+				bounds[2]+MAX_CLEARANCE, bounds[3]+MAX_CLEARANCE)) {
+			connection.clearance = measureClearance(connection.a, connection.b);
+		}
+	}
+
+	private double measureClearance(Point2D.Double a, Point2D.Double b) {
+		return environment.findClearance(a.x, a.y, b.x, b.y, MAX_CLEARANCE);
+	}
+
+	/**
+	 * Adds the corners of wall, pushed out from the wall, and connects each to every point visible from it.
+	 */
+	private void addPoints(Entity wall) {
+		double bufferSize = Environment.MIN_DIST_BETWEEN_WALLS/2;
+		List<Point2D.Double> wallPoints = new ArrayList<Point2D.Double>(4);
+		for (double[] corner : wall.pushOutPoints(wall.getCorners(), bufferSize)) {
+			Point2D.Double point = new Point2D.Double(corner[0],corner[1]);
+			wallPoints.add(point);
+			if (!adjacencyMap.containsKey(point)) {
+				adjacencyMap.put(point, new HashMap<Point2D.Double,Connection>());
+			}
+			for (double[] viewablePoint : environment.findViewablePoints(point.x,point.y,bufferSize)) {
+				connect(point, new Point2D.Double(viewablePoint[0],viewablePoint[1]));
 			}
 		}
+		pointsOf.put(wall, wallPoints);
+	}
+
+	/**
+	 * Adds the outer points of wall and connects each to every outer point visible from it.  Each corner is
+	 * pushed out as far as MAX_CLEARANCE, and then nearer a step at a time, until it reaches a place with at
+	 * least as much room around it as it has been pushed out.  A corner with no such place beyond the inner ring
+	 * has no outer point.
+	 */
+	private void addOuterPoints(Entity wall) {
+		List<double[]> corners = wall.getCorners();
+		double[] placed = new double[corners.size() * 2];
+		boolean[] found = new boolean[corners.size()];
+		for (double offset = MAX_CLEARANCE; offset > INNER_RING; offset -= OUTER_RING_STEP) {
+			List<double[]> pushed = wall.pushOutPoints(corners, offset);
+			for (int i = 0; i < pushed.size(); i++) {
+				double[] point = pushed.get(i);
+				if (!found[i] && hasRoom(point[0], point[1], offset)) {
+					found[i] = true;
+					placed[i*2] = point[0];
+					placed[i*2+1] = point[1];
+				}
+			}
+		}
+		Set<Point2D.Double> others = outerPoints();
+		List<Point2D.Double> wallPoints = new ArrayList<Point2D.Double>(4);
+		for (int i = 0; i < found.length; i++) {
+			if (!found[i]) {
+				continue;
+			}
+			Point2D.Double point = new Point2D.Double(placed[i*2],placed[i*2+1]);
+			wallPoints.add(point);
+			connectionsOf(point);
+			for (Point2D.Double other : others) {
+				if (environment.hasLineOfSight(point.x, point.y, other.x, other.y)) {
+					connect(point, other);
+				}
+			}
+			others.add(point);
+		}
+		outerPointsOf.put(wall, wallPoints);
+	}
+
+	private boolean hasRoom(double x, double y, double room) {
+		return environment.isClear(x, y, 0, 0) && environment.findClearance(x, y, x, y, room) >= room;
+	}
+
+	private void removeOuterPoints(Entity wall) {
+		dropPoints(outerPointsOf.remove(wall), outerPointsOf);
+	}
+
+	/**
+	 * Finds the walls still in the map whose outer points could have been placed
+	 * differently had a wall within bounds been there or not.
+	 */
+	private List<Entity> findOuterPointOwners(double[] bounds) {
+		// An outer point lies within MAX_CLEARANCE of its corner and looks for room within MAX_CLEARANCE of itself
+		double reach = 2 * MAX_CLEARANCE;
+		double[] wallBounds = new double[4];
+		List<Entity> owners = new ArrayList<Entity>();
+		for (Entity wall : outerPointsOf.keySet()) {
+			wall.getBounds(wallBounds);
+			if (wallBounds[0] - reach <= bounds[2] && bounds[0] <= wallBounds[2] + reach
+					&& wallBounds[1] - reach <= bounds[3] && bounds[1] <= wallBounds[3] + reach) {
+				owners.add(wall);
+			}
+		}
+		return owners;
+	}
+
+	private boolean isConnected(Point2D.Double a, Point2D.Double b) {
+		Map<Point2D.Double,Connection> connections = adjacencyMap.get(a);
+		return connections != null && connections.containsKey(b);
+	}
+
+	private void connect(Point2D.Double a, Point2D.Double b) {
+		if (a.equals(b) || isConnected(a, b)) {
+			return;
+		}
+		Connection connection = new Connection(a, b, measureClearance(a, b));
+		connectionsOf(a).put(b, connection);
+		connectionsOf(b).put(a, connection);
+		for (int row = row(connection.minY); row <= row(connection.maxY); row++) {
+			for (int column = column(connection.minX); column <= column(connection.maxX); column++) {
+				cells.get(row * columns + column).add(connection);
+			}
+		}
+	}
+
+	private Map<Point2D.Double,Connection> connectionsOf(Point2D.Double point) {
+		Map<Point2D.Double,Connection> connections = adjacencyMap.get(point);
+		if (connections == null) {
+			connections = new HashMap<Point2D.Double,Connection>();
+			adjacencyMap.put(point, connections);
+		}
+		return connections;
+	}
+
+	/**
+	 * Removes connection from the adjacency map.  It is left in the grid, to be swept out the next time
+	 * its cells are searched.
+	 */
+	private void disconnect(Connection connection) {
+		connection.removed = true;
+		Map<Point2D.Double,Connection> aConnections = adjacencyMap.get(connection.a);
+		Map<Point2D.Double,Connection> bConnections = adjacencyMap.get(connection.b);
+		if (aConnections != null) {
+			aConnections.remove(connection.b);
+		}
+		if (bConnections != null) {
+			bConnections.remove(connection.a);
+		}
+	}
+
+	/**
+	 * Finds every connection whose bounding box shares a grid cell with the box given.
+	 */
+	private List<Connection> findConnections(double minX, double minY, double maxX, double maxY) {
+		queryStamp++;
+		List<Connection> found = new ArrayList<Connection>();
+		for (int row = row(minY); row <= row(maxY); row++) {
+			for (int column = column(minX); column <= column(maxX); column++) {
+				for (Iterator<Connection> itr = cells.get(row * columns + column).iterator(); itr.hasNext();) {
+					Connection connection = itr.next();
+					if (connection.removed) {
+						itr.remove();
+					}
+					else if (connection.stamp != queryStamp) {
+						connection.stamp = queryStamp;
+						found.add(connection);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private int column(double x) {
+		return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / CELL_SIZE)));
+	}
+
+	private int row(double y) {
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / CELL_SIZE)));
+	}
+
+	/**
+	 * @return Every connection in the map once, as consecutive {x1,y1,x2,y2}
+	 */
+	public double[] getConnectionLines() {
+		List<Connection> connections = new ArrayList<Connection>();
+		for (Map.Entry<Point2D.Double,Map<Point2D.Double,Connection>> entry : adjacencyMap.entrySet()) {
+			for (Connection connection : entry.getValue().values()) {
+				if (connection.a.equals(entry.getKey())) {
+					connections.add(connection);
+				}
+			}
+		}
+		double[] lines = new double[connections.size() * 4];
+		for (int i = 0; i < connections.size(); i++) {
+			Connection connection = connections.get(i);
+			lines[i*4] = connection.a.x;
+			lines[i*4+1] = connection.a.y;
+			lines[i*4+2] = connection.b.x;
+			lines[i*4+3] = connection.b.y;
+		}
+		return lines;
+	}
+
+	/**
+	 * A line of sight between two points in the map.
+	 */
+	private static class Connection {
+		final Point2D.Double a, b;
+		final double minX, minY, maxX, maxY;
+		// How close the connection passes to any wall, up to MAX_CLEARANCE
+		double clearance;
+		boolean removed;
+		int stamp;
+
+		Connection(Point2D.Double a, Point2D.Double b, double clearance) {
+			this.a = a;
+			this.b = b;
+			this.clearance = clearance;
+			minX = Math.min(a.x, b.x);
+			minY = Math.min(a.y, b.y);
+			maxX = Math.max(a.x, b.x);
+			maxY = Math.max(a.y, b.y);
+		}
 	}
-}
\ No newline at end of file
+}
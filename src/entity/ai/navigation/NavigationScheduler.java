@@ -0,0 +1,102 @@
+package entity.ai.navigation;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import profiling.FrameProfiler;
+import profiling.Phase;
+
+/**
+ * Shares out the work of path searches between the ticks of the game, so that however many agents ask for
+ * a path at once no single tick does more than a fixed amount of searching.
+ * 
+ * Each tick the searches waiting are taken in turn, round robin, each being given a slice of a few point
+ * expansions before going to the back of the queue.  The turns stop once the tick's budget of expansions,
+ * set with the system property <code>navigation.expansions</code>, is used up.  A time budget in
+ * microseconds may also be set with <code>navigation.micros</code>, but as it depends on the speed of the
+ * machine a game run with one will not replay identically.
+ * 
+ * @author Francis Stephens
+ */
+public class NavigationScheduler {
+	public static final int DEFAULT_EXPANSIONS_PER_TICK = 48;
+	// The expansions given to a search on each of its turns
+	private static final int EXPANSIONS_PER_SLICE = 8;
+	
+	private final Deque<Navigator> queue;
+	private final int expansionsPerTick;
+	private final long nanosPerTick;
+	
+	/**
+	 * Creates a scheduler with the budgets given by the system properties <code>navigation.expansions</code>
+	 * and <code>navigation.micros</code>.
+	 * 
+	 * @return A new scheduler
+	 */
+	public static NavigationScheduler fromSystemProperties() {
+		int expansions = Integer.getInteger("navigation.expansions", DEFAULT_EXPANSIONS_PER_TICK);
+		long micros = Long.getLong("navigation.micros", 0);
+		return new NavigationScheduler(expansions, micros * 1000);
+	}
+	
+	/**
+	 * @param expansionsPerTick The most points to expand in a single tick
+	 * @param nanosPerTick The longest to spend searching in a single tick, or 0 for no time limit
+	 */
+	public NavigationScheduler(int expansionsPerTick, long nanosPerTick) {
+		if (expansionsPerTick <= 0) {
+			throw new IllegalArgumentException("At least one expansion must be allowed per tick");
+		}
+		this.queue = new ArrayDeque<Navigator>();
+		this.expansionsPerTick = expansionsPerTick;
+		this.nanosPerTick = nanosPerTick;
+	}
+	
+	/**
+	 * Queues the search of navigator, which will be advanced over the following ticks until it is complete.
+	 * 
+	 * @param navigator The navigator whose path is to be found
+	 */
+	public void submit(Navigator navigator) {
+		if (!navigator.isComplete()) {
+			queue.add(navigator);
+		}
+	}
+	
+	/**
+	 * @return The number of searches waiting to be completed
+	 */
+	public int getPending() {
+		return queue.size();
+	}
+	
+	/**
+	 * Advances the waiting searches by at most a single tick's budget.
+	 */
+	public void run() {
+		FrameProfiler profiler = FrameProfiler.getInstance();
+		long start = profiler.start(Phase.NAVIGATION);
+		long began = nanosPerTick > 0 ? System.nanoTime() : 0;
+		int remaining = expansionsPerTick;
+		while (remaining > 0 && !queue.isEmpty()) {
+			long remainingNanos = 0;
+			if (nanosPerTick > 0) {
+				remainingNanos = nanosPerTick - (System.nanoTime() - began);
+				if (remainingNanos <= 0) {
+					break;
+				}
+			}
+			Navigator navigator = queue.poll();
+			if (navigator.isCancelled()) {
+				continue;
+			}
+			int expansions = navigator.search(Math.min(EXPANSIONS_PER_SLICE, remaining), remainingNanos);
+			// Every turn is charged for at least one expansion, so the loop always ends
+			remaining -= Math.max(1, expansions);
+			if (!navigator.isComplete()) {
+				queue.add(navigator);
+			}
+		}
+		profiler.stop(Phase.NAVIGATION, start);
+	}
+}
@@ -1,6 +1,8 @@
 package entity.ai.navigation;
 
 import game.Environment;
+import profiling.NavigationSearchEvent;
+import trigUtil.TrigUtil;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -10,81 +12,313 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Stack;
 
+/**
+ * Plans a path from an origin to a destination through the corners of the walls in an environment.
+ * 
+ * The search is resumable.  Nothing is searched when a navigator is created; instead search is called,
+ * usually by a <code>NavigationScheduler</code>, to advance it by a bounded amount of work at a time until
+ * it is complete.  Until then the navigator has no steps.  If the walls change part way through a search
+ * the search starts again.
+ * 
+ * The search follows the connections of the environment's <code>NavigationMap</code>, only looking for the
+ * points visible from a point which is not in the map, such as the origin.  A navigator for a wider entity
+ * is given its radius and only follows connections with at least that much clearance from the walls.  An
+ * entity as wide as <code>NavigationMap.INNER_RING</code> or wider keeps to the map's outer ring of points, as the
+ * points of the inner ring lie too close to the walls for it.
+ * 
+ * @author Francis Stephens
+ */
 public class Navigator {
 	final double oX;
 	final double oY;
-	final double destX;
-	final double destY;
+	double destX;
+	double destY;
+	final double requestedX;
+	final double requestedY;
+	final double radius;
 	Environment environment;
 	Stack<double[]> intermediateSteps;
+	int nodesExpanded;
+	private boolean invalidated;
+	private boolean complete;
+	private boolean cancelled;
+	// The state of a search in progress, kept between calls to search
+	private int searchRevision;
+	private boolean destinationChosen;
+	private Stack<double[]> steps;
+	private List<double[]> visitedLocations;
+	private Stack<Stack<double[]>> searchStack;
+	private int slices;
+	// The time spent within search, summed over every slice
+	private long searchNanos;
+	private final NavigationSearchEvent event;
 	
 	/**
+	 * Creates a navigator which has yet to search for its path, following any connection however close to the walls.
 	 * 
-	 * @param originX
-	 * @param originY
-	 * @param destinationX
-	 * @param destinationY
-	 * @param game
+	 * @param environment The environment to be navigated
+	 * @param originX The x coord to start from
+	 * @param originY The y coord to start from
+	 * @param destinationX The x coord to be reached
+	 * @param destinationY The y coord to be reached
 	 */
 	public Navigator(Environment environment, double originX, double originY, double destinationX,
 			double destinationY) {
+		this(environment, originX, originY, destinationX, destinationY, 0);
+	}
+	
+	/**
+	 * Creates a navigator which has yet to search for its path, for an entity of the radius given.
+	 * 
+	 * @param environment The environment to be navigated
+	 * @param originX The x coord to start from
+	 * @param originY The y coord to start from
+	 * @param destinationX The x coord to be reached
+	 * @param destinationY The y coord to be reached
+	 * @param radius The clearance every leg of the path must keep from the walls, at most <code>NavigationMap.MAX_CLEARANCE</code>
+	 * @throws IllegalArgumentException If radius is negative or greater than <code>NavigationMap.MAX_CLEARANCE</code>
+	 */
+	public Navigator(Environment environment, double originX, double originY, double destinationX,
+			double destinationY, double radius) {
 		super();
-		System.out.println("Creating Navigator");
+		if (radius < 0 || radius > NavigationMap.MAX_CLEARANCE) {
+			throw new IllegalArgumentException("A navigator's radius must be between 0 and "
+					+ NavigationMap.MAX_CLEARANCE + ", was " + radius);
+		}
+		event = new NavigationSearchEvent();
 		this.environment = environment;
 		this.oX = originX;
 		this.oY = originY;
-		// Find the nearest corner point visible from the destination provided
-		List<double[]> destinationPoints = environment.findViewablePoints(destinationX,destinationY,Environment.MIN_DIST_BETWEEN_WALLS/2);
-		aStarSort(destinationPoints, destinationX, destinationY, destinationX, destinationY);
-		if (destinationPoints.size() > 0) {
-			double[] destination = destinationPoints.get(destinationPoints.size()-1);
-			destX = destination[0];
-			destY = destination[1];
-			intermediateSteps = generateSteps();
-		}
-		else {
-			intermediateSteps = new Stack<double[]>();
-			destX = oX;
-			destY = oY;
-		}
+		this.requestedX = destinationX;
+		this.requestedY = destinationY;
+		this.radius = radius;
+		this.intermediateSteps = new Stack<double[]>();
+		resetSearch();
+		environment.register(this);
 	}
 	
 	/**
+	 * Advances the search for a path.  Each point expanded costs a single visibility query against the walls,
+	 * so limiting the points expanded limits the work done.
 	 * 
-	 * @return
+	 * @param maxExpansions The most points to expand
+	 * @param maxNanos The longest to spend searching, or 0 for no time limit
+	 * @return The number of points expanded
 	 */
-	private Stack<double[]> generateSteps() {
-		// Naive depth first A* search
-		Stack<double[]> steps = new Stack<double[]>();
-		List<double[]> visitedLocations = new ArrayList<double[]>();
-		// A reverse list as a stack, elements are pushed onto and popped off the end of the list
-		Stack<Stack<double[]>> searchStack = new Stack<Stack<double[]>>();
-		Stack<double[]> firstLevel = new Stack<double[]>();
-		firstLevel.push(new double[] {oX,oY});
-		searchStack.push(firstLevel);
-		
+	public int search(int maxExpansions, long maxNanos) {
+		if (complete || cancelled) {
+			return 0;
+		}
+		long start = System.nanoTime();
+		slices++;
+		int expansions = advance(maxExpansions, maxNanos, start);
+		searchNanos += System.nanoTime() - start;
+		if (complete) {
+			commitEvent();
+		}
+		return expansions;
+	}
+	
+	private int advance(int maxExpansions, long maxNanos, long start) {
+		if (environment.getRevision() != searchRevision) {
+			resetSearch(); // The walls have changed under the search
+		}
+		int expansions = 0;
+		if (!destinationChosen) {
+			chooseDestination();
+			expansions++;
+			if (complete) {
+				return expansions;
+			}
+		}
 		while (!searchStack.isEmpty()) {
+			if (expansions >= maxExpansions || (maxNanos > 0 && System.nanoTime() - start >= maxNanos)) {
+				return expansions;
+			}
 			Stack<double[]> currentLevel = searchStack.peek();//Peek
 			if (currentLevel.size() == 0) {
 				searchStack.pop();// Pop
-				steps.pop();// Pop
+				if (!searchStack.isEmpty()) {
+					steps.pop();// Pop, the first level has no step of its own
+				}
 				continue;
 			}
 			double[] currentPoint = currentLevel.pop();//Pop
+			nodesExpanded++;
+			expansions++;
 			visitedLocations.add(currentPoint);
 			steps.push(currentPoint);
 			if (currentPoint[0] == destX && currentPoint[1] == destY) {
 				break;
 			}
 			Stack<double[]> newLevel = new Stack<double[]>();
-			newLevel.addAll(environment.findViewablePoints(currentPoint[0],currentPoint[1],Environment.MIN_DIST_BETWEEN_WALLS/2));
+			newLevel.addAll(findNeighbours(currentPoint));
 			removeVisitedPoints(newLevel,visitedLocations);
 			aStarSort(newLevel, currentPoint[0], currentPoint[1], destX, destY);
 			// This relies on the elements being added to the end of searchStack
 			searchStack.push(newLevel);
 		}
-		steps.remove(0);
-		return steps;
+		// Either the destination was reached or every reachable point has been tried
+		if (!steps.isEmpty()) {
+			steps.remove(0);
+		}
+		finish(steps);
+		return expansions;
+	}
+	
+	/**
+	 * @return true once the search has finished, successfully or not
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * Abandons this navigator, any search still in progress will not be continued.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Finds the nearest corner point visible from the destination asked for, which the search will aim for.
+	 */
+	private void chooseDestination() {
+		List<double[]> destinationPoints = findVisiblePoints(requestedX,requestedY);
+		aStarSort(destinationPoints, requestedX, requestedY, requestedX, requestedY);
+		destinationChosen = true;
+		if (destinationPoints.size() > 0) {
+			double[] destination = destinationPoints.get(destinationPoints.size()-1);
+			destX = destination[0];
+			destY = destination[1];
+		}
+		else {
+			destX = oX;
+			destY = oY;
+			finish(new Stack<double[]>());
+		}
+	}
+	
+	/**
+	 * Finds the points which can be reached in a straight line from point, from the navigation map if point is in it.
+	 */
+	private List<double[]> findNeighbours(double[] point) {
+		NavigationMap navigationMap = environment.getNavigationMap();
+		if (navigationMap != null && navigationMap.contains(point[0], point[1])) {
+			return navigationMap.accessiblePoints(point, radius);
+		}
+		return findVisiblePoints(point[0], point[1]);
+	}
+	
+	/**
+	 * Finds the points visible from (x,y) which can be reached from it with this navigator's clearance.
+	 */
+	private List<double[]> findVisiblePoints(double x, double y) {
+		NavigationMap navigationMap = environment.getNavigationMap();
+		if (navigationMap != null && radius >= NavigationMap.INNER_RING) {
+			return navigationMap.findOuterPoints(x, y, radius);
+		}
+		List<double[]> points = environment.findViewablePoints(x,y,Environment.MIN_DIST_BETWEEN_WALLS/2);
+		if (radius > 0) {
+			for (Iterator<double[]> itr = points.iterator(); itr.hasNext();) {
+				double[] point = itr.next();
+				if (environment.findClearance(x, y, point[0], point[1], radius) < radius) {
+					itr.remove();
+				}
+			}
+		}
+		return points;
+	}
+	
+	private void resetSearch() {
+		searchRevision = environment.getRevision();
+		destinationChosen = false;
+		steps = new Stack<double[]>();
+		visitedLocations = new ArrayList<double[]>();
+		// A reverse list as a stack, elements are pushed onto and popped off the end of the list
+		searchStack = new Stack<Stack<double[]>>();
+		Stack<double[]> firstLevel = new Stack<double[]>();
+		firstLevel.push(new double[] {oX,oY});
+		searchStack.push(firstLevel);
+	}
+	
+	private void finish(Stack<double[]> path) {
+		intermediateSteps = path;
+		complete = true;
+		steps = null;
+		visitedLocations = null;
+		searchStack = null;
+	}
+	
+	/**
+	 * Commits the event for this search.  The search was spread over many ticks, with waits in between, so the
+	 * time spent searching is recorded in the event rather than being the event's own duration.
+	 */
+	private void commitEvent() {
+		event.begin();
+		if (event.shouldCommit()) {
+			event.wallsConsidered = environment.getWalls().size();
+			event.nodesExpanded = nodesExpanded;
+			event.pointsReturned = intermediateSteps.size();
+			event.slices = slices;
+			event.searchTime = searchNanos;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Indicates whether any leg of the remaining path passes through the box given.
+	 * 
+	 * @param x The left x coord of the box
+	 * @param y The top y coord of the box
+	 * @param width The width of the box
+	 * @param height The height of the box
+	 * @return true if the path crosses the box, false otherwise
+	 */
+	public boolean crosses(double x, double y, double width, double height) {
+		double fromX = oX, fromY = oY;
+		for (double[] step : intermediateSteps) {
+			if (TrigUtil.segmentIntersectsBox(fromX, fromY, step[0], step[1], x, y, width, height)) {
+				return true;
+			}
+			fromX = step[0];
+			fromY = step[1];
+		}
+		return false;
+	}
+	
+	/**
+	 * Marks this navigator's path as out of date because the walls around it have changed.
+	 */
+	public void invalidate() {
+		invalidated = true;
+	}
+	
+	public boolean isInvalidated() {
+		return invalidated;
+	}
+	
+	/**
+	 * @return The clearance this navigator's path keeps from the walls
+	 */
+	public double getRadius() {
+		return radius;
+	}
+	
+	/**
+	 * Creates a navigator to plan a new path to the destination originally asked for.  The new navigator
+	 * has yet to search.
+	 * 
+	 * @param originX The x coord to start from
+	 * @param originY The y coord to start from
+	 * @return A new navigator for the new path
+	 */
+	public Navigator replan(double originX, double originY) {
+		return new Navigator(environment, originX, originY, requestedX, requestedY, radius);
 	}
 	
 	/**
@@ -100,6 +334,7 @@ public class Navigator {
 			for (double[] visited : visitedLocations) {
 				if (Arrays.equals(point, visited)) {
 					itr.remove();
+					break; // A point may have been visited more than once but can only be removed once
 				}
 			}
 		}
@@ -113,13 +348,9 @@ public class Navigator {
 		Collections.sort(viewablePoints, new Comparator<double[]>() {
 			public int compare(double[] point1, double[] point2) {
 				// Wee reverse ordering - most distant first
-				double distanceFrom1 = Math.sqrt(((destX-point1[0])*(destX-point1[0]))+((destY - point1[1])*(destY - point1[1])));
-				double distanceTo1 = Math.sqrt(((x-point1[0])*(x-point1[0]))+((y - point1[1])*(y - point1[1])));
-				double distance1 = Math.sqrt(distanceFrom1*distanceFrom1 + distanceTo1*distanceTo1);
-				
-				double distanceFrom2 = Math.sqrt(((destX-point2[0])*(destX-point2[0]))+((destY - point2[1])*(destY - point2[1])));
-				double distanceTo2 = Math.sqrt(((x-point2[0])*(x-point2[0]))+((y - point2[1])*(y - point2[1])));
-				double distance2 = Math.sqrt((distanceFrom2*distanceFrom2) + (distanceTo2*distanceTo2));
+				// Only the order matters, so the squared distances are compared without taking any square roots
+				double distance1 = TrigUtil.getDistanceSquared(destX, destY, point1[0], point1[1]) + TrigUtil.getDistanceSquared(x, y, point1[0], point1[1]);
+				double distance2 = TrigUtil.getDistanceSquared(destX, destY, point2[0], point2[1]) + TrigUtil.getDistanceSquared(x, y, point2[0], point2[1]);
 				if (distance1 > distance2) {
 					return -1;
 				}
@@ -134,6 +365,9 @@ public class Navigator {
 	}
 
 	public double[] getUltimateDestination() {
+		if (!destinationChosen && !complete) {
+			return new double[] {requestedX,requestedY};
+		}
 		return new double[] {destX,destY};
 	}
 	
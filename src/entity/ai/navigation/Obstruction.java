@@ -10,7 +10,7 @@ import entity.Entity;
  */
 public class Obstruction implements Comparable<Obstruction> {
 	Entity entity;
-	double distance;
+	double distance; // Squared, only ever used for ordering
 	double intersectX, intersectY;
 	
 	/**
@@ -28,7 +28,7 @@ public class Obstruction implements Comparable<Obstruction> {
 		double[] nearestPoint = entity.nearestSurfacePoint(originX, originY);
 		intersectX = nearestPoint[0];
 		intersectY = nearestPoint[1];
-		distance = TrigUtil.getDistance(originX,originY,nearestPoint[0],nearestPoint[1]);
+		distance = TrigUtil.getDistanceSquared(originX,originY,nearestPoint[0],nearestPoint[1]);
 	}
 	
 	/**
@@ -46,7 +46,7 @@ public class Obstruction implements Comparable<Obstruction> {
 		this.entity = entity;
 		this.intersectX = intersectX;
 		this.intersectY = intersectY;
-		distance = TrigUtil.getDistance(originX,originY,intersectX,intersectY);
+		distance = TrigUtil.getDistanceSquared(originX,originY,intersectX,intersectY);
 	}
 
 	@Override
@@ -1,10 +1,12 @@
 package entity.ai.navigation;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
+import profiling.VisionQueryEvent;
+import game.PotentiallyVisibleSet;
+import game.WallHierarchy;
+
 /**
  * 
  * 
@@ -13,45 +15,42 @@ import java.util.List;
 public class VisionUtil {
 
 	/**
-	 * Traversing the list of obstructions we find every point (corner of an entity) which is visible to 
-	 * the flashlight.
+	 * Finds every one of the points given which is visible from the viewer, testing every line of sight in
+	 * a single batch against the walls.
 	 * 
-	 * @param viewerX
-	 * @param viewerY
-	 * @param obstructions
-	 * @param bufferSize 
-	 * @return
+	 * @param viewerX The x coord of the viewer
+	 * @param viewerY The y coord of the viewer
+	 * @param points The points which may be visible as {x0,y0,x1,y1...}, normally the pushed out corners of walls
+	 * @param walls The hierarchy over the walls which block sight
+	 * @param potentiallyVisibleSet The set used to reject points early, or null to test every point
+	 * @return The points which the viewer can see
 	 */
-	public static List<double[]> findViewablePoints(double viewerX, double viewerY, List<Obstruction> obstructions, double bufferSize) {
-		Collections.sort(obstructions);
-		List<double[]> viewablePoints = new ArrayList<double[]>();
-		// Traverse the list from farthest to nearest obstruction
-		for (Obstruction obstruction : obstructions) {
-			List<double[]> testingPoints = obstruction.entity.pushOutPoints(obstruction.entity.getCorners(),bufferSize);
-			for (Obstruction blocker : obstructions) {
-				if (testingPoints.isEmpty()) {break;}
-				filterBlockedPoints(viewerX,viewerY,testingPoints,blocker); // check remaining blockers
+	public static List<double[]> findViewablePoints(double viewerX, double viewerY, double[] points, WallHierarchy walls, PotentiallyVisibleSet potentiallyVisibleSet) {
+		VisionQueryEvent event = new VisionQueryEvent();
+		event.begin();
+		int pointCount = points.length / 2;
+		double[] targets = new double[points.length];
+		int targetCount = 0;
+		for (int i = 0; i < pointCount; i++) {
+			if (potentiallyVisibleSet == null || potentiallyVisibleSet.mayBeVisible(viewerX,viewerY,points[i*2],points[i*2+1])) {
+				targets[targetCount*2] = points[i*2];
+				targets[targetCount*2+1] = points[i*2+1];
+				targetCount++;
 			}
-			viewablePoints.addAll(testingPoints);
 		}
-		return viewablePoints;
-	}
-
-	/**
-	 * 
-	 * @param viewerX
-	 * @param viewerY
-	 * @param obstructionPoints
-	 * @param blocker
-	 * @param compareWithSelf
-	 */
-	private static void filterBlockedPoints(double viewerX, double viewerY, List<double[]> testingPoints, Obstruction blocker) {
-		for (Iterator<double[]> itr = testingPoints.iterator(); itr.hasNext();) {
-			double[] point = itr.next();
-			List<double[]> intersections = blocker.entity.findIntersectionsIgnoringMutualTerminals(viewerX,viewerY,point[0],point[1]);
-			if (intersections.size() > 0) {
-				itr.remove();
+		boolean[] blocked = new boolean[targetCount];
+		walls.findBlocked(viewerX, viewerY, targets, targetCount, blocked);
+		List<double[]> viewablePoints = new ArrayList<double[]>(targetCount);
+		for (int i = 0; i < targetCount; i++) {
+			if (!blocked[i]) {
+				viewablePoints.add(new double[] {targets[i*2],targets[i*2+1]});
 			}
 		}
+		if (event.shouldCommit()) {
+			event.wallsConsidered = walls.size();
+			event.pointsReturned = viewablePoints.size();
+			event.commit();
+		}
+		return viewablePoints;
 	}
 }
\ No newline at end of file
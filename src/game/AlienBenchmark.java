@@ -0,0 +1,37 @@
+package game;
+
+/**
+ * Times the ticks of a headless game with a single player standing still among a crowd of aliens, reporting
+ * the mean cost of a tick and how many of the aliens are still awake.  The first ticks are not timed, so that
+ * the code is warmed up and the idle aliens have had time to fall asleep.
+ *
+ * Usage: AlienBenchmark [aliens] [ticks]
+ *
+ * @author Francis Stephens
+ */
+public class AlienBenchmark {
+	private static final int DEFAULT_ALIENS = 300;
+	private static final int DEFAULT_TICKS = 1000;
+	private static final int WARM_UP_TICKS = 200;
+	private static final long TICK_LENGTH = 16;
+	private static final long SEED = 5;
+
+	public static void main(String[] argv) {
+		System.setProperty("java.awt.headless", "true");
+		int alienCount = argv.length > 0 ? Integer.parseInt(argv[0]) : DEFAULT_ALIENS;
+		int ticks = argv.length > 1 ? Integer.parseInt(argv[1]) : DEFAULT_TICKS;
+
+		Game game = new Game(SEED, alienCount);
+		game.initHeadless();
+		for (int i = 0; i < WARM_UP_TICKS; i++) {
+			game.tick(TICK_LENGTH);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ticks; i++) {
+			game.tick(TICK_LENGTH);
+		}
+		double millisPerTick = (System.nanoTime() - start) / 1e6 / ticks;
+		System.out.printf("%d aliens, %d awake: %.3f ms/tick over %d ticks%n", game.getAliens().size(),
+				game.getActiveAliens().size(), millisPerTick, ticks);
+	}
+}
@@ -0,0 +1,66 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import entity.Wall;
+
+/**
+ * Remembers the walls near an entity so that they need not be found again on every tick.  The cache holds
+ * every wall within a margin of where the entity was when the cache was filled, so for as long as the entity
+ * stays inside that margin no other wall can touch it and only the walls held need be tested.  Once the
+ * entity moves beyond the margin, or the walls change, the cache is filled again.
+ *
+ * An entity sliding along a wall keeps the same few walls tick after tick, so the cache is rarely refilled.
+ *
+ * @author Francis Stephens
+ */
+public class ContactCache {
+	private final List<Wall> walls;
+	// The box, {minX,minY,maxX,maxY}, within which every wall is held
+	private final double[] region;
+	private int revision = -1;
+
+	public ContactCache() {
+		walls = new ArrayList<Wall>();
+		region = new double[4];
+	}
+
+	/**
+	 * @param revision The environment's current revision
+	 * @param minX The left of the box which must be covered
+	 * @param minY The top of the box which must be covered
+	 * @param maxX The right of the box which must be covered
+	 * @param maxY The bottom of the box which must be covered
+	 * @return true if every wall which could touch the box given is held, false otherwise
+	 */
+	boolean covers(int revision, double minX, double minY, double maxX, double maxY) {
+		return this.revision == revision && minX >= region[0] && minY >= region[1] && maxX <= region[2] && maxY <= region[3];
+	}
+
+	/**
+	 * Fills the cache with every wall whose bounds overlap the box given.
+	 *
+	 * @param revision The environment's current revision
+	 * @param minX The left of the box
+	 * @param minY The top of the box
+	 * @param maxX The right of the box
+	 * @param maxY The bottom of the box
+	 * @param hierarchy The hierarchy over the environment's walls
+	 */
+	void fill(int revision, double minX, double minY, double maxX, double maxY, WallHierarchy hierarchy) {
+		hierarchy.findOverlapping(minX, minY, maxX, maxY, walls);
+		region[0] = minX;
+		region[1] = minY;
+		region[2] = maxX;
+		region[3] = maxY;
+		this.revision = revision;
+	}
+
+	/**
+	 * @return The walls held, in the order they appear in the environment
+	 */
+	List<Wall> getWalls() {
+		return walls;
+	}
+}
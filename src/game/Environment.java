@@ -1,29 +1,64 @@
 package game;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
 
-import entity.Displayable;
+import profiling.CollisionPassEvent;
+import trigUtil.TrigUtil;
+import entity.DynamicEntity;
 import entity.Entity;
+import entity.ShotEntity;
 import entity.Wall;
 import entity.ai.navigation.NavigationMap;
+import entity.ai.navigation.Navigator;
 import entity.ai.navigation.Obstruction;
 import entity.ai.navigation.VisionUtil;
 
-public class Environment implements Displayable {
+public class Environment {
 	public static final int MIN_DIST_BETWEEN_WALLS = 40;
+	// The number of walls a single move may slide along before it is stopped
+	private static final int MAX_SLIDES = 3;
+	// The gap left between an entity and a wall it has been stopped against
+	private static final double CONTACT_SKIN = 0.01;
+	// How far an entity may move before the walls near it are found again
+	private static final double CONTACT_MARGIN = 32;
 	
 	private NavigationMap navigationMap;
+	private PotentiallyVisibleSet potentiallyVisibleSet;
 	private List<Wall> walls;
+	// Navigators still following a path, held weakly so that abandoned navigators are forgotten
+	private final Set<Navigator> navigators;
+	// The outline of every wall as consecutive {x1,y1,x2,y2} segments, rebuilt when the walls change
+	private double[] segments;
+	private WallHierarchy wallHierarchy;
+	// The corners of every wall pushed out by pushedCornerBuffer, as {x0,y0,x1,y1...}
+	private double[] pushedCorners;
+	private double pushedCornerBuffer;
+	// The bounds of every wall, rotation included, as consecutive {minX,minY,maxX,maxY}
+	private double[] wallBounds;
+	// Scratch space for queries of the wall hierarchy
+	private final List<Wall> queriedWalls;
+	private final double[] nearestPoint;
+	private int revision;
 	
 	public Environment() {
 		walls = new ArrayList<Wall>();
+		queriedWalls = new ArrayList<Wall>();
+		nearestPoint = new double[2];
+		navigators = Collections.newSetFromMap(new WeakHashMap<Navigator,Boolean>());
 	}
 	
-	public void addWallsAndMap() {
+	/**
+	 * Randomly places the walls and builds the navigation map around them.
+	 * 
+	 * @param rand The source of randomness, seeding it identically reproduces the same walls
+	 */
+	public void addWallsAndMap(Random rand) {
 		int buffer = MIN_DIST_BETWEEN_WALLS/2;
 //		walls.add(new Wall(0, 0, Game.SCREEN_WIDTH+buffer, 10+buffer, 0, Color.white));
 //		walls.add(new Wall(Game.SCREEN_WIDTH-10, 0, 10+buffer, Game.SCREEN_HEIGHT+buffer, 0, Color.white));
@@ -31,7 +66,6 @@ public class Environment implements Displayable {
 //		walls.add(new Wall(0, 0, 10+buffer, Game.SCREEN_HEIGHT+buffer, 0, Color.white));
 		
 		int wallCount = 0;
-		Random rand = new Random(System.currentTimeMillis());
 		while (wallCount <= 20) {
 			int x = rand.nextInt(Game.SCREEN_WIDTH);
 			int y = rand.nextInt(Game.SCREEN_HEIGHT);
@@ -55,16 +89,219 @@ public class Environment implements Displayable {
 			wall.setWidth(wall.getWidth()-buffer);
 			wall.setHeight(wall.getHeight()-buffer);
 		}
+		wallsChanged();
+		potentiallyVisibleSet = new PotentiallyVisibleSet(walls);
 		navigationMap = NavigationMap.getInstance(this);
 	}
 	
+	/**
+	 * Adds a wall to the environment while the game is running.  The navigation map is updated around the
+	 * new wall and any navigator whose path runs near it is invalidated.
+	 * 
+	 * @param wall The new wall
+	 */
+	public void addWall(Wall wall) {
+		walls.add(wall);
+		wallsChanged();
+		if (potentiallyVisibleSet != null) {
+			potentiallyVisibleSet.wallAdded(walls);
+		}
+		if (navigationMap != null) {
+			navigationMap.wallAdded(wall);
+		}
+		invalidateNavigators(wall);
+	}
+	
+	/**
+	 * Removes a wall from the environment while the game is running.  The navigation map is updated around
+	 * the gap left and any navigator whose path ran near the wall is invalidated, as a shorter path may now exist.
+	 * 
+	 * @param wall The wall to remove
+	 * @return true if the wall was part of this environment, false otherwise
+	 */
+	public boolean removeWall(Wall wall) {
+		if (!walls.remove(wall)) {
+			return false;
+		}
+		wallsChanged();
+		if (potentiallyVisibleSet != null) {
+			potentiallyVisibleSet.wallRemoved(walls);
+		}
+		if (navigationMap != null) {
+			navigationMap.wallRemoved(wall);
+		}
+		invalidateNavigators(wall);
+		return true;
+	}
+	
+	private void wallsChanged() {
+		segments = null;
+		wallHierarchy = null;
+		pushedCorners = null;
+		wallBounds = null;
+		revision++;
+	}
+	
+	/**
+	 * @return A number which changes every time a wall is added or removed
+	 */
+	public int getRevision() {
+		return revision;
+	}
+	
+	/**
+	 * Provides the outline of every wall as a flat array of line segments, each segment taking four
+	 * consecutive elements {x1,y1,x2,y2}.  The array is shared and must not be modified, it remains valid
+	 * until the revision changes.
+	 * 
+	 * @return The segments making up every wall
+	 */
+	public double[] getSegments() {
+		if (segments == null) {
+			double[] built = new double[walls.size() * 16];
+			int i = 0;
+			for (Wall wall : walls) {
+				for (double[] line : wall.getLines()) {
+					System.arraycopy(line, 0, built, i, 4);
+					i += 4;
+				}
+			}
+			segments = built;
+		}
+		return segments;
+	}
+	
+	/**
+	 * Provides the corners of every wall pushed out from the wall, which are the points navigated between.  The
+	 * array is shared and must not be modified.
+	 * 
+	 * @param bufferSize The distance each corner is pushed out from its wall
+	 * @return The pushed out corners as {x0,y0,x1,y1...}
+	 */
+	private double[] getPushedCorners(double bufferSize) {
+		if (pushedCorners == null || pushedCornerBuffer != bufferSize) {
+			double[] corners = new double[walls.size() * 8];
+			int i = 0;
+			for (Wall wall : walls) {
+				for (double[] point : wall.pushOutPoints(wall.getCorners(), bufferSize)) {
+					corners[i++] = point[0];
+					corners[i++] = point[1];
+				}
+			}
+			pushedCorners = corners;
+			pushedCornerBuffer = bufferSize;
+		}
+		return pushedCorners;
+	}
+	
+	/**
+	 * Provides the bounds of every wall, in the order of getWalls.  Each bound covers both the wall's unrotated
+	 * box, which movement is swept against, and its rotated outline, which collisions are tested against.
+	 * 
+	 * @return The bounds of every wall as consecutive {minX,minY,maxX,maxY}
+	 */
+	private double[] getWallBounds() {
+		if (wallBounds == null) {
+			double[] bounds = new double[walls.size() * 4];
+			double[] rotated = new double[4];
+			for (int i = 0; i < walls.size(); i++) {
+				Wall wall = walls.get(i);
+				wall.getBounds(rotated);
+				bounds[i*4] = Math.min(rotated[0], wall.getX());
+				bounds[i*4+1] = Math.min(rotated[1], wall.getY());
+				bounds[i*4+2] = Math.max(rotated[2], wall.getX() + wall.getWidth());
+				bounds[i*4+3] = Math.max(rotated[3], wall.getY() + wall.getHeight());
+			}
+			wallBounds = bounds;
+		}
+		return wallBounds;
+	}
+	
+	/**
+	 * Finds the walls which could touch the box given, using entity's contact cache if it has one.
+	 * 
+	 * @param entity The entity the box belongs to
+	 * @param minX The left of the box
+	 * @param minY The top of the box
+	 * @param maxX The right of the box
+	 * @param maxY The bottom of the box
+	 * @return Every wall which could touch the box, and perhaps some which cannot
+	 */
+	private List<Wall> wallsNear(Entity entity, double minX, double minY, double maxX, double maxY) {
+		ContactCache cache = entity instanceof DynamicEntity ? ((DynamicEntity) entity).getContactCache() : null;
+		if (cache == null) {
+			return walls;
+		}
+		if (!cache.covers(revision, minX, minY, maxX, maxY)) {
+			cache.fill(revision, minX-CONTACT_MARGIN, minY-CONTACT_MARGIN, maxX+CONTACT_MARGIN, maxY+CONTACT_MARGIN, getWallHierarchy());
+		}
+		return cache.getWalls();
+	}
+	
+	/**
+	 * Finds the walls which could touch entity however it is rotated.
+	 * 
+	 * @param entity The entity being tested
+	 * @return Every wall which could touch entity, and perhaps some which cannot
+	 */
+	private List<Wall> wallsTouching(Entity entity) {
+		if (entity instanceof ShotEntity) {
+			// A shot meets walls anywhere along its tracer
+			getWallHierarchy().findAlongRay(entity.getX(), entity.getY(), entity.getDirectionX(), entity.getDirectionY(), queriedWalls);
+			return queriedWalls;
+		}
+		// Whatever its rotation an entity lies within the circle through its corners, a pixel is allowed
+		// for the rounding of its outline
+		double radius = Math.sqrt(entity.getWidth()*entity.getWidth() + entity.getHeight()*entity.getHeight())/2 + 1;
+		double centreX = entity.getX() + entity.getWidth()/2d, centreY = entity.getY() + entity.getHeight()/2d;
+		return wallsNear(entity, centreX-radius, centreY-radius, centreX+radius, centreY+radius);
+	}
+	
+	/**
+	 * @return The hierarchy answering every spatial query of the walls, rebuilt when the walls change
+	 */
+	public WallHierarchy getWallHierarchy() {
+		if (wallHierarchy == null) {
+			wallHierarchy = new WallHierarchy(walls, getWallBounds(), getSegments());
+		}
+		return wallHierarchy;
+	}
+	
+	/**
+	 * Registers a navigator to be invalidated if the walls near its path change.
+	 * 
+	 * @param navigator The navigator
+	 */
+	public void register(Navigator navigator) {
+		navigators.add(navigator);
+	}
+	
+	private void invalidateNavigators(Wall wall) {
+		// Paths keep their distance from walls so anything passing within that distance is affected
+		double[] bounds = new double[4];
+		wall.getBounds(bounds);
+		for (Navigator navigator : navigators) {
+			double buffer = Math.max(MIN_DIST_BETWEEN_WALLS/2, navigator.getRadius());
+			if (navigator.crosses(bounds[0]-buffer, bounds[1]-buffer, bounds[2]-bounds[0]+2*buffer, bounds[3]-bounds[1]+2*buffer)) {
+				navigator.invalidate();
+			}
+		}
+	}
+	
 	/**
 	 * @return All of the walls in this game
 	 */
-	public List<? extends Entity> getWalls() {
+	public List<Wall> getWalls() {
 		return walls;
 	}
 	
+	/**
+	 * @return The navigation map between the corners of the walls
+	 */
+	public NavigationMap getNavigationMap() {
+		return navigationMap;
+	}
+	
 	/**
 	 * Finds all visible points (corners of walls) from the position (x,y)
 	 * 
@@ -73,14 +310,142 @@ public class Environment implements Displayable {
 	 * @return List of all visible points (corners of walls) from the given position
 	 */
 	public List<double[]> findViewablePoints(double x, double y, double bufferSize) {
-		List<Obstruction> obstructions = new ArrayList<Obstruction>(walls.size());
-		for (Entity entity : walls) {
-			Obstruction obstruction = new Obstruction(entity,x,y);
-			obstructions.add(obstruction);
+		return VisionUtil.findViewablePoints(x, y, getPushedCorners(bufferSize), getWallHierarchy(), potentiallyVisibleSet);
+	}
+	
+	/**
+	 * Indicates whether the line segment from (x1,y1) to (x2,y2) passes through no walls.
+	 * 
+	 * @param x1 The first x coord
+	 * @param y1 The first y coord
+	 * @param x2 The second x coord
+	 * @param y2 The second y coord
+	 * @return true if nothing blocks the line of sight between the two points, false otherwise
+	 */
+	public boolean hasLineOfSight(double x1, double y1, double x2, double y2) {
+		if (potentiallyVisibleSet != null && !potentiallyVisibleSet.mayBeVisible(x1, y1, x2, y2)) {
+			return false;
 		}
-		return VisionUtil.findViewablePoints(x, y, obstructions, bufferSize);
+		return !getWallHierarchy().isBlocked(x1, y1, x2, y2);
+	}
+	
+	/**
+	 * Finds how close the line from (x1,y1) to (x2,y2) passes to any wall.  An entity whose centre follows the
+	 * line touches no wall so long as it is no wider across than twice the clearance.
+	 * 
+	 * @param x1 The first x coord
+	 * @param y1 The first y coord
+	 * @param x2 The second x coord
+	 * @param y2 The second y coord
+	 * @param limit The furthest distance of interest
+	 * @return The distance between the line and the nearest wall, or limit if no wall is nearer
+	 */
+	public double findClearance(double x1, double y1, double x2, double y2, double limit) {
+		return getWallHierarchy().findClearance(x1, y1, x2, y2, limit);
 	}
 	
+	/**
+	 * Finds the wall whose surface is nearest to the point (x,y).
+	 * 
+	 * @param x The x coord
+	 * @param y The y coord
+	 * @return The nearest wall as an obstruction from (x,y), or null if there are no walls
+	 */
+	public Obstruction findNearestObstruction(double x, double y) {
+		Wall wall = getWallHierarchy().findNearestSurface(x, y, nearestPoint);
+		return wall == null ? null : new Obstruction(wall, nearestPoint[0], nearestPoint[1], x, y);
+	}
+	
+	/**
+	 * Indicates whether the axis aligned box given is clear of every wall.
+	 * 
+	 * @param x The left x coord of the box
+	 * @param y The top y coord of the box
+	 * @param width The width of the box
+	 * @param height The height of the box
+	 * @return true if the box overlaps no walls, false otherwise
+	 */
+	public boolean isClear(double x, double y, double width, double height) {
+		getWallHierarchy().findOverlapping(x, y, x+width, y+height, queriedWalls);
+		for (Wall wall : queriedWalls) {
+			// Both the unrotated box, which movement is swept against, and the rotated outline, which collisions are tested against
+			if (x < wall.getX()+wall.getWidth() && wall.getX() < x+width && y < wall.getY()+wall.getHeight() && wall.getY() < y+height) {
+				return false;
+			}
+			if (wall.getRotation() != 0 && wall.getBox().overlapsInterior(x, y, x+width, y+height)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Sweeps the bounding box of entity along the displacement (dx,dy) and finds the first wall it would hit.
+	 * The rotation of entity is ignored, its unrotated bounding box is swept.
+	 *
+	 * @param entity The entity being moved
+	 * @param dx The x displacement
+	 * @param dy The y displacement
+	 * @return {timeOfImpact,normalX,normalY} for the earliest wall hit, or null if the path is clear
+	 */
+	public double[] sweep(Entity entity, double dx, double dy) {
+		double x = entity.getX(), y = entity.getY();
+		return sweep(x, y, entity.getWidth(), entity.getHeight(), dx, dy, wallsSwept(entity, x, y, dx, dy));
+	}
+
+	private double[] sweep(double x, double y, double width, double height, double dx, double dy, List<Wall> near) {
+		double[] earliest = null;
+		for (Wall wall : near) {
+			double[] contact = TrigUtil.sweepBox(x, y, width, height, dx, dy, wall.getX(), wall.getY(), wall.getWidth(), wall.getHeight());
+			if (contact != null && (earliest == null || contact[0] < earliest[0])) {
+				earliest = contact;
+			}
+		}
+		return earliest;
+	}
+
+	/**
+	 * Finds the walls which could be hit by the unrotated box of entity moving from (x,y) by (dx,dy).
+	 */
+	private List<Wall> wallsSwept(Entity entity, double x, double y, double dx, double dy) {
+		// A pixel is allowed for the skin left between an entity and a wall it stops against
+		return wallsNear(entity, Math.min(x, x+dx)-1, Math.min(y, y+dy)-1,
+				Math.max(x, x+dx)+entity.getWidth()+1, Math.max(y, y+dy)+entity.getHeight()+1);
+	}
+
+	/**
+	 * Moves entity by (dx,dy), stopping at the first wall in its path and sliding the remainder of the
+	 * movement along that wall's surface.  Because the whole path is swept, fast moving entities cannot
+	 * tunnel through thin walls and no collision needs to be reverted after the move.
+	 *
+	 * @param entity The entity being moved
+	 * @param dx The x displacement
+	 * @param dy The y displacement
+	 */
+	public void moveAndSlide(DynamicEntity entity, double dx, double dy) {
+		double x = entity.getX();
+		double y = entity.getY();
+		// Every slide stays within the box swept by the whole movement
+		List<Wall> near = wallsSwept(entity, x, y, dx, dy);
+		for (int i = 0; i < MAX_SLIDES && (dx != 0 || dy != 0); i++) {
+			double[] contact = sweep(x, y, entity.getWidth(), entity.getHeight(), dx, dy, near);
+			if (contact == null) {
+				x += dx;
+				y += dy;
+				break;
+			}
+			double toi = contact[0];
+			// Stop just short of the wall so the next sweep does not start inside it
+			x += dx*toi + contact[1]*CONTACT_SKIN;
+			y += dy*toi + contact[2]*CONTACT_SKIN;
+			// Slide whatever movement remains along the wall
+			dx = contact[1] == 0 ? dx*(1-toi) : 0;
+			dy = contact[2] == 0 ? dy*(1-toi) : 0;
+		}
+		entity.setX(x);
+		entity.setY(y);
+	}
+
 	/**
 	 * Tests each of the DynamicEntities for environmental collisions. Actual collision handling is 
 	 * the responsibility of the DynamicEntity itself.
@@ -89,12 +454,18 @@ public class Environment implements Displayable {
 	 */
 	public boolean handleCollisions(List<? extends Entity> entities) {
 		// Test against wall collisions
+		CollisionPassEvent event = new CollisionPassEvent();
+		event.begin();
 		boolean aCollision = false;
-		for (Wall wall : walls) {
-			for (Entity entity : entities) {
+		int wallsConsidered = 0;
+		for (Entity entity : entities) {
+			List<Wall> near = wallsTouching(entity);
+			for (Wall wall : near) {
 				aCollision |= entity.collidesWith(wall);
 			}
+			wallsConsidered += near.size();
 		}
+		commit(event, wallsConsidered, entities.size(), aCollision);
 		return aCollision;
 	}
 
@@ -105,23 +476,23 @@ public class Environment implements Displayable {
 	 * @param entity The DynamicEntity to be tested
 	 */
 	public boolean handleCollision(Entity entity) {
+		CollisionPassEvent event = new CollisionPassEvent();
+		event.begin();
 		boolean aCollision = false;
-		for (Wall wall : walls) {
+		List<Wall> near = wallsTouching(entity);
+		for (Wall wall : near) {
 			aCollision |= entity.collidesWith(wall);
 		}
+		commit(event, near.size(), 1, aCollision);
 		return aCollision;
 	}
 	
-	/**
-	 * Draws the environment onto g
-	 * 
-	 * @param g The Graphics2D onto which the environment (a bunch of walls) will be drawn
-	 */
-	@Override
-	public void draw(Graphics2D g) {
-		for (Wall wall : walls) {
-			wall.draw(g);
+	private void commit(CollisionPassEvent event, int wallsConsidered, int entitiesTested, boolean collided) {
+		if (event.shouldCommit()) {
+			event.wallsConsidered = wallsConsidered;
+			event.entitiesTested = entitiesTested;
+			event.collided = collided;
+			event.commit();
 		}
-		navigationMap.draw(g);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,155 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import profiling.FrameProfiler;
+
+/**
+ * Keeps frames within a target time by shedding <code>OptionalWork</code> when frames run long, and
+ * restoring it once there is headroom again.
+ *
+ * Work is shed in a fixed priority order, which can be set with the system property <code>frame.shed</code>
+ * as a comma separated list of <code>OptionalWork</code> names, and is restored in the reverse order.  Only
+ * the work named is ever shed.  The target frame time, in millis, is set with <code>frame.target</code>.
+ *
+ * To keep quality from flickering the governor has hysteresis: work is only shed after several frames in a
+ * row have run over the target, and only restored after many frames in a row have run well under it.  When
+ * the <code>FrameProfiler</code> is on, work whose phase took up almost none of the last frame is passed over
+ * in favour of work which would help, unless there is none.
+ *
+ * @author Francis Stephens
+ */
+public class FrameBudget {
+	private static final double DEFAULT_TARGET_MILLIS = 1000d / 60;
+	// Consecutive frames over the target before a piece of work is shed
+	private static final int SHED_AFTER = 3;
+	// Consecutive frames under RESTORE_FRACTION of the target before a piece of work is restored
+	private static final int RESTORE_AFTER = 120;
+	private static final double RESTORE_FRACTION = 0.7;
+	// The share of the target a phase must take up for shedding its work to be worthwhile
+	private static final double MIN_PHASE_SHARE = 0.05;
+
+	private final long targetNanos;
+	private final List<OptionalWork> order;
+	private final Set<OptionalWork> shed;
+	private final List<OptionalWork> shedOrder;
+	private final FrameProfiler profiler;
+	private volatile long lastRenderNanos;
+	private int overBudgetFrames;
+	private int headroomFrames;
+
+	/**
+	 * Creates a budget from the system properties <code>frame.target</code> and <code>frame.shed</code>.
+	 *
+	 * @return A new frame budget
+	 */
+	public static FrameBudget fromSystemProperties() {
+		String target = System.getProperty("frame.target");
+		double targetMillis = target == null ? DEFAULT_TARGET_MILLIS : Double.parseDouble(target);
+		String shedOrder = System.getProperty("frame.shed");
+		List<OptionalWork> order = new ArrayList<OptionalWork>();
+		if (shedOrder == null) {
+			for (OptionalWork work : OptionalWork.values()) {
+				order.add(work);
+			}
+		}
+		else {
+			for (String name : shedOrder.split(",")) {
+				if (name.trim().length() > 0) {
+					order.add(OptionalWork.valueOf(name.trim()));
+				}
+			}
+		}
+		return new FrameBudget((long) (targetMillis * 1000000), order);
+	}
+
+	/**
+	 * @param targetNanos The longest a frame should take
+	 * @param order The work which may be shed, most expendable first
+	 */
+	public FrameBudget(long targetNanos, List<OptionalWork> order) {
+		if (targetNanos <= 0) {
+			throw new IllegalArgumentException("The target frame time must be positive");
+		}
+		this.targetNanos = targetNanos;
+		this.order = new ArrayList<OptionalWork>(order);
+		this.shed = EnumSet.noneOf(OptionalWork.class);
+		this.shedOrder = new ArrayList<OptionalWork>();
+		this.profiler = FrameProfiler.getInstance();
+	}
+
+	/**
+	 * @param work A piece of optional work
+	 * @return true if work is currently being shed and should be skipped
+	 */
+	public boolean isShed(OptionalWork work) {
+		return shed.contains(work);
+	}
+
+	/**
+	 * Records the time taken to draw a frame.  This may be called from the thread doing the drawing.
+	 *
+	 * @param renderNanos The time taken to draw the last frame
+	 */
+	public void recordRender(long renderNanos) {
+		lastRenderNanos = renderNanos;
+	}
+
+	/**
+	 * Ends a frame of the simulation, shedding or restoring work if the frames so far call for it.  A frame
+	 * is as long as the longer of the simulation's frame and the last frame drawn.  This must be called after
+	 * the profiler's frame has been ended.
+	 *
+	 * @param frameNanos The time taken by this frame of the simulation
+	 */
+	public void endFrame(long frameNanos) {
+		long nanos = Math.max(frameNanos, lastRenderNanos);
+		if (nanos > targetNanos) {
+			headroomFrames = 0;
+			if (++overBudgetFrames >= SHED_AFTER) {
+				overBudgetFrames = 0;
+				shedNext();
+			}
+		}
+		else {
+			overBudgetFrames = 0;
+			if (nanos < targetNanos * RESTORE_FRACTION && !shedOrder.isEmpty()) {
+				if (++headroomFrames >= RESTORE_AFTER) {
+					headroomFrames = 0;
+					shed.remove(shedOrder.remove(shedOrder.size() - 1));
+				}
+			}
+			else {
+				headroomFrames = 0;
+			}
+		}
+	}
+
+	private void shedNext() {
+		OptionalWork fallback = null;
+		for (OptionalWork work : order) {
+			if (shed.contains(work)) {
+				continue;
+			}
+			if (fallback == null) {
+				fallback = work;
+			}
+			// Without the profiler nothing is known of the phases, so work is simply shed in order
+			if (!profiler.isEnabled() || profiler.getLastFrameNanos(work.getPhase()) >= targetNanos * MIN_PHASE_SHARE) {
+				shed(work);
+				return;
+			}
+		}
+		if (fallback != null) {
+			shed(fallback);
+		}
+	}
+
+	private void shed(OptionalWork work) {
+		shed.add(work);
+		shedOrder.add(work);
+	}
+}
@@ -1,21 +1,27 @@
 package game;
 
 import java.awt.Canvas;
-import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.image.BufferStrategy;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
+import profiling.FrameProfiler;
+import profiling.Phase;
+import game.replay.ReplayRecorder;
+import resources.Sprite;
 import resources.SpriteStore;
 import entity.AlienEntity;
+import entity.DynamicEntity;
 import entity.Entity;
 import entity.PlayerEntity;
+import entity.PlayerInput;
 import entity.ShotEntity;
+import entity.ai.navigation.NavigationScheduler;
 
 /**
  * 
@@ -27,26 +33,107 @@ public class Game extends Canvas {
 	public static final int SCREEN_WIDTH = 800;
 	public static final int SCREEN_HEIGHT = 600;
 	public static final double DIAGONAL_LENGTH = Math.sqrt(((SCREEN_HEIGHT*SCREEN_HEIGHT)+(SCREEN_WIDTH*SCREEN_WIDTH)));
+	// How long an alien must be idle before it is put to sleep (millis)
+	private static final long SLEEP_AFTER = 500;
+	// Sleeping aliens this near to a player, or to a shot's tracer, are woken
+	private static final double PLAYER_WAKE_RANGE = 100;
+	private static final double SHOT_WAKE_RANGE = 20;
+	// The places tried for each alien before giving up on finding one clear of the walls
+	private static final int SPAWN_ATTEMPTS = 100;
 	
 	private PlayerEntity player;
+	private List<PlayerEntity> players;
 	private List<AlienEntity> aliens;
 	private List<AlienEntity> addedAliens;
 	private List<AlienEntity> removedAliens;
+	// The aliens which are awake, only these are updated and collided with
+	private List<AlienEntity> activeAliens;
+	private List<AlienEntity> stillActive;
+	private List<AlienEntity> fallingAsleep;
+	private SleepingAliens sleepingAliens;
+	// The aliens updated, and so moved, during the current tick
+	private List<AlienEntity> updatedAliens;
 	private List<ShotEntity> addedShots;
 	private List<ShotEntity> removedShots;
 	private List<ShotEntity> shots;
-	private BufferStrategy strategy;
+	private RenderLoop renderLoop;
+	private WorldSnapshot worldSnapshot;
 	private Environment environment;
+	private HitHistory hitHistory;
+	private SweepAndPrune broadPhase;
+	private List<DynamicEntity> candidatePairs;
+	private FrameProfiler profiler;
+	private final long seed;
+	private final int alienCount;
+	private final Random random;
+	private long time;
+	private ReplayRecorder recorder;
+	private final FrameBudget frameBudget;
+	private final NavigationScheduler navigationScheduler;
+	private int tickCount;
+	private int nextEntityId = 1;
 	
-	public static void main(String[] argv) {
+	public static void main(String[] argv) throws IOException {
 		Game game = new Game();
 		game.init();
+		game.recordIfRequested();
 		// Start the loop
 		game.gameLoop();
 	}
 	
+	/**
+	 * Creates a game whose walls and gunfire are randomised from the current time.
+	 */
+	public Game() {
+		this(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Creates a game whose walls and gunfire are randomised from seed, with as many aliens as the system
+	 * property <code>aliens</code> names, none if it is not set.
+	 * 
+	 * @param seed The seed for all of the randomness in this game
+	 */
+	public Game(long seed) {
+		this(seed, Integer.getInteger("aliens", 0));
+	}
+	
+	/**
+	 * Creates a game whose walls and gunfire are randomised from seed.  Two games created with the same
+	 * seed and alien count and fed the same ticks of input will play out identically.
+	 * 
+	 * @param seed The seed for all of the randomness in this game
+	 * @param alienCount The number of aliens spawned when the world is created
+	 */
+	public Game(long seed, int alienCount) {
+		this.seed = seed;
+		this.alienCount = alienCount;
+		this.random = new Random(seed);
+		this.profiler = FrameProfiler.getInstance();
+		this.frameBudget = FrameBudget.fromSystemProperties();
+		this.navigationScheduler = NavigationScheduler.fromSystemProperties();
+	}
+	
+	/**
+	 * Creates the world and a single player without any window or input listeners, so that it can be
+	 * driven by calls to tick.
+	 */
+	public void initHeadless() {
+		createEntities();
+		player = addPlayer(500,500);
+	}
+	
+	/**
+	 * Creates the world with no players at all.  Players can be added with addPlayer.
+	 */
+	public void initWorld() {
+		createEntities();
+	}
+	
 	private void init() {
+		exportProfileOnExit();
 		createEntities();
+		player = addPlayer(500,500);
 		// Setup the controls
 		addKeyListener(player.getControlListener());
 		addMouseListener(player.getMouseListener());
@@ -71,7 +158,52 @@ public class Game extends Canvas {
 		
 		// Create the buffering strategy that will allow us to use
 		createBufferStrategy(2);
-		strategy = getBufferStrategy();
+		// Frames are drawn from snapshots of the world on a thread of their own
+		renderLoop = new RenderLoop(getBufferStrategy(), frameBudget);
+		renderLoop.start();
+	}
+	
+	/**
+	 * If a replay file has been named with the system property <code>record</code> every tick of
+	 * this game is recorded to it.
+	 */
+	private void recordIfRequested() throws IOException {
+		String recordFile = System.getProperty("record");
+		if (recordFile != null) {
+			final ReplayRecorder opened = new ReplayRecorder(recordFile, seed, alienCount);
+			recorder = opened;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						// Closing again is harmless if recording has already stopped after a failure
+						opened.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * If a profile report file has been named with the system property <code>profile.report</code>
+	 * the profiler's JSON report is written to it when the game exits.
+	 */
+	private void exportProfileOnExit() {
+		final String reportFile = System.getProperty("profile.report");
+		if (profiler.isEnabled() && reportFile != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						profiler.writeJson(reportFile);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
 	}
 	
 	/**
@@ -83,17 +215,182 @@ public class Game extends Canvas {
 		return environment;
 	}
 	
+	/**
+	 * @return The budget deciding which optional work this game does
+	 */
+	public FrameBudget getFrameBudget() {
+		return frameBudget;
+	}
+	
+	/**
+	 * @return The scheduler sharing out the work of path searches between ticks
+	 */
+	public NavigationScheduler getNavigationScheduler() {
+		return navigationScheduler;
+	}
+	
+	/**
+	 * @return The history against which lag compensated shots are tested, or null if there is none
+	 */
+	public HitHistory getHitHistory() {
+		return hitHistory;
+	}
+	
+	/**
+	 * Provides a history of entity positions so that shots fired by players who saw an earlier tick
+	 * can be tested against the world as it was at that tick.
+	 * 
+	 * @param hitHistory The history, or null to test every shot against the present
+	 */
+	public void setHitHistory(HitHistory hitHistory) {
+		this.hitHistory = hitHistory;
+	}
+	
+	/**
+	 * Adds a new player to the game.
+	 * 
+	 * @param x The x coordinate at which the player starts
+	 * @param y The y coordinate at which the player starts
+	 * @return The new player
+	 */
+	public PlayerEntity addPlayer(int x, int y) {
+		PlayerEntity newPlayer = new PlayerEntity(SpriteStore.getSprite(SpriteStore.playerImage),this,x,y,0);
+		newPlayer.init();
+		players.add(newPlayer);
+		return newPlayer;
+	}
+	
+	/**
+	 * Removes a player from the game.
+	 * 
+	 * @param removed The player to remove
+	 */
+	public void removePlayer(PlayerEntity removed) {
+		players.remove(removed);
+	}
+	
+	/**
+	 * @return Every player in the game, this list must not be modified
+	 */
+	public List<PlayerEntity> getPlayers() {
+		return players;
+	}
+	
+	/**
+	 * @return Every alien in the game, this list must not be modified
+	 */
+	public List<AlienEntity> getAliens() {
+		return aliens;
+	}
+	
+	/**
+	 * @return The aliens which are awake, this list must not be modified
+	 */
+	public List<AlienEntity> getActiveAliens() {
+		return activeAliens;
+	}
+	
+	/**
+	 * @return Every shot in the game, this list must not be modified
+	 */
+	public List<ShotEntity> getShots() {
+		return shots;
+	}
+	
+	/**
+	 * Hands out the identifiers which allow entities to be tracked between snapshots of the game.
+	 * 
+	 * @return An identifier unique to this game
+	 */
+	public synchronized int nextEntityId() {
+		return nextEntityId++;
+	}
+	
+	/**
+	 * @return The player controlled by this game's window, or null if there is none
+	 */
+	public PlayerEntity getPlayer() {
+		return player;
+	}
+	
+	/**
+	 * @return The seed for all of the randomness in this game
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * @return The number of aliens spawned when this game's world was created
+	 */
+	public int getAlienCount() {
+		return alienCount;
+	}
+	
+	/**
+	 * All randomness in the game must come from here for games to be replayable.
+	 * 
+	 * @return The source of randomness for this game
+	 */
+	public Random getRandom() {
+		return random;
+	}
+	
+	/**
+	 * The game's clock advances by the length of each tick.  Entities must use this rather than
+	 * the system clock for games to be replayable.
+	 * 
+	 * @return The time, in millis, since the game started
+	 */
+	public long getTime() {
+		return time;
+	}
+	
 	private void createEntities() {
-		player = new PlayerEntity(SpriteStore.getSprite(SpriteStore.playerImage),this,500,500,0);
-		player.init();
+		players = new ArrayList<PlayerEntity>();
 		aliens = new ArrayList<AlienEntity>();
 		addedAliens = new ArrayList<AlienEntity>();
 		removedAliens = new ArrayList<AlienEntity>();
+		updatedAliens = new ArrayList<AlienEntity>();
+		activeAliens = new ArrayList<AlienEntity>();
+		stillActive = new ArrayList<AlienEntity>();
+		fallingAsleep = new ArrayList<AlienEntity>();
+		sleepingAliens = new SleepingAliens();
 		shots = new ArrayList<ShotEntity>();
 		addedShots = new ArrayList<ShotEntity>();
 		removedShots = new ArrayList<ShotEntity>();
+		broadPhase = new SweepAndPrune();
+		candidatePairs = new ArrayList<DynamicEntity>();
 		environment = new Environment();
-		environment.addWallsAndMap();
+		environment.addWallsAndMap(random);
+		spawnAliens(alienCount);
+	}
+	
+	/**
+	 * Scatters aliens over the world wherever they are clear of the walls.  Games are created with the alien
+	 * count they were given.  The aliens are placed using this game's randomness, so the count is written into
+	 * a recording's header for its replay to spawn the same aliens.
+	 * 
+	 * @param count The number of aliens to add
+	 * @throws IllegalStateException If no place clear of the walls is found for an alien within SPAWN_ATTEMPTS tries
+	 */
+	public void spawnAliens(int count) {
+		Sprite sprite = SpriteStore.getSprite(SpriteStore.alienImage);
+		for (int i = 0; i < count; i++) {
+			boolean placed = false;
+			for (int attempt = 0; attempt < SPAWN_ATTEMPTS && !placed; attempt++) {
+				int x = random.nextInt(SCREEN_WIDTH - sprite.getWidth());
+				int y = random.nextInt(SCREEN_HEIGHT - sprite.getHeight());
+				if (environment.isClear(x, y, sprite.getWidth(), sprite.getHeight())) {
+					addEntity(new AlienEntity(sprite, this, x, y, random.nextDouble() * 2 * Math.PI));
+					placed = true;
+				}
+			}
+			if (!placed) {
+				throw new IllegalStateException("No room clear of the walls found for alien " + (i + 1) + " of "
+						+ count + " in " + SPAWN_ATTEMPTS + " attempts");
+			}
+		}
 	}
 	
 	/**
@@ -102,7 +399,6 @@ public class Game extends Canvas {
 	 * @param entity
 	 */
 	public synchronized void removeEntity(Entity entity) {
-		System.out.println("Removing entity");
 		if (entity instanceof AlienEntity) {
 			synchronized(removedAliens) {
 				removedAliens.add((AlienEntity)entity);
@@ -121,7 +417,6 @@ public class Game extends Canvas {
 	 * @param entity
 	 */
 	public synchronized void addEntity(Entity entity) {
-		System.out.println("Adding Entity");
 		if (entity instanceof AlienEntity) {
 			synchronized(addedAliens) {
 				addedAliens.add((AlienEntity)entity);
@@ -140,18 +435,24 @@ public class Game extends Canvas {
 		
 		while(gameRunning) {
 //			System.out.println("Game Running");
+			long frameStart = System.nanoTime();
 			// Determine time lapse since last update
 			long delta = System.currentTimeMillis() - lastLoopTime;
 			lastLoopTime = System.currentTimeMillis();
 			
-			Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
-			g.setColor(Color.black);
-			g.fillRect(0,0,SCREEN_WIDTH,SCREEN_HEIGHT);
-			
-			manageEntities(g,delta);
+			PlayerInput input = player.sampleInput();
+			if (recorder != null) {
+				recordTick(delta, input);
+			}
+			player.applyInput(input);
+			tick(delta);
 			
-			g.dispose();
-			strategy.show();
+			long captureStart = profiler.start(Phase.RENDER);
+			worldSnapshot = WorldSnapshot.capture(this, worldSnapshot);
+			renderLoop.publish(worldSnapshot);
+			profiler.stop(Phase.RENDER, captureStart);
+			profiler.endFrame(frameStart);
+			frameBudget.endFrame(System.nanoTime() - frameStart);
 			
 			// Pause for a bit
 			try {
@@ -162,47 +463,170 @@ public class Game extends Canvas {
 		}
 	}
 	
-	private void manageEntities(Graphics2D g, long delta) {
+	/**
+	 * Records a tick of play.  On the first failure the recording is closed, keeping the ticks already written,
+	 * and stopped, so that the game goes on without reporting the failure again every tick.
+	 */
+	private void recordTick(long delta, PlayerInput input) {
+		try {
+			recorder.record(delta, input);
+		} catch (IOException e) {
+			System.err.println("Recording stopped after tick " + tickCount + ": " + e);
+			try {
+				recorder.close();
+			} catch (IOException closeFailure) {
+				// The recording is already broken, there is nothing more worth reporting
+			}
+			recorder = null;
+		}
+	}
+	
+	/**
+	 * Advances the game by delta millis.  Input should already have been applied to the players.
+	 * 
+	 * @param delta The length of this tick in millis
+	 */
+	public void tick(long delta) {
+		time += delta;
+		tickCount++;
+		updateWorld(delta);
+	}
+	
+	private void updateWorld(long delta) {
+		long updateStart = profiler.start(Phase.UPDATE);
 		updateEntities();
-		for (AlienEntity alien : aliens) {
+		navigationScheduler.run();
+		// Coarsening the update levels depends on the frame rate, so a game being recorded never does it
+		boolean coarse = recorder == null && frameBudget.isShed(OptionalWork.DISTANT_AI);
+		updatedAliens.clear();
+		stillActive.clear();
+		for (AlienEntity alien : activeAliens) {
+			int interval = UpdateLevels.intervalFor(alien, players, coarse);
+			if (!UpdateLevels.isDue(alien, tickCount, interval)) {
+				alien.defer(delta);
+				stillActive.add(alien);
+				continue;
+			}
+			updatedAliens.add(alien);
+			long alienDelta = alien.takeDeferred(delta);
 			alien.reset();
-			alien.move(delta);
-			alien.act(delta);
+			alien.move(alienDelta);
+			alien.act(alienDelta);
+			if (alien.rest(alienDelta) >= SLEEP_AFTER) {
+				fallingAsleep.add(alien);
+			}
+			else {
+				stillActive.add(alien);
+			}
+		}
+		List<AlienEntity> swap = activeAliens;
+		activeAliens = stillActive;
+		stillActive = swap;
+		for (ShotEntity shot : shots) {
+			shot.act(delta);
 		}
-		player.reset();
-		player.move(delta);
-		player.act(delta);
+		for (PlayerEntity player : players) {
+			player.reset();
+			player.move(delta);
+			player.act(delta);
+		}
+		sleepAndWake();
+		profiler.stop(Phase.UPDATE, updateStart);
 		
-		environment.handleCollisions(aliens);
+		long collisionStart = profiler.start(Phase.COLLISION);
+		// Aliens not updated this tick have not moved, so cannot have run into a wall
+		environment.handleCollisions(updatedAliens);
 		environment.handleCollisions(shots);
-		environment.handleCollision(player);
-		environment.draw(g);
-		
-		for (AlienEntity alien : aliens) {
-			alien.draw(g);
+		for (PlayerEntity player : players) {
+			environment.handleCollision(player);
+		}
+		handleDynamicCollisions();
+		profiler.stop(Phase.COLLISION, collisionStart);
+	}
+	
+	/**
+	 * Puts the aliens which have been idle for long enough to sleep, and then wakes any sleeping alien near
+	 * to a player, a shot or an alien which has just moved.  This is done before collisions are handled so
+	 * that an alien woken by a shot can be hit by it on the same tick.
+	 */
+	private void sleepAndWake() {
+		if (!fallingAsleep.isEmpty()) {
+			broadPhase.removeAll(fallingAsleep);
+			for (AlienEntity alien : fallingAsleep) {
+				sleepingAliens.add(alien);
+			}
+			fallingAsleep.clear();
+		}
+		if (sleepingAliens.size() == 0) {
+			return;
+		}
+		for (PlayerEntity player : players) {
+			sleepingAliens.wakeWithin(player.getX() - PLAYER_WAKE_RANGE, player.getY() - PLAYER_WAKE_RANGE,
+					player.getX() + player.getWidth() + PLAYER_WAKE_RANGE, player.getY() + player.getHeight() + PLAYER_WAKE_RANGE);
 		}
 		for (ShotEntity shot : shots) {
-			shot.draw(g);
+			sleepingAliens.wakeAlong(shot, SHOT_WAKE_RANGE);
+		}
+		for (AlienEntity alien : updatedAliens) {
+			if (!alien.isAsleep() && !alien.isIdle()) {
+				sleepingAliens.wakeWithin(alien.getX(), alien.getY(), alien.getX() + alien.getWidth(), alien.getY() + alien.getHeight());
+			}
+		}
+		int firstWoken = activeAliens.size();
+		sleepingAliens.takeWoken(activeAliens);
+		for (int i = firstWoken; i < activeAliens.size(); i++) {
+			broadPhase.add(activeAliens.get(i));
+		}
+	}
+	
+	/**
+	 * Tests the aliens and shots against each other.  The broad phase finds the pairs whose bounding
+	 * boxes overlap and only those are handed to the aliens' own collision handling.
+	 */
+	private void handleDynamicCollisions() {
+		broadPhase.update();
+		broadPhase.findCandidatePairs(candidatePairs);
+		for (int i = 0; i < candidatePairs.size(); i += 2) {
+			DynamicEntity first = candidatePairs.get(i);
+			DynamicEntity second = candidatePairs.get(i+1);
+			if (first instanceof AlienEntity) {
+				first.collidesWith(second);
+			}
+			if (second instanceof AlienEntity) {
+				second.collidesWith(first);
+			}
 		}
-		player.draw(g);
 	}
 
 	private void updateEntities() {
 		
 		synchronized(removedShots) {
 			shots.removeAll(removedShots);
+			broadPhase.removeAll(removedShots);
 			removedShots.clear();
 		}
 		synchronized(addedShots) {
 			shots.addAll(addedShots);
+			for (ShotEntity shot : addedShots) {
+				broadPhase.add(shot);
+			}
 			addedShots.clear();
 		}
 		synchronized(removedAliens) {
 			aliens.removeAll(removedAliens);
+			activeAliens.removeAll(removedAliens);
+			broadPhase.removeAll(removedAliens);
+			for (AlienEntity alien : removedAliens) {
+				sleepingAliens.remove(alien);
+			}
 			removedAliens.clear();
 		}
 		synchronized(addedAliens) {
 			aliens.addAll(addedAliens);
+			activeAliens.addAll(addedAliens);
+			for (AlienEntity alien : addedAliens) {
+				broadPhase.add(alien);
+			}
 			addedAliens.clear();
 		}
 	}
@@ -0,0 +1,28 @@
+package game;
+
+import entity.DynamicEntity;
+
+/**
+ * A record of where entities stood over recent ticks, allowing a hit-scan shot to be tested against the world
+ * as its shooter saw it rather than as it is now.
+ *
+ * @author Francis Stephens
+ */
+public interface HitHistory {
+
+	/**
+	 * Finds where target stood at tick.
+	 *
+	 * @param tick The tick to look back to
+	 * @param target The entity to look up
+	 * @param transform Receives {x, y, rotation} of target at tick
+	 * @return true if the transform was found, false if tick or target is not remembered
+	 */
+	public boolean findTransform(int tick, DynamicEntity target, double[] transform);
+
+	/**
+	 * @param tick The tick to look back to
+	 * @return The furthest any entity may have moved between tick and now, or 0 if tick is not remembered
+	 */
+	public double getRewindMargin(int tick);
+}
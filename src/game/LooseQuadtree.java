@@ -0,0 +1,388 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import entity.DynamicEntity;
+
+/**
+ * A loose quadtree over the screen holding the bounding box of each DynamicEntity.  Each node's loose bounds
+ * are its cell grown by half a cell on every side, and an entity is held by the deepest node whose cell
+ * is at least as large as the entity and which holds the entity's centre, so the entity always lies within
+ * that node's loose bounds.  The entity is only moved to another node once its box leaves those loose bounds,
+ * so keeping the tree up to date costs almost nothing while entities move only a few pixels a tick.
+ *
+ * Entities are held in pooled slots and every query works in arrays allocated up front, so once the tree
+ * has seen as many entities as it will hold at once adding, moving and finding entities allocates nothing.
+ * Entities outside the screen are placed as if they were on its edge, or at the root if they are too far out.
+ *
+ * @author Francis Stephens
+ */
+public class LooseQuadtree {
+	private final int depth;
+	private final int firstLeaf;
+	private final double size;
+	// The loose bounds of each node, {minX,minY,maxX,maxY}, node i at i*4
+	private final double[] nodeBounds;
+	// The first of the slots held by each node
+	private final Slot[] heads;
+	// The number of entities held by each node and all of its descendants
+	private final int[] population;
+	private final Map<DynamicEntity,Slot> slots;
+	private final List<Slot> held;
+	private final List<Slot> spare;
+	private final double[] bounds;
+	private final int[] stack;
+	private final double[] stackDistances;
+	private final int[] children;
+	private final double[] childDistances;
+	private DynamicEntity[] nearest;
+	private double[] nearestDistances;
+	private int stamp;
+
+	/**
+	 * Creates an empty tree covering the screen.
+	 *
+	 * @param depth The number of times the screen is divided into quarters, the cells of the deepest
+	 * level are 1/2^depth of the screen across
+	 */
+	public LooseQuadtree(int depth) {
+		this.depth = depth;
+		size = Math.max(Game.SCREEN_WIDTH, Game.SCREEN_HEIGHT);
+		int nodes = 0;
+		for (int level = 0; level <= depth; level++) {
+			nodes += 1 << (2*level);
+		}
+		firstLeaf = nodes - (1 << (2*depth));
+		nodeBounds = new double[nodes*4];
+		putBounds(0, 0, 0, size);
+		heads = new Slot[nodes];
+		population = new int[nodes];
+		slots = new IdentityHashMap<DynamicEntity,Slot>();
+		held = new ArrayList<Slot>();
+		spare = new ArrayList<Slot>();
+		bounds = new double[4];
+		stack = new int[3*depth + 1];
+		stackDistances = new double[3*depth + 1];
+		children = new int[4];
+		childDistances = new double[4];
+		nearest = new DynamicEntity[0];
+		nearestDistances = new double[0];
+	}
+
+	private void putBounds(int node, double x, double y, double cellSize) {
+		double half = cellSize/2;
+		nodeBounds[node*4] = x - half;
+		nodeBounds[node*4+1] = y - half;
+		nodeBounds[node*4+2] = x + cellSize + half;
+		nodeBounds[node*4+3] = y + cellSize + half;
+		if (node < firstLeaf) {
+			putBounds(node*4 + 1, x, y, half);
+			putBounds(node*4 + 2, x + half, y, half);
+			putBounds(node*4 + 3, x, y + half, half);
+			putBounds(node*4 + 4, x + half, y + half, half);
+		}
+	}
+
+	/**
+	 * Starts bringing the tree up to date.  Every entity which should remain in the tree must be passed
+	 * to update before endUpdate is called.
+	 */
+	public void beginUpdate() {
+		stamp++;
+	}
+
+	/**
+	 * Moves each of the entities provided to the node it now belongs in, adding it to the tree if it is new.
+	 * An entity which is still within the loose bounds of its node is left where it is.
+	 *
+	 * @param entities Entities which should be in the tree
+	 */
+	public void update(List<? extends DynamicEntity> entities) {
+		for (int i = 0; i < entities.size(); i++) {
+			DynamicEntity entity = entities.get(i);
+			Slot slot = slots.get(entity);
+			if (slot == null) {
+				insert(entity);
+				continue;
+			}
+			entity.getBounds(bounds);
+			slot.stamp = stamp;
+			if (!contains(slot.node, bounds)) {
+				unlink(slot);
+				link(slot, bounds);
+			}
+			else {
+				slot.setBounds(bounds);
+			}
+		}
+	}
+
+	/**
+	 * Adds a single entity to the tree, where it now lies.  Entities added this way are not moved as they
+	 * move, so this suits trees holding entities which stay put and which are never brought up to date
+	 * with beginUpdate, update and endUpdate.
+	 *
+	 * @param entity The entity to add
+	 */
+	public void add(DynamicEntity entity) {
+		remove(entity);
+		insert(entity);
+	}
+
+	private void insert(DynamicEntity entity) {
+		Slot slot = spare.isEmpty() ? new Slot() : spare.remove(spare.size() - 1);
+		slot.entity = entity;
+		slot.stamp = stamp;
+		slot.index = held.size();
+		held.add(slot);
+		slots.put(entity, slot);
+		entity.getBounds(bounds);
+		link(slot, bounds);
+	}
+
+	/**
+	 * Removes a single entity from the tree, if it is there.
+	 *
+	 * @param entity The entity to remove
+	 * @return true if entity was in the tree, false otherwise
+	 */
+	public boolean remove(DynamicEntity entity) {
+		Slot slot = slots.remove(entity);
+		if (slot == null) {
+			return false;
+		}
+		release(slot);
+		return true;
+	}
+
+	/**
+	 * Removes every entity which was not updated since beginUpdate was called.
+	 */
+	public void endUpdate() {
+		// From the end, as releasing a slot moves the last slot into its place
+		for (int i = held.size() - 1; i >= 0; i--) {
+			Slot slot = held.get(i);
+			if (slot.stamp != stamp) {
+				slots.remove(slot.entity);
+				release(slot);
+			}
+		}
+	}
+
+	private void release(Slot slot) {
+		unlink(slot);
+		Slot last = held.remove(held.size() - 1);
+		if (last != slot) {
+			held.set(slot.index, last);
+			last.index = slot.index;
+		}
+		slot.entity = null;
+		spare.add(slot);
+	}
+
+	/**
+	 * @return The number of entities in the tree
+	 */
+	public int size() {
+		return held.size();
+	}
+
+	/**
+	 * Finds every entity whose bounding box overlaps the box given.  Each entity's box is the one it had
+	 * when it was last added or updated.
+	 *
+	 * @param minX The left of the box
+	 * @param minY The top of the box
+	 * @param maxX The right of the box
+	 * @param maxY The bottom of the box
+	 * @param found The list which receives the entities, it is cleared first
+	 */
+	public void query(double minX, double minY, double maxX, double maxY, List<DynamicEntity> found) {
+		found.clear();
+		if (population[0] == 0) {
+			return;
+		}
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			int b = node*4;
+			// Everything a node holds lies within its loose bounds, save for the far out entities held by the root
+			boolean inside = node > 0 && nodeBounds[b] >= minX && nodeBounds[b+1] >= minY && nodeBounds[b+2] <= maxX && nodeBounds[b+3] <= maxY;
+			for (Slot slot = heads[node]; slot != null; slot = slot.next) {
+				if (inside || (slot.minX <= maxX && slot.maxX >= minX && slot.minY <= maxY && slot.maxY >= minY)) {
+					found.add(slot.entity);
+				}
+			}
+			if (node < firstLeaf) {
+				for (int child = node*4 + 1; child <= node*4 + 4; child++) {
+					b = child*4;
+					if (population[child] > 0 && nodeBounds[b] <= maxX && nodeBounds[b+2] >= minX && nodeBounds[b+1] <= maxY && nodeBounds[b+3] >= minY) {
+						stack[top++] = child;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the k entities whose bounding boxes are nearest to a point, an entity whose box holds the point
+	 * being at no distance from it.  Entities equally near are found in the order the tree holds them.
+	 *
+	 * @param x The x coord of the point
+	 * @param y The y coord of the point
+	 * @param k The greatest number of entities to find
+	 * @param found The list which receives the entities, nearest first, it is cleared first
+	 */
+	public void findNearest(double x, double y, int k, List<DynamicEntity> found) {
+		found.clear();
+		if (k <= 0 || population[0] == 0) {
+			return;
+		}
+		if (nearest.length < k) {
+			nearest = new DynamicEntity[k];
+			nearestDistances = new double[k];
+		}
+		int count = 0;
+		int top = 0;
+		stack[top] = 0;
+		stackDistances[top++] = 0;
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			if (count == k && stackDistances[top] > nearestDistances[k-1]) {
+				continue;
+			}
+			for (Slot slot = heads[node]; slot != null; slot = slot.next) {
+				double distance = distanceSquared(x, y, slot.minX, slot.minY, slot.maxX, slot.maxY);
+				if (count < k || distance < nearestDistances[count-1]) {
+					int i = count < k ? count++ : count - 1;
+					for (; i > 0 && nearestDistances[i-1] > distance; i--) {
+						nearest[i] = nearest[i-1];
+						nearestDistances[i] = nearestDistances[i-1];
+					}
+					nearest[i] = slot.entity;
+					nearestDistances[i] = distance;
+				}
+			}
+			if (node < firstLeaf) {
+				// Pushed furthest first, so the nearest child is searched first
+				int pushed = 0;
+				for (int child = node*4 + 1; child <= node*4 + 4; child++) {
+					if (population[child] == 0) {
+						continue;
+					}
+					int b = child*4;
+					double distance = distanceSquared(x, y, nodeBounds[b], nodeBounds[b+1], nodeBounds[b+2], nodeBounds[b+3]);
+					int i = pushed++;
+					for (; i > 0 && childDistances[i-1] < distance; i--) {
+						children[i] = children[i-1];
+						childDistances[i] = childDistances[i-1];
+					}
+					children[i] = child;
+					childDistances[i] = distance;
+				}
+				for (int i = 0; i < pushed; i++) {
+					stack[top] = children[i];
+					stackDistances[top++] = childDistances[i];
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			found.add(nearest[i]);
+			nearest[i] = null;
+		}
+	}
+
+	private static double distanceSquared(double x, double y, double minX, double minY, double maxX, double maxY) {
+		double dx = Math.max(0, Math.max(minX - x, x - maxX));
+		double dy = Math.max(0, Math.max(minY - y, y - maxY));
+		return dx*dx + dy*dy;
+	}
+
+	private boolean contains(int node, double[] box) {
+		int b = node*4;
+		return box[0] >= nodeBounds[b] && box[1] >= nodeBounds[b+1] && box[2] <= nodeBounds[b+2] && box[3] <= nodeBounds[b+3];
+	}
+
+	/**
+	 * Places slot in the deepest node which can hold the box given, counting it in the population of that
+	 * node and each of its ancestors.
+	 */
+	private void link(Slot slot, double[] box) {
+		slot.setBounds(box);
+		double extent = Math.max(box[2] - box[0], box[3] - box[1]);
+		int level = 0;
+		double cellSize = size;
+		while (level < depth && cellSize/2 >= extent) {
+			cellSize /= 2;
+			level++;
+		}
+		int cells = 1 << level;
+		int column = cell((box[0] + box[2])/2, cellSize, cells);
+		int row = cell((box[1] + box[3])/2, cellSize, cells);
+		int node = 0;
+		for (int shift = level - 1; shift >= 0; shift--) {
+			node = node*4 + 1 + ((row >> shift) & 1)*2 + ((column >> shift) & 1);
+		}
+		// A box whose centre was clamped onto the screen may not lie within the node found
+		while (node > 0 && !contains(node, box)) {
+			node = (node - 1)/4;
+		}
+		slot.node = node;
+		slot.prev = null;
+		slot.next = heads[node];
+		if (slot.next != null) {
+			slot.next.prev = slot;
+		}
+		heads[node] = slot;
+		for (; node > 0; node = (node - 1)/4) {
+			population[node]++;
+		}
+		population[0]++;
+	}
+
+	private void unlink(Slot slot) {
+		if (slot.prev == null) {
+			heads[slot.node] = slot.next;
+		}
+		else {
+			slot.prev.next = slot.next;
+		}
+		if (slot.next != null) {
+			slot.next.prev = slot.prev;
+		}
+		slot.prev = null;
+		slot.next = null;
+		for (int node = slot.node; node > 0; node = (node - 1)/4) {
+			population[node]--;
+		}
+		population[0]--;
+	}
+
+	private static int cell(double coord, double cellSize, int cells) {
+		return Math.max(0, Math.min(cells - 1, (int) Math.floor(coord / cellSize)));
+	}
+
+	/**
+	 * An entity's place in the tree, with the bounding box it had when it was placed or last updated.
+	 */
+	private static final class Slot {
+		DynamicEntity entity;
+		Slot next, prev;
+		int node;
+		int index;
+		int stamp;
+		double minX, minY, maxX, maxY;
+
+		void setBounds(double[] box) {
+			minX = box[0];
+			minY = box[1];
+			maxX = box[2];
+			maxY = box[3];
+		}
+	}
+}
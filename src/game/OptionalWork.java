@@ -0,0 +1,33 @@
+package game;
+
+import profiling.Phase;
+
+/**
+ * Work the game can do without when a frame runs over its budget.  Each is charged to the <code>Phase</code>
+ * whose time it takes up, so that the <code>FrameBudget</code> can tell whether shedding it would help.
+ *
+ * @author Francis Stephens
+ */
+public enum OptionalWork {
+	/** The debug overlay of the navigation map */
+	NAVIGATION_OVERLAY(Phase.RENDER),
+	/** The line drawn along each shot to its impact point */
+	SHOT_TRACERS(Phase.RENDER),
+	/** Recomputing the flashlight for every small movement, rather than only larger ones */
+	FLASHLIGHT_PRECISION(Phase.VISION),
+	/** Updating aliens away from every player at their usual update level, rather than half as often again */
+	DISTANT_AI(Phase.UPDATE);
+
+	private final Phase phase;
+
+	private OptionalWork(Phase phase) {
+		this.phase = phase;
+	}
+
+	/**
+	 * @return The phase whose time this work takes up
+	 */
+	public Phase getPhase() {
+		return phase;
+	}
+}
@@ -0,0 +1,321 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import entity.Entity;
+
+/**
+ * A precomputed, conservative answer to whether anything in one grid cell could possibly see anything in
+ * another.  Each cell has a row of bits, one per cell, packed into a single <code>long[]</code>.  A cleared
+ * bit is a proof that every line between the two cells passes through a wall; a set bit means only that
+ * the cells may see each other, so a line of sight test is still needed to be sure.
+ *
+ * A pair of cells is proven blind when a single wall edge, or the diagonal of a wall which neither cell
+ * overlaps, strictly separates the two cells and is crossed by all sixteen lines joining their corners.
+ * The points where lines between two convex cells cross a line lie between the extreme crossings of the
+ * corner to corner lines, so if those all fall within the blocker then every line does.  The wall which
+ * proved each pair blind is remembered, so removing a wall need only test again the pairs it blinded.
+ *
+ * @author Francis Stephens
+ */
+public class PotentiallyVisibleSet {
+	public static final int CELL_SIZE = 40;
+	// The four edges and two diagonals of each wall
+	private static final int BLOCKERS_PER_WALL = 6;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	// Shared by every set, its threads are daemons so they never hold the game open
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "pvs");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final int columns;
+	private final int rows;
+	private final int cellCount;
+	private final int wordsPerRow;
+	private final long[] bits;
+	private final double[] cellBoxes; // {minX,minY,maxX,maxY} per cell
+	// For each pair (i,j), j > i, proven blind, the index of the wall whose blocker proved it
+	private final int[] blindedBy;
+	private final List<Entity> walls = new ArrayList<Entity>();
+	private double[] blockers; // {x1,y1,x2,y2} per blocker
+	private double[] overlapBoxes; // {minX,minY,maxX,maxY} of the wall for diagonals, NaN for edges
+
+	/**
+	 * Builds the set for the walls given, spreading the work across every available processor.
+	 *
+	 * @param walls The walls which block sight
+	 */
+	public PotentiallyVisibleSet(List<? extends Entity> walls) {
+		columns = (Game.SCREEN_WIDTH + CELL_SIZE - 1) / CELL_SIZE;
+		rows = (Game.SCREEN_HEIGHT + CELL_SIZE - 1) / CELL_SIZE;
+		cellCount = columns * rows;
+		wordsPerRow = (cellCount + 63) >>> 6;
+		bits = new long[cellCount * wordsPerRow];
+		blindedBy = new int[cellCount * cellCount];
+		cellBoxes = new double[cellCount * 4];
+		for (int cell = 0; cell < cellCount; cell++) {
+			double x = (cell % columns) * CELL_SIZE;
+			double y = (cell / columns) * CELL_SIZE;
+			cellBoxes[cell*4] = x;
+			cellBoxes[cell*4+1] = y;
+			cellBoxes[cell*4+2] = x + CELL_SIZE;
+			cellBoxes[cell*4+3] = y + CELL_SIZE;
+		}
+		setBlockers(walls);
+		for (int i = 0; i < cellCount; i++) {
+			for (int j = 0; j < cellCount; j++) {
+				set(bits, i, j);
+			}
+		}
+		recompute(0, bits);
+	}
+
+	/**
+	 * Indicates whether the two points given might be able to see each other.
+	 *
+	 * @param x1 The first x coord
+	 * @param y1 The first y coord
+	 * @param x2 The second x coord
+	 * @param y2 The second y coord
+	 * @return false if a wall certainly lies between the points, true if they may be able to see each other
+	 */
+	public boolean mayBeVisible(double x1, double y1, double x2, double y2) {
+		int from = cellFor(x1, y1);
+		int to = cellFor(x2, y2);
+		if (from < 0 || to < 0) {
+			return true; // Off the grid, nothing is known
+		}
+		return isSet(bits, from, to);
+	}
+
+	/**
+	 * Brings the set up to date with a wall which has just been added to the end of walls.  Only the pairs
+	 * which may still see each other can become blind, and only the new wall can be what blinds them.
+	 *
+	 * @param walls The walls now blocking sight, the last being the new wall
+	 */
+	public void wallAdded(List<? extends Entity> walls) {
+		setBlockers(walls);
+		recompute(blockers.length - BLOCKERS_PER_WALL * 4, bits);
+	}
+
+	/**
+	 * Brings the set up to date with a wall which has just been removed.  Only the pairs which the removed
+	 * wall proved blind may now see each other, so only those are assumed visible and tested again.
+	 *
+	 * @param walls The walls now blocking sight
+	 */
+	public void wallRemoved(List<? extends Entity> walls) {
+		int removed = 0;
+		while (removed < walls.size() && this.walls.get(removed) == walls.get(removed)) {
+			removed++;
+		}
+		long[] retest = new long[bits.length];
+		for (int i = 0; i < cellCount; i++) {
+			for (int j = i + 1; j < cellCount; j++) {
+				if (isSet(bits, i, j)) {
+					continue;
+				}
+				int pair = i * cellCount + j;
+				if (blindedBy[pair] == removed) {
+					set(bits, i, j);
+					set(retest, i, j);
+				}
+				else if (blindedBy[pair] > removed) {
+					blindedBy[pair]--; // The walls after the removed one have moved down
+				}
+			}
+		}
+		setBlockers(walls);
+		recompute(0, retest);
+	}
+
+	/**
+	 * Sets up a blocker for each edge and diagonal of every wall's outline, rotation included.
+	 */
+	private void setBlockers(List<? extends Entity> walls) {
+		this.walls.clear();
+		this.walls.addAll(walls);
+		blockers = new double[walls.size() * BLOCKERS_PER_WALL * 4];
+		overlapBoxes = new double[walls.size() * BLOCKERS_PER_WALL * 4];
+		int b = 0;
+		for (Entity wall : walls) {
+			for (double[] line : wall.getLines()) {
+				b = addBlocker(b, line[0], line[1], line[2], line[3], null);
+			}
+			List<double[]> corners = wall.getCorners(); // Top left, top right, bottom left, bottom right
+			double[] box = new double[4];
+			wall.getBounds(box);
+			b = addBlocker(b, corners.get(0)[0], corners.get(0)[1], corners.get(3)[0], corners.get(3)[1], box);
+			b = addBlocker(b, corners.get(1)[0], corners.get(1)[1], corners.get(2)[0], corners.get(2)[1], box);
+		}
+	}
+
+	private int addBlocker(int b, double x1, double y1, double x2, double y2, double[] box) {
+		blockers[b] = x1;
+		blockers[b+1] = y1;
+		blockers[b+2] = x2;
+		blockers[b+3] = y2;
+		for (int i = 0; i < 4; i++) {
+			overlapBoxes[b+i] = box == null ? Double.NaN : box[i];
+		}
+		return b + 4;
+	}
+
+	/**
+	 * Tests the pairs of cells marked in candidates, all of which may see each other, clearing the bits of
+	 * those proven blind.  Each task works out the pairs (i,j), j > i, for a share of the rows i and writes
+	 * only to row i, so tasks never share a word.  The other half of the matrix is mirrored afterwards.
+	 *
+	 * @param firstBlocker The offset in blockers of the first blocker to test
+	 * @param candidates The pairs to test, laid out as bits
+	 */
+	private void recompute(final int firstBlocker, final long[] candidates) {
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(THREADS);
+			for (int t = 0; t < THREADS; t++) {
+				final int first = t;
+				futures.add(EXECUTOR.submit(new Runnable() {
+					@Override
+					public void run() {
+						for (int i = first; i < cellCount; i += THREADS) {
+							computeRow(i, firstBlocker, candidates);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while building the potentially visible set", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to build the potentially visible set", e.getCause());
+		}
+		for (int i = 0; i < cellCount; i++) {
+			for (int j = i + 1; j < cellCount; j++) {
+				if (isSet(bits, i, j)) {
+					set(bits, j, i);
+				}
+				else {
+					clear(bits, j, i);
+				}
+			}
+		}
+	}
+
+	private void computeRow(int i, int firstBlocker, long[] candidates) {
+		for (int j = i + 1; j < cellCount; j++) {
+			if (isSet(candidates, i, j)) {
+				int wall = findBlindingWall(i * 4, j * 4, firstBlocker);
+				if (wall >= 0) {
+					clear(bits, i, j);
+					blindedBy[i * cellCount + j] = wall;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The index of the first wall, from firstBlocker on, with a blocker proving the cells at a and b in
+	 * cellBoxes blind, -1 if there is none
+	 */
+	private int findBlindingWall(int a, int b, int firstBlocker) {
+		for (int k = firstBlocker; k < blockers.length; k += 4) {
+			if (!Double.isNaN(overlapBoxes[k]) && (overlaps(cellBoxes, a, overlapBoxes, k) || overlaps(cellBoxes, b, overlapBoxes, k))) {
+				continue; // A diagonal only blocks for points outside its wall
+			}
+			if (separates(blockers[k], blockers[k+1], blockers[k+2], blockers[k+3], cellBoxes, a, b)) {
+				return k / (BLOCKERS_PER_WALL * 4);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Indicates whether the blocker from (px,py) to (qx,qy) has every corner of the cell at a in cells strictly
+	 * on one side, every corner of the cell at b strictly on the other and is crossed within its length by all
+	 * sixteen lines between the corners.
+	 */
+	private static boolean separates(double px, double py, double qx, double qy, double[] cells, int a, int b) {
+		double dx = qx - px, dy = qy - py;
+		int sideA = side(dx, dy, px, py, cells, a);
+		if (sideA == 0) {
+			return false;
+		}
+		int sideB = side(dx, dy, px, py, cells, b);
+		if (sideB != -sideA) {
+			return false;
+		}
+		for (int m = 0; m < 4; m++) {
+			double ax = cells[a + ((m & 1) == 0 ? 0 : 2)], ay = cells[a + (m < 2 ? 1 : 3)];
+			for (int n = 0; n < 4; n++) {
+				double bx = cells[b + ((n & 1) == 0 ? 0 : 2)], by = cells[b + (n < 2 ? 1 : 3)];
+				double lx = bx - ax, ly = by - ay;
+				// Where along the blocker, from 0 at p to 1 at q, the line from a to b crosses it
+				double s = (lx*(ay - py) - ly*(ax - px)) / (lx*dy - ly*dx);
+				if (!(s > 0 && s < 1)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return 1 or -1 if every corner of the cell at c in cells lies strictly on that side of the line, 0 otherwise
+	 */
+	private static int side(double dx, double dy, double px, double py, double[] cells, int c) {
+		int side = 0;
+		for (int m = 0; m < 4; m++) {
+			double cx = cells[c + ((m & 1) == 0 ? 0 : 2)], cy = cells[c + (m < 2 ? 1 : 3)];
+			double cross = dx*(cy - py) - dy*(cx - px);
+			int cornerSide = cross > 0 ? 1 : cross < 0 ? -1 : 0;
+			if (cornerSide == 0 || (side != 0 && cornerSide != side)) {
+				return 0;
+			}
+			side = cornerSide;
+		}
+		return side;
+	}
+
+	private static boolean overlaps(double[] cells, int c, double[] boxes, int b) {
+		return cells[c] <= boxes[b+2] && boxes[b] <= cells[c+2] && cells[c+1] <= boxes[b+3] && boxes[b+1] <= cells[c+3];
+	}
+
+	private int cellFor(double x, double y) {
+		if (x < 0 || y < 0) {
+			return -1;
+		}
+		int column = (int) (x / CELL_SIZE);
+		int row = (int) (y / CELL_SIZE);
+		if (column >= columns || row >= rows) {
+			return -1;
+		}
+		return row * columns + column;
+	}
+
+	private boolean isSet(long[] matrix, int from, int to) {
+		return (matrix[from * wordsPerRow + (to >>> 6)] & (1L << to)) != 0;
+	}
+
+	private void set(long[] matrix, int from, int to) {
+		matrix[from * wordsPerRow + (to >>> 6)] |= 1L << to;
+	}
+
+	private void clear(long[] matrix, int from, int to) {
+		matrix[from * wordsPerRow + (to >>> 6)] &= ~(1L << to);
+	}
+}
@@ -0,0 +1,118 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import entity.DynamicEntity;
+
+/**
+ * Checks <code>LooseQuadtree.findNearest</code> against a brute force search over every entity and times
+ * both.  A headless game with a crowd of aliens is run and the tree is brought up to date every tick, so
+ * that entities are moved between nodes as they would be in play, then nearest neighbour queries are made
+ * from random points on and just off the screen.  The distances found must match, in order, the nearest
+ * distances found by the brute force search.  The report exits with a non zero status on any mismatch.
+ *
+ * Usage: QuadtreeReport [aliens] [ticks]
+ *
+ * @author Francis Stephens
+ */
+public class QuadtreeReport {
+	private static final int DEFAULT_ALIENS = 500;
+	private static final int DEFAULT_TICKS = 200;
+	private static final int QUERIES_PER_TICK = 200;
+	private static final int MAX_K = 16;
+	private static final int DEPTH = 4;
+	private static final long TICK_LENGTH = 16;
+	private static final long SEED = 1;
+	// Queries are made this far beyond the edges of the screen too, where entities are clamped onto the tree
+	private static final double MARGIN = 100;
+
+	public static void main(String[] argv) {
+		System.setProperty("java.awt.headless", "true");
+		int alienCount = argv.length > 0 ? Integer.parseInt(argv[0]) : DEFAULT_ALIENS;
+		int ticks = argv.length > 1 ? Integer.parseInt(argv[1]) : DEFAULT_TICKS;
+
+		Game game = new Game(SEED, alienCount);
+		game.initHeadless();
+		LooseQuadtree tree = new LooseQuadtree(DEPTH);
+		Random random = new Random(SEED);
+		List<DynamicEntity> entities = new ArrayList<DynamicEntity>();
+		List<DynamicEntity> found = new ArrayList<DynamicEntity>();
+		double[] bounds = new double[4];
+		double[] distances = new double[0];
+		long queries = 0, mismatches = 0, treeNanos = 0, bruteNanos = 0;
+		for (int tick = 0; tick < ticks; tick++) {
+			game.tick(TICK_LENGTH);
+			entities.clear();
+			entities.addAll(game.getPlayers());
+			entities.addAll(game.getAliens());
+			tree.beginUpdate();
+			tree.update(entities);
+			tree.endUpdate();
+			if (distances.length < entities.size()) {
+				distances = new double[entities.size()];
+			}
+			for (int q = 0; q < QUERIES_PER_TICK; q++) {
+				double x = random.nextDouble() * (Game.SCREEN_WIDTH + 2*MARGIN) - MARGIN;
+				double y = random.nextDouble() * (Game.SCREEN_HEIGHT + 2*MARGIN) - MARGIN;
+				int k = 1 + random.nextInt(MAX_K);
+
+				long start = System.nanoTime();
+				tree.findNearest(x, y, k, found);
+				treeNanos += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < entities.size(); i++) {
+					entities.get(i).getBounds(bounds);
+					distances[i] = distanceSquared(x, y, bounds);
+				}
+				Arrays.sort(distances, 0, entities.size());
+				bruteNanos += System.nanoTime() - start;
+
+				queries++;
+				if (!matches(found, Math.min(k, entities.size()), distances, x, y, bounds)) {
+					mismatches++;
+					if (mismatches <= 10) {
+						System.out.println(String.format("mismatch at tick %d: (%.1f,%.1f) k=%d found %d",
+								tick, x, y, k, found.size()));
+					}
+				}
+			}
+		}
+		System.out.println(String.format("%d entities, %d queries, %d mismatches  findNearest %.1fus vs brute force %.1fus",
+				entities.size(), queries, mismatches, treeNanos / 1000d / queries, bruteNanos / 1000d / queries));
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Indicates whether the entities found are the expected number, all different and at exactly the nearest
+	 * distances, in order.
+	 */
+	private static boolean matches(List<DynamicEntity> found, int expected, double[] distances, double x, double y, double[] bounds) {
+		if (found.size() != expected) {
+			return false;
+		}
+		for (int i = 0; i < expected; i++) {
+			found.get(i).getBounds(bounds);
+			if (distanceSquared(x, y, bounds) != distances[i]) {
+				return false;
+			}
+			for (int j = 0; j < i; j++) {
+				if (found.get(j) == found.get(i)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static double distanceSquared(double x, double y, double[] box) {
+		double dx = Math.max(0, Math.max(box[0] - x, x - box[2]));
+		double dy = Math.max(0, Math.max(box[1] - y, y - box[3]));
+		return dx*dx + dy*dy;
+	}
+}
@@ -0,0 +1,102 @@
+package game;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import profiling.FrameProfiler;
+import profiling.Phase;
+
+/**
+ * Draws the latest <code>WorldSnapshot</code> published by the simulation on a thread of its own.  The
+ * simulation never waits for a frame to be presented, and a snapshot published while a frame is being drawn
+ * simply replaces any snapshot not yet drawn.  When there is nothing new to draw this thread sleeps until
+ * the next snapshot is published.
+ *
+ * @author Francis Stephens
+ */
+public class RenderLoop implements Runnable {
+	private final BufferStrategy strategy;
+	private final FrameProfiler profiler;
+	private final FrameBudget budget;
+	private final AtomicReference<WorldSnapshot> latest;
+	private volatile Thread thread;
+	private volatile boolean running;
+
+	/**
+	 * @param strategy The buffer strategy of the canvas drawn to
+	 * @param budget The budget told how long each frame took to draw
+	 */
+	public RenderLoop(BufferStrategy strategy, FrameBudget budget) {
+		this.strategy = strategy;
+		this.budget = budget;
+		this.profiler = FrameProfiler.getInstance();
+		this.latest = new AtomicReference<WorldSnapshot>();
+	}
+
+	/**
+	 * Starts drawing on a new daemon thread.
+	 */
+	public void start() {
+		running = true;
+		thread = new Thread(this, "RenderLoop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops drawing once the frame in progress, if any, has been presented.
+	 */
+	public void stop() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Hands a new snapshot to be drawn.  This never blocks.
+	 *
+	 * @param snapshot The snapshot to draw next
+	 */
+	public void publish(WorldSnapshot snapshot) {
+		latest.set(snapshot);
+		Thread renderThread = thread;
+		if (renderThread != null) {
+			LockSupport.unpark(renderThread);
+		}
+	}
+
+	@Override
+	public void run() {
+		WorldSnapshot drawn = null;
+		while (running) {
+			WorldSnapshot snapshot = latest.get();
+			if (snapshot == null || snapshot == drawn) {
+				LockSupport.park(this);
+				continue;
+			}
+			long frameStart = System.nanoTime();
+			long renderStart = profiler.start(Phase.RENDER);
+			render(snapshot);
+			profiler.stop(Phase.RENDER, renderStart);
+			budget.recordRender(System.nanoTime() - frameStart);
+			drawn = snapshot;
+		}
+	}
+
+	private void render(WorldSnapshot snapshot) {
+		// The contents of the buffers can be lost at any time, in which case the frame is drawn again
+		do {
+			do {
+				Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+				g.setColor(Color.black);
+				g.fillRect(0,0,Game.SCREEN_WIDTH,Game.SCREEN_HEIGHT);
+				snapshot.draw(g);
+				profiler.draw(g);
+				g.dispose();
+			} while (strategy.contentsRestored());
+			strategy.show();
+		} while (strategy.contentsLost());
+	}
+}
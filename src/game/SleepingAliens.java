@@ -0,0 +1,123 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import entity.AlienEntity;
+import entity.DynamicEntity;
+import entity.ShotEntity;
+
+/**
+ * Holds the aliens which have been idle long enough to be put to sleep.  Sleeping aliens cost nothing
+ * each tick, they are neither updated nor collided with, and are only looked at when something happens
+ * near them.  A sleeping alien is woken when a player comes within range of it, when another alien moves
+ * into it or when a shot passes near it, and joins the game's active aliens on the same tick.
+ *
+ * Sleepers do not move, so they are kept in a <code>LooseQuadtree</code> which is only changed as aliens
+ * fall asleep and wake.  Aliens are woken in the order they are found, which depends only on where and
+ * when they fell asleep, so games being replayed wake the same aliens in the same order.
+ *
+ * @author Francis Stephens
+ */
+public class SleepingAliens {
+	private static final int TREE_DEPTH = 4;
+	// The tree holds each alien's rotated bounds, which may miss the unrotated box a shot is tested against
+	// by up to half the difference between the alien's width and height, well under this for any alien
+	private static final int REACH = 50;
+
+	private final LooseQuadtree tree;
+	private final List<AlienEntity> woken;
+	private final List<DynamicEntity> found;
+	private final double[] bounds;
+	private int count;
+
+	public SleepingAliens() {
+		tree = new LooseQuadtree(TREE_DEPTH);
+		woken = new ArrayList<AlienEntity>();
+		found = new ArrayList<DynamicEntity>();
+		bounds = new double[4];
+	}
+
+	/**
+	 * Puts alien to sleep.
+	 *
+	 * @param alien An alien which is awake
+	 */
+	public void add(AlienEntity alien) {
+		alien.sleep();
+		tree.add(alien);
+		count++;
+	}
+
+	/**
+	 * Forgets alien, which has been removed from the game.  Nothing is done if alien is not asleep.
+	 *
+	 * @param alien An alien removed from the game
+	 */
+	public void remove(AlienEntity alien) {
+		if (tree.remove(alien)) {
+			count--;
+		}
+	}
+
+	/**
+	 * @return The number of aliens asleep
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Wakes every sleeping alien whose bounding box overlaps the box given.
+	 *
+	 * @param minX The left of the box
+	 * @param minY The top of the box
+	 * @param maxX The right of the box
+	 * @param maxY The bottom of the box
+	 */
+	public void wakeWithin(double minX, double minY, double maxX, double maxY) {
+		if (count == 0) {
+			return;
+		}
+		tree.query(minX, minY, maxX, maxY, found);
+		for (DynamicEntity sleeper : found) {
+			wake((AlienEntity) sleeper);
+		}
+	}
+
+	/**
+	 * Wakes every sleeping alien which shot passes within margin of.
+	 *
+	 * @param shot A shot in the game
+	 * @param margin The distance around an alien within which the shot wakes it
+	 */
+	public void wakeAlong(ShotEntity shot, double margin) {
+		if (count == 0) {
+			return;
+		}
+		shot.getBounds(bounds);
+		tree.query(bounds[0] - margin - REACH, bounds[1] - margin - REACH, bounds[2] + margin + REACH, bounds[3] + margin + REACH, found);
+		for (DynamicEntity sleeper : found) {
+			if (shot.passesNear(sleeper, margin)) {
+				wake((AlienEntity) sleeper);
+			}
+		}
+	}
+
+	private void wake(AlienEntity alien) {
+		tree.remove(alien);
+		count--;
+		alien.wake();
+		woken.add(alien);
+	}
+
+	/**
+	 * Hands over the aliens woken since this was last called.
+	 *
+	 * @param into The list which receives the aliens woken
+	 */
+	public void takeWoken(List<AlienEntity> into) {
+		into.addAll(woken);
+		woken.clear();
+	}
+}
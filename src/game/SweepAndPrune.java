@@ -0,0 +1,150 @@
+package game;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import entity.DynamicEntity;
+
+/**
+ * A sort and sweep broad phase for finding pairs of DynamicEntities which may be colliding.
+ *
+ * Entities are kept sorted by the left edge of their bounding boxes.  Since entities move only a little
+ * between ticks the order is very nearly correct at the start of each tick and an insertion sort restores
+ * it in close to linear time.  Sweeping along x then only pairs up entities whose horizontal extents
+ * overlap, and those pairs are pruned again on y before being handed on to the narrow phase.
+ *
+ * @author Francis Stephens
+ */
+public class SweepAndPrune {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private DynamicEntity[] entities;
+	private double[] minX, maxX, minY, maxY;
+	private int count;
+	private final double[] bounds;
+
+	public SweepAndPrune() {
+		entities = new DynamicEntity[INITIAL_CAPACITY];
+		minX = new double[INITIAL_CAPACITY];
+		maxX = new double[INITIAL_CAPACITY];
+		minY = new double[INITIAL_CAPACITY];
+		maxY = new double[INITIAL_CAPACITY];
+		bounds = new double[4];
+	}
+
+	/**
+	 * Adds entity to the broad phase.  It will be sorted into place on the next update.
+	 *
+	 * @param entity The entity to add
+	 */
+	public void add(DynamicEntity entity) {
+		if (count == entities.length) {
+			grow();
+		}
+		entities[count] = entity;
+		minX[count] = Double.MAX_VALUE;
+		count++;
+	}
+
+	/**
+	 * Removes each of the entities provided from the broad phase.
+	 *
+	 * @param removed The entities to remove
+	 */
+	public void removeAll(Collection<? extends DynamicEntity> removed) {
+		if (removed.isEmpty()) {
+			return;
+		}
+		// Looked up once per entity held, so a list of removals must not be searched each time
+		Set<DynamicEntity> removing = Collections.newSetFromMap(new IdentityHashMap<DynamicEntity,Boolean>());
+		removing.addAll(removed);
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			if (!removing.contains(entities[i])) {
+				entities[kept] = entities[i];
+				minX[kept] = minX[i];
+				maxX[kept] = maxX[i];
+				minY[kept] = minY[i];
+				maxY[kept] = maxY[i];
+				kept++;
+			}
+		}
+		for (int i = kept; i < count; i++) {
+			entities[i] = null;
+		}
+		count = kept;
+	}
+
+	/**
+	 * Refreshes the bounding boxes of every entity and restores the sorted order.  This should
+	 * be called once per tick, after the entities have moved.
+	 */
+	public void update() {
+		for (int i = 0; i < count; i++) {
+			entities[i].getBounds(bounds);
+			minX[i] = bounds[0];
+			minY[i] = bounds[1];
+			maxX[i] = bounds[2];
+			maxY[i] = bounds[3];
+		}
+		// Insertion sort, cheap because the order rarely changes much between ticks
+		for (int i = 1; i < count; i++) {
+			DynamicEntity entity = entities[i];
+			double eMinX = minX[i], eMaxX = maxX[i], eMinY = minY[i], eMaxY = maxY[i];
+			int j = i - 1;
+			while (j >= 0 && minX[j] > eMinX) {
+				entities[j+1] = entities[j];
+				minX[j+1] = minX[j];
+				maxX[j+1] = maxX[j];
+				minY[j+1] = minY[j];
+				maxY[j+1] = maxY[j];
+				j--;
+			}
+			entities[j+1] = entity;
+			minX[j+1] = eMinX;
+			maxX[j+1] = eMaxX;
+			minY[j+1] = eMinY;
+			maxY[j+1] = eMaxY;
+		}
+	}
+
+	/**
+	 * Finds every pair of entities whose bounding boxes overlap.  The pairs are written into pairs, which is
+	 * cleared first, as consecutive elements so that pairs.get(i) and pairs.get(i+1) form a pair for every
+	 * even i.
+	 *
+	 * @param pairs The list which receives the candidate pairs
+	 */
+	public void findCandidatePairs(List<DynamicEntity> pairs) {
+		pairs.clear();
+		for (int i = 0; i < count; i++) {
+			double iMaxX = maxX[i];
+			for (int j = i + 1; j < count && minX[j] <= iMaxX; j++) {
+				if (minY[j] <= maxY[i] && minY[i] <= maxY[j]) {
+					pairs.add(entities[i]);
+					pairs.add(entities[j]);
+				}
+			}
+		}
+	}
+
+	private void grow() {
+		int capacity = entities.length * 2;
+		DynamicEntity[] newEntities = new DynamicEntity[capacity];
+		System.arraycopy(entities, 0, newEntities, 0, count);
+		entities = newEntities;
+		minX = copyOf(minX, capacity);
+		maxX = copyOf(maxX, capacity);
+		minY = copyOf(minY, capacity);
+		maxY = copyOf(maxY, capacity);
+	}
+
+	private double[] copyOf(double[] array, int capacity) {
+		double[] copy = new double[capacity];
+		System.arraycopy(array, 0, copy, 0, count);
+		return copy;
+	}
+}
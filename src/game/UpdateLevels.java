@@ -0,0 +1,63 @@
+package game;
+
+import java.util.List;
+
+import trigUtil.TrigUtil;
+import entity.DynamicEntity;
+import entity.Entity;
+
+/**
+ * Decides how often an entity is updated from how far it is from the nearest player.  Entities close to a
+ * player are updated every tick, those further away less often, making up the time they missed with a
+ * single longer update.  The whole map fits on the screen, so nearness to a player is what decides how
+ * closely an entity is being watched.
+ *
+ * Movement is swept against the walls however long the step, so a longer update cannot carry an entity
+ * through a wall.  Updates are spread across ticks by entity id, so that entities at the same level do not
+ * all update on the same tick.
+ *
+ * @author Francis Stephens
+ */
+public class UpdateLevels {
+	// Entities nearer than these to a player are at the near and middle levels, the rest are far
+	private static final double NEAR_RANGE = 300;
+	private static final double MIDDLE_RANGE = 600;
+	// The ticks between updates at the near, middle and far levels
+	private static final int NEAR_INTERVAL = 1;
+	private static final int MIDDLE_INTERVAL = 2;
+	private static final int FAR_INTERVAL = 4;
+
+	/**
+	 * Private constructor locks up class
+	 */
+	private UpdateLevels() {
+	}
+
+	/**
+	 * @param entity The entity to be updated
+	 * @param players The players in the game
+	 * @param coarse true to update entities beyond the near level half as often again
+	 * @return The number of ticks between updates of entity
+	 */
+	public static int intervalFor(Entity entity, List<? extends Entity> players, boolean coarse) {
+		double nearest = Double.MAX_VALUE;
+		for (Entity player : players) {
+			nearest = Math.min(nearest, TrigUtil.getDistanceSquared(player.getX(), player.getY(), entity.getX(), entity.getY()));
+		}
+		if (nearest < NEAR_RANGE*NEAR_RANGE) {
+			return NEAR_INTERVAL;
+		}
+		int interval = nearest < MIDDLE_RANGE*MIDDLE_RANGE ? MIDDLE_INTERVAL : FAR_INTERVAL;
+		return coarse ? interval * 2 : interval;
+	}
+
+	/**
+	 * @param entity The entity to be updated
+	 * @param tick The tick the game has reached
+	 * @param interval The number of ticks between updates of entity
+	 * @return true if entity should be updated on tick
+	 */
+	public static boolean isDue(DynamicEntity entity, int tick, int interval) {
+		return (tick + entity.getId()) % interval == 0;
+	}
+}
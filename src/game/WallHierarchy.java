@@ -0,0 +1,576 @@
+package game;
+
+import java.util.Arrays;
+import java.util.List;
+
+import trigUtil.SegmentBatch;
+import trigUtil.TrigUtil;
+import entity.Wall;
+
+/**
+ * A bounding volume hierarchy over the walls of an environment, answering every spatial question asked of
+ * the walls: which walls overlap a box, which lie along a ray, whether a line of sight is blocked, how far a
+ * ray travels before it meets a wall, which wall surface is nearest to a point and how much room a path has.
+ *
+ * The walls vary from a few pixels across to the width of the screen, so the tree is built top down with the
+ * surface area heuristic rather than by splitting space evenly.  In two dimensions the chance of a random line
+ * crossing a box grows with its perimeter, so each split is chosen to make the sum of the perimeters of the
+ * two halves, each weighted by the number of walls it holds, as small as possible.
+ *
+ * The nodes are held depth first in flat arrays, so that a node's first child directly follows it, and the
+ * walls' outline segments are held in the order of the leaves, so that each leaf's segments lie together.
+ * The hierarchy is built once and never changed; the environment builds a new one when its walls change.
+ * It keeps scratch space for its queries and so must only be used from the thread running the simulation.
+ *
+ * @author Francis Stephens
+ */
+public class WallHierarchy {
+	// A leaf may hold more than one wall when splitting it would not pay, but never more than this many
+	private static final int MAX_LEAF_WALLS = 4;
+	// The cost of visiting a node, relative to the cost of testing a single wall
+	private static final double TRAVERSAL_COST = 0.5;
+	// The segments making up the outline of each wall
+	private static final int SEGMENTS_PER_WALL = 4;
+	// Node boxes are widened by this much so that lines grazing the edge of a wall still reach it
+	private static final double SLACK = 1e-7;
+
+	private final List<Wall> walls;
+	// The bounds of each wall, by its index in walls, as {minX,minY,maxX,maxY}
+	private final double[] wallBounds;
+	// The index in walls of each wall, in the order of the leaves
+	private final int[] order;
+	// The outline segments {x1,y1,x2,y2} of each wall, in the order of the leaves
+	private final double[] leafSegments;
+	private final SegmentBatch segmentBatch;
+	private final double[] nodeBounds;
+	// For a leaf the position in order of its first wall, for any other node the index of its second child
+	private final int[] nodeFirst;
+	// For a leaf the number of walls it holds, for any other node 0
+	private final int[] nodeSize;
+	private int nodes;
+	private int[] stack;
+	// The distance at which the ray being cast enters each node on the stack
+	private double[] entries;
+	private int[] found;
+
+	/**
+	 * Builds the hierarchy over walls.
+	 *
+	 * @param walls The walls, which must not change while the hierarchy is in use
+	 * @param wallBounds The bounds of each wall, in the order of walls, as consecutive {minX,minY,maxX,maxY}
+	 * @param segments The outline segments of each wall, in the order of walls, as consecutive {x1,y1,x2,y2}
+	 */
+	public WallHierarchy(List<Wall> walls, double[] wallBounds, double[] segments) {
+		this.walls = walls;
+		this.wallBounds = wallBounds;
+		int count = walls.size();
+		order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		int maxNodes = Math.max(1, 2*count - 1);
+		nodeBounds = new double[maxNodes * 4];
+		nodeFirst = new int[maxNodes];
+		nodeSize = new int[maxNodes];
+		stack = new int[16];
+		entries = new double[16];
+		found = new int[count];
+		if (count > 0) {
+			build(0, count, new double[count + 1], new double[count + 1]);
+		}
+		leafSegments = new double[count * SEGMENTS_PER_WALL * 4];
+		for (int p = 0; p < count; p++) {
+			System.arraycopy(segments, order[p] * SEGMENTS_PER_WALL * 4, leafSegments, p * SEGMENTS_PER_WALL * 4, SEGMENTS_PER_WALL * 4);
+		}
+		segmentBatch = new SegmentBatch(leafSegments);
+	}
+
+	/**
+	 * Builds the subtree over the walls at positions start to end in order.
+	 *
+	 * @return The index of the subtree's root
+	 */
+	private int build(int start, int end, double[] leftCosts, double[] rightCosts) {
+		int node = nodes++;
+		int b = node * 4;
+		nodeBounds[b] = nodeBounds[b+1] = Double.MAX_VALUE;
+		nodeBounds[b+2] = nodeBounds[b+3] = -Double.MAX_VALUE;
+		for (int p = start; p < end; p++) {
+			include(nodeBounds, b, order[p]);
+		}
+		int count = end - start;
+		double perimeter = perimeter(nodeBounds, b);
+		int bestAxis = -1, bestSplit = -1;
+		double bestCost = Double.MAX_VALUE;
+		if (count > 1 && perimeter > 0) {
+			double[] box = new double[4];
+			for (int axis = 0; axis < 2; axis++) {
+				sortByCentre(start, end, axis);
+				// The perimeter of the walls before each split, and of those after it, each weighted by its count
+				reset(box);
+				for (int i = 1; i < count; i++) {
+					include(box, 0, order[start + i - 1]);
+					leftCosts[i] = perimeter(box, 0) * i;
+				}
+				reset(box);
+				for (int i = count - 1; i > 0; i--) {
+					include(box, 0, order[start + i]);
+					rightCosts[i] = perimeter(box, 0) * (count - i);
+				}
+				for (int i = 1; i < count; i++) {
+					double cost = TRAVERSAL_COST + (leftCosts[i] + rightCosts[i]) / perimeter;
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestAxis = axis;
+						bestSplit = i;
+					}
+				}
+			}
+		}
+		if (bestAxis < 0 || (bestCost >= count && count <= MAX_LEAF_WALLS)) {
+			// Leaves keep their walls in the order of the environment
+			Arrays.sort(order, start, end);
+			nodeFirst[node] = start;
+			nodeSize[node] = count;
+		}
+		else {
+			sortByCentre(start, end, bestAxis);
+			build(start, start + bestSplit, leftCosts, rightCosts);
+			nodeFirst[node] = build(start + bestSplit, end, leftCosts, rightCosts);
+			nodeSize[node] = 0;
+		}
+		nodeBounds[b] -= SLACK;
+		nodeBounds[b+1] -= SLACK;
+		nodeBounds[b+2] += SLACK;
+		nodeBounds[b+3] += SLACK;
+		return node;
+	}
+
+	/**
+	 * Sorts the walls at positions start to end in order by the centre of their bounds along axis, ties being
+	 * broken by their order in the environment so that the same walls always build the same tree.
+	 */
+	private void sortByCentre(int start, int end, int axis) {
+		for (int i = start + 1; i < end; i++) {
+			int wall = order[i];
+			double centre = centre(wall, axis);
+			int j = i - 1;
+			while (j >= start && (centre(order[j], axis) > centre || (centre(order[j], axis) == centre && order[j] > wall))) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = wall;
+		}
+	}
+
+	private double centre(int wall, int axis) {
+		return wallBounds[wall*4 + axis] + wallBounds[wall*4 + axis + 2];
+	}
+
+	private void include(double[] box, int b, int wall) {
+		int w = wall * 4;
+		box[b] = Math.min(box[b], wallBounds[w]);
+		box[b+1] = Math.min(box[b+1], wallBounds[w+1]);
+		box[b+2] = Math.max(box[b+2], wallBounds[w+2]);
+		box[b+3] = Math.max(box[b+3], wallBounds[w+3]);
+	}
+
+	private static void reset(double[] box) {
+		box[0] = box[1] = Double.MAX_VALUE;
+		box[2] = box[3] = -Double.MAX_VALUE;
+	}
+
+	private static double perimeter(double[] box, int b) {
+		return 2 * ((box[b+2] - box[b]) + (box[b+3] - box[b+1]));
+	}
+
+	/**
+	 * @return The number of walls in the hierarchy
+	 */
+	public int size() {
+		return walls.size();
+	}
+
+	/**
+	 * Finds every wall whose bounds overlap the box given.  Walls which only touch the box are included.
+	 *
+	 * @param minX The left of the box
+	 * @param minY The top of the box
+	 * @param maxX The right of the box
+	 * @param maxY The bottom of the box
+	 * @param overlapping The list which receives the walls, in the order of the environment, it is cleared first
+	 */
+	public void findOverlapping(double minX, double minY, double maxX, double maxY, List<Wall> overlapping) {
+		int foundCount = 0;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = 0;
+		}
+		while (top > 0) {
+			int node = stack[--top];
+			int b = node * 4;
+			if (nodeBounds[b] > maxX || nodeBounds[b+2] < minX || nodeBounds[b+1] > maxY || nodeBounds[b+3] < minY) {
+				continue;
+			}
+			if (nodeSize[node] > 0) {
+				for (int p = nodeFirst[node]; p < nodeFirst[node] + nodeSize[node]; p++) {
+					int w = order[p] * 4;
+					if (wallBounds[w] <= maxX && wallBounds[w+2] >= minX && wallBounds[w+1] <= maxY && wallBounds[w+3] >= minY) {
+						found[foundCount++] = order[p];
+					}
+				}
+			}
+			else {
+				top = pushChildren(node, top);
+			}
+		}
+		collect(foundCount, overlapping);
+	}
+
+	/**
+	 * Finds every wall whose bounds lie, at least in part, along the ray from (x,y) in the direction (dx,dy).
+	 *
+	 * @param x The x coord the ray starts from
+	 * @param y The y coord the ray starts from
+	 * @param dx The x component of the ray's direction
+	 * @param dy The y component of the ray's direction
+	 * @param alongRay The list which receives the walls, in the order of the environment, it is cleared first
+	 */
+	public void findAlongRay(double x, double y, double dx, double dy, List<Wall> alongRay) {
+		int foundCount = 0;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = 0;
+		}
+		while (top > 0) {
+			int node = stack[--top];
+			if (entry(nodeBounds, node, x, y, dx, dy, Double.POSITIVE_INFINITY, 0) < 0) {
+				continue;
+			}
+			if (nodeSize[node] > 0) {
+				for (int p = nodeFirst[node]; p < nodeFirst[node] + nodeSize[node]; p++) {
+					if (entry(wallBounds, order[p], x, y, dx, dy, Double.POSITIVE_INFINITY, SLACK) >= 0) {
+						found[foundCount++] = order[p];
+					}
+				}
+			}
+			else {
+				top = pushChildren(node, top);
+			}
+		}
+		collect(foundCount, alongRay);
+	}
+
+	/**
+	 * Indicates whether any wall blocks the line of sight from (x1,y1) to (x2,y2).  The segments of the walls
+	 * block sight exactly as they do in <code>SegmentBatch</code>.
+	 *
+	 * @param x1 The first x coord
+	 * @param y1 The first y coord
+	 * @param x2 The second x coord
+	 * @param y2 The second y coord
+	 * @return true if some wall crosses the line, false if the line of sight is clear
+	 */
+	public boolean isBlocked(double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1, dy = y2 - y1;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = 0;
+		}
+		while (top > 0) {
+			int node = stack[--top];
+			if (entry(nodeBounds, node, x1, y1, dx, dy, 1, 0) < 0) {
+				continue;
+			}
+			if (nodeSize[node] > 0) {
+				int first = nodeFirst[node] * SEGMENTS_PER_WALL;
+				if (segmentBatch.isBlocked(x1, y1, x2, y2, first, first + nodeSize[node] * SEGMENTS_PER_WALL)) {
+					return true;
+				}
+			}
+			else {
+				top = pushChildren(node, top);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tests the lines of sight from a single viewer to many targets.
+	 *
+	 * @param viewerX The x coord of the viewer
+	 * @param viewerY The y coord of the viewer
+	 * @param targets The targets as {x0,y0,x1,y1...}
+	 * @param targetCount The number of targets to test
+	 * @param blocked Receives, for each target, whether its line of sight from the viewer is blocked
+	 */
+	public void findBlocked(double viewerX, double viewerY, double[] targets, int targetCount, boolean[] blocked) {
+		for (int t = 0; t < targetCount; t++) {
+			blocked[t] = isBlocked(viewerX, viewerY, targets[t*2], targets[t*2+1]);
+		}
+	}
+
+	/**
+	 * Finds how far the ray from (x,y) in the direction (dx,dy) travels before it meets the outline of a wall.
+	 * Nodes are visited nearest first and any node further away than the nearest wall already met is skipped.
+	 *
+	 * @param x The x coord the ray starts from
+	 * @param y The y coord the ray starts from
+	 * @param dx The x component of the ray's direction, a unit vector
+	 * @param dy The y component of the ray's direction, a unit vector
+	 * @param maxDistance The furthest the ray reaches
+	 * @return The distance to the nearest wall met, or maxDistance if no wall is met
+	 */
+	public double castRay(double x, double y, double dx, double dy, double maxDistance) {
+		double nearest = maxDistance;
+		double inverseX = 1 / dx, inverseY = 1 / dy;
+		int top = 0;
+		if (nodes > 0 && (entries[0] = entry(0, x, y, dx, dy, inverseX, inverseY, nearest)) >= 0) {
+			stack[top++] = 0;
+		}
+		while (top > 0) {
+			int node = stack[--top];
+			// The node may have been pushed before a nearer wall was met
+			if (entries[top] > nearest) {
+				continue;
+			}
+			if (nodeSize[node] > 0) {
+				int end = (nodeFirst[node] + nodeSize[node]) * SEGMENTS_PER_WALL * 4;
+				for (int s = nodeFirst[node] * SEGMENTS_PER_WALL * 4; s < end; s += 4) {
+					double ax = leafSegments[s], ay = leafSegments[s+1];
+					double ex = leafSegments[s+2] - ax, ey = leafSegments[s+3] - ay;
+					double denominator = dx*ey - dy*ex;
+					if (denominator == 0) {
+						continue; // Parallel to the ray
+					}
+					double ox = ax - x, oy = ay - y;
+					double t = (ox*ey - oy*ex) / denominator;
+					double u = (ox*dy - oy*dx) / denominator;
+					if (t >= 0 && t < nearest && u >= 0 && u <= 1) {
+						nearest = t;
+					}
+				}
+			}
+			else {
+				// The nearer child is pushed last so that it is visited first
+				int first = node + 1, second = nodeFirst[node];
+				double firstEntry = entry(first, x, y, dx, dy, inverseX, inverseY, nearest);
+				double secondEntry = entry(second, x, y, dx, dy, inverseX, inverseY, nearest);
+				top = ensureStack(top);
+				if (secondEntry >= 0 && firstEntry >= 0 && secondEntry < firstEntry) {
+					top = push(top, first, firstEntry);
+					top = push(top, second, secondEntry);
+				}
+				else {
+					if (secondEntry >= 0) {
+						top = push(top, second, secondEntry);
+					}
+					if (firstEntry >= 0) {
+						top = push(top, first, firstEntry);
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+
+	private int push(int top, int node, double entry) {
+		stack[top] = node;
+		entries[top] = entry;
+		return top + 1;
+	}
+
+	/**
+	 * As entry, for a node and with the inverse of the ray's direction worked out beforehand.
+	 */
+	private double entry(int node, double x, double y, double dx, double dy, double inverseX, double inverseY, double limit) {
+		int b = node * 4;
+		double near = 0, far = limit;
+		if (dx == 0) {
+			if (x < nodeBounds[b] || x > nodeBounds[b+2]) {
+				return -1;
+			}
+		}
+		else {
+			double t1 = (nodeBounds[b] - x) * inverseX, t2 = (nodeBounds[b+2] - x) * inverseX;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		if (dy == 0) {
+			if (y < nodeBounds[b+1] || y > nodeBounds[b+3]) {
+				return -1;
+			}
+		}
+		else {
+			double t1 = (nodeBounds[b+1] - y) * inverseY, t2 = (nodeBounds[b+3] - y) * inverseY;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		return near <= far ? near : -1;
+	}
+
+	/**
+	 * Finds the wall whose outline passes nearest to (x,y).  Nodes are visited nearest first and any node whose
+	 * box lies further away than the nearest surface already found is skipped.
+	 *
+	 * @param x The x coord
+	 * @param y The y coord
+	 * @param nearestPoint Receives the nearest point on the wall's outline as {x,y}
+	 * @return The nearest wall, or null if there are no walls
+	 */
+	public Wall findNearestSurface(double x, double y, double[] nearestPoint) {
+		int nearestWall = -1;
+		double nearest = Double.MAX_VALUE;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = 0;
+		}
+		while (top > 0) {
+			int node = stack[--top];
+			if (distanceSquared(nodeBounds, node, x, y) > nearest) {
+				continue;
+			}
+			if (nodeSize[node] > 0) {
+				for (int p = nodeFirst[node]; p < nodeFirst[node] + nodeSize[node]; p++) {
+					double[] point = walls.get(order[p]).nearestSurfacePoint(x, y);
+					if (point == null) {
+						continue;
+					}
+					double distance = (point[0]-x)*(point[0]-x) + (point[1]-y)*(point[1]-y);
+					// Of walls equally near the first in the environment is chosen, however the tree was built
+					if (distance < nearest || (distance == nearest && order[p] < nearestWall)) {
+						nearest = distance;
+						nearestWall = order[p];
+						nearestPoint[0] = point[0];
+						nearestPoint[1] = point[1];
+					}
+				}
+			}
+			else {
+				int first = node + 1, second = nodeFirst[node];
+				top = ensureStack(top);
+				if (distanceSquared(nodeBounds, second, x, y) < distanceSquared(nodeBounds, first, x, y)) {
+					stack[top++] = first;
+					stack[top++] = second;
+				}
+				else {
+					stack[top++] = second;
+					stack[top++] = first;
+				}
+			}
+		}
+		return nearestWall < 0 ? null : walls.get(nearestWall);
+	}
+
+	/**
+	 * Finds how close the segment from (x1,y1) to (x2,y2) comes to the outline of any wall, looking no further
+	 * than limit.  Any node whose box lies further from the segment's box than the nearest outline already found
+	 * is skipped.
+	 *
+	 * @param x1 The first x coord of the segment
+	 * @param y1 The first y coord of the segment
+	 * @param x2 The second x coord of the segment
+	 * @param y2 The second y coord of the segment
+	 * @param limit The furthest distance of interest
+	 * @return The distance to the nearest wall outline, or limit if no outline is nearer
+	 */
+	public double findClearance(double x1, double y1, double x2, double y2, double limit) {
+		double minX = Math.min(x1, x2), minY = Math.min(y1, y2), maxX = Math.max(x1, x2), maxY = Math.max(y1, y2);
+		double clearance = limit;
+		int top = 0;
+		if (nodes > 0) {
+			stack[top++] = 0;
+		}
+		while (top > 0) {
+			int node = stack[--top];
+			if (boxDistanceSquared(nodeBounds, node, minX, minY, maxX, maxY) >= clearance*clearance) {
+				continue;
+			}
+			if (nodeSize[node] > 0) {
+				for (int p = nodeFirst[node]; p < nodeFirst[node] + nodeSize[node]; p++) {
+					if (boxDistanceSquared(wallBounds, order[p], minX, minY, maxX, maxY) >= clearance*clearance) {
+						continue;
+					}
+					for (int s = p * SEGMENTS_PER_WALL * 4; s < (p + 1) * SEGMENTS_PER_WALL * 4; s += 4) {
+						clearance = Math.min(clearance, TrigUtil.getSegmentDistance(x1, y1, x2, y2,
+								leafSegments[s], leafSegments[s+1], leafSegments[s+2], leafSegments[s+3]));
+					}
+				}
+			}
+			else {
+				top = pushChildren(node, top);
+			}
+		}
+		return clearance;
+	}
+
+	private int pushChildren(int node, int top) {
+		top = ensureStack(top);
+		stack[top++] = nodeFirst[node];
+		stack[top++] = node + 1;
+		return top;
+	}
+
+	private int ensureStack(int top) {
+		if (top + 2 > stack.length) {
+			stack = Arrays.copyOf(stack, stack.length * 2);
+			entries = Arrays.copyOf(entries, entries.length * 2);
+		}
+		return top;
+	}
+
+	private void collect(int foundCount, List<Wall> into) {
+		into.clear();
+		Arrays.sort(found, 0, foundCount);
+		for (int i = 0; i < foundCount; i++) {
+			into.add(walls.get(found[i]));
+		}
+	}
+
+	/**
+	 * Finds where the ray from (x,y) in the direction (dx,dy) enters box i of boxes, widened by slack, looking no
+	 * further than limit.
+	 *
+	 * @return The distance along the ray, in multiples of (dx,dy), at which it enters the box, or -1 if it misses it
+	 */
+	private static double entry(double[] boxes, int i, double x, double y, double dx, double dy, double limit, double slack) {
+		int b = i * 4;
+		double minX = boxes[b] - slack, minY = boxes[b+1] - slack, maxX = boxes[b+2] + slack, maxY = boxes[b+3] + slack;
+		double near = 0, far = limit;
+		if (dx == 0) {
+			if (x < minX || x > maxX) {
+				return -1;
+			}
+		}
+		else {
+			double t1 = (minX - x) / dx, t2 = (maxX - x) / dx;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		if (dy == 0) {
+			if (y < minY || y > maxY) {
+				return -1;
+			}
+		}
+		else {
+			double t1 = (minY - y) / dy, t2 = (maxY - y) / dy;
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		return near <= far ? near : -1;
+	}
+
+	private static double distanceSquared(double[] boxes, int i, double x, double y) {
+		int b = i * 4;
+		double dx = Math.max(0, Math.max(boxes[b] - x, x - boxes[b+2]));
+		double dy = Math.max(0, Math.max(boxes[b+1] - y, y - boxes[b+3]));
+		return dx*dx + dy*dy;
+	}
+
+	private static double boxDistanceSquared(double[] boxes, int i, double minX, double minY, double maxX, double maxY) {
+		int b = i * 4;
+		double dx = Math.max(0, Math.max(boxes[b] - maxX, minX - boxes[b+2]));
+		double dy = Math.max(0, Math.max(boxes[b+1] - maxY, minY - boxes[b+3]));
+		return dx*dx + dy*dy;
+	}
+}
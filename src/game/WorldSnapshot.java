@@ -0,0 +1,216 @@
+package game;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.util.List;
+
+import entity.Displayable;
+import entity.DynamicEntity;
+import entity.PlayerEntity;
+import entity.ShotEntity;
+import entity.Wall;
+import entity.ai.navigation.Flashlight;
+import entity.ai.navigation.Navigator;
+
+/**
+ * An immutable picture of everything drawn on the screen at the end of a single tick.  The simulation
+ * captures one of these every tick and hands it to the <code>RenderLoop</code>, which can draw it at its
+ * leisure without ever seeing the world half way through an update.
+ *
+ * Every image is drawn rotated about its centre, so walls, aliens and players are all held the same way.
+ * The walls and the navigation map only change with the environment's revision, so their parts of the
+ * snapshot are shared with the previous snapshot until they do.  The navigation map and shot tracers are
+ * left undrawn while the game's <code>FrameBudget</code> is shedding them.
+ *
+ * @author Francis Stephens
+ */
+public class WorldSnapshot implements Displayable {
+	// The values held for each image, {x,y,halfWidth,halfHeight,cos,sin}
+	private static final int IMAGE_STRIDE = 6;
+
+	private final int revision;
+	private final Image[] wallImages;
+	private final double[] walls;
+	private final double[] navigationLines;
+	private final Image[] images;
+	private final double[] transforms;
+	private final Image[] impactImages;
+	private final double[] tracers; // {x1,y1,x2,y2} per shot
+	private final double[] steps; // {x,y,stepX,stepY,destX,destY} per navigating player
+	private final double[][] lights; // The flashlight polygon of each player, {x0,y0,x1,y1...}
+	private final boolean showNavigation;
+	private final boolean showTracers;
+
+	private WorldSnapshot(int revision, Image[] wallImages, double[] walls, double[] navigationLines, Image[] images,
+			double[] transforms, Image[] impactImages, double[] tracers, double[] steps, double[][] lights,
+			boolean showNavigation, boolean showTracers) {
+		this.revision = revision;
+		this.wallImages = wallImages;
+		this.walls = walls;
+		this.navigationLines = navigationLines;
+		this.images = images;
+		this.transforms = transforms;
+		this.impactImages = impactImages;
+		this.tracers = tracers;
+		this.steps = steps;
+		this.lights = lights;
+		this.showNavigation = showNavigation;
+		this.showTracers = showTracers;
+	}
+
+	/**
+	 * Captures game as it stands.  This must be called from the thread which runs the simulation.
+	 *
+	 * @param game The game to capture
+	 * @param previous The last snapshot captured from game, or null if there is none
+	 * @return A snapshot of game
+	 */
+	public static WorldSnapshot capture(Game game, WorldSnapshot previous) {
+		Environment environment = game.getEnvironment();
+		Image[] wallImages;
+		double[] walls;
+		double[] navigationLines;
+		if (previous != null && previous.revision == environment.getRevision()) {
+			wallImages = previous.wallImages;
+			walls = previous.walls;
+			navigationLines = previous.navigationLines;
+		}
+		else {
+			List<Wall> allWalls = environment.getWalls();
+			wallImages = new Image[allWalls.size()];
+			walls = new double[allWalls.size() * IMAGE_STRIDE];
+			for (int i = 0; i < allWalls.size(); i++) {
+				Wall wall = allWalls.get(i);
+				wallImages[i] = wall.getImage();
+				putTransform(walls, i, wall.getX(), wall.getY(), wall.getWidth(), wall.getHeight(), -wall.getDirectionY(), wall.getDirectionX());
+			}
+			navigationLines = environment.getNavigationMap().getConnectionLines();
+		}
+
+		List<? extends DynamicEntity> aliens = game.getAliens();
+		List<PlayerEntity> players = game.getPlayers();
+		Image[] images = new Image[aliens.size() + players.size()];
+		double[] transforms = new double[images.length * IMAGE_STRIDE];
+		int i = 0;
+		for (DynamicEntity alien : aliens) {
+			i = putImage(images, transforms, i, alien);
+		}
+		for (DynamicEntity player : players) {
+			i = putImage(images, transforms, i, player);
+		}
+
+		List<ShotEntity> shots = game.getShots();
+		Image[] impactImages = new Image[shots.size()];
+		double[] tracers = new double[shots.size() * 4];
+		for (int s = 0; s < shots.size(); s++) {
+			ShotEntity shot = shots.get(s);
+			double[] impact = shot.getImpactPoint();
+			impactImages[s] = shot.getSprite().getImage();
+			tracers[s*4] = shot.getX();
+			tracers[s*4+1] = shot.getY();
+			tracers[s*4+2] = impact[0];
+			tracers[s*4+3] = impact[1];
+		}
+
+		double[] steps = new double[players.size() * 6];
+		double[][] lights = new double[players.size()][];
+		int navigating = 0;
+		for (int p = 0; p < players.size(); p++) {
+			PlayerEntity player = players.get(p);
+			Navigator navigator = player.getNavigator();
+			if (navigator != null) {
+				double[] destination = navigator.getUltimateDestination();
+				double[] step = navigator.hasMoreSteps() ? navigator.currentStep() : null;
+				steps[navigating*6] = player.getX();
+				steps[navigating*6+1] = player.getY();
+				steps[navigating*6+2] = step == null ? Double.NaN : step[0];
+				steps[navigating*6+3] = step == null ? Double.NaN : step[1];
+				steps[navigating*6+4] = destination[0];
+				steps[navigating*6+5] = destination[1];
+				navigating++;
+			}
+			Flashlight flashlight = player.getFlashlight();
+			flashlight.update();
+			double[] light = new double[flashlight.getVertexCount() * 2];
+			System.arraycopy(flashlight.getPolygon(), 0, light, 0, light.length);
+			lights[p] = light;
+		}
+		double[] navigatingSteps = new double[navigating * 6];
+		System.arraycopy(steps, 0, navigatingSteps, 0, navigatingSteps.length);
+
+		FrameBudget budget = game.getFrameBudget();
+		return new WorldSnapshot(environment.getRevision(), wallImages, walls, navigationLines, images, transforms,
+				impactImages, tracers, navigatingSteps, lights,
+				!budget.isShed(OptionalWork.NAVIGATION_OVERLAY), !budget.isShed(OptionalWork.SHOT_TRACERS));
+	}
+
+	private static int putImage(Image[] images, double[] transforms, int i, DynamicEntity entity) {
+		images[i] = entity.getSprite().getImage();
+		putTransform(transforms, i, entity.getX(), entity.getY(), entity.getWidth(), entity.getHeight(), -entity.getDirectionY(), entity.getDirectionX());
+		return i + 1;
+	}
+
+	private static void putTransform(double[] transforms, int i, double x, double y, int width, int height, double cos, double sin) {
+		int t = i * IMAGE_STRIDE;
+		transforms[t] = x;
+		transforms[t+1] = y;
+		// Halved as ints, exactly as the entities themselves draw
+		transforms[t+2] = width/2;
+		transforms[t+3] = height/2;
+		transforms[t+4] = cos;
+		transforms[t+5] = sin;
+	}
+
+	@Override
+	public void draw(Graphics2D g) {
+		drawImages(g, wallImages, walls);
+		if (showNavigation) {
+			g.setColor(Color.DARK_GRAY);
+			for (int l = 0; l < navigationLines.length; l += 4) {
+				g.drawLine((int)navigationLines[l], (int)navigationLines[l+1], (int)navigationLines[l+2], (int)navigationLines[l+3]);
+			}
+		}
+		drawImages(g, images, transforms);
+		g.setColor(Color.magenta);
+		for (int s = 0; s < impactImages.length; s++) {
+			if (showTracers) {
+				g.drawLine((int)tracers[s*4], (int)tracers[s*4+1], (int)tracers[s*4+2], (int)tracers[s*4+3]);
+			}
+			g.drawImage(impactImages[s], (int)tracers[s*4+2], (int)tracers[s*4+3], null);
+		}
+		g.setColor(Color.red);
+		for (int s = 0; s < steps.length; s += 6) {
+			g.drawString("X", (int)steps[s+4], (int)steps[s+5]);
+			if (!Double.isNaN(steps[s+2])) {
+				g.drawLine((int)steps[s], (int)steps[s+1], (int)steps[s+2], (int)steps[s+3]);
+			}
+		}
+		g.setColor(Flashlight.LIGHT);
+		Path2D.Double path = new Path2D.Double();
+		for (double[] light : lights) {
+			if (light.length == 0) {
+				continue;
+			}
+			path.reset();
+			path.moveTo(light[0], light[1]);
+			for (int v = 2; v < light.length; v += 2) {
+				path.lineTo(light[v], light[v+1]);
+			}
+			path.closePath();
+			g.fill(path);
+		}
+	}
+
+	private static void drawImages(Graphics2D g, Image[] images, double[] transforms) {
+		for (int i = 0; i < images.length; i++) {
+			int t = i * IMAGE_STRIDE;
+			double x = transforms[t], y = transforms[t+1];
+			AffineTransform xform = AffineTransform.getRotateInstance(transforms[t+4], transforms[t+5], x + transforms[t+2], y + transforms[t+3]);
+			xform.translate(x, y);
+			g.drawImage(images[i], xform, null);
+		}
+	}
+}
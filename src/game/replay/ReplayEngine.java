@@ -0,0 +1,78 @@
+package game.replay;
+
+import java.io.IOException;
+
+import profiling.FrameProfiler;
+import entity.PlayerEntity;
+import game.Game;
+
+/**
+ * Plays a recorded session back without a window, as fast as the simulation will run.  Because the game
+ * is rebuilt from the recorded seed and alien count and fed exactly the recorded ticks of input, the replay performs exactly
+ * the same work as the original session, which makes it a repeatable benchmark for a stutter seen in play.
+ * 
+ * Run with the log file as the only argument.  Adding <code>-Dprofile=true</code> reports the per-phase
+ * breakdown of every replayed tick.
+ * 
+ * @author Francis Stephens
+ */
+public class ReplayEngine {
+	private final ReplayReader reader;
+	private final Game game;
+	private int ticks;
+	
+	public ReplayEngine(ReplayReader reader) {
+		this.reader = reader;
+		this.game = new Game(reader.getSeed(), reader.getAlienCount());
+		game.initHeadless();
+	}
+	
+	/**
+	 * Plays every remaining tick of the log.
+	 * 
+	 * @return The game as it stands at the end of the log
+	 * @throws IOException If the log cannot be read
+	 */
+	public Game run() throws IOException {
+		FrameProfiler profiler = FrameProfiler.getInstance();
+		PlayerEntity player = game.getPlayer();
+		while (reader.next()) {
+			long frameStart = System.nanoTime();
+			player.applyInput(reader.getInput());
+			game.tick(reader.getDelta());
+			profiler.endFrame(frameStart);
+			ticks++;
+		}
+		return game;
+	}
+	
+	public int getTicks() {
+		return ticks;
+	}
+	
+	public static void main(String[] argv) throws IOException {
+		if (argv.length != 1) {
+			System.err.println("Usage: ReplayEngine <replay log>");
+			System.exit(1);
+		}
+		System.setProperty("java.awt.headless", "true");
+		ReplayReader reader = new ReplayReader(argv[0]);
+		try {
+			ReplayEngine engine = new ReplayEngine(reader);
+			long start = System.nanoTime();
+			Game game = engine.run();
+			long elapsed = System.nanoTime() - start;
+			System.out.println(String.format("Replayed %d ticks (%dms of game time) in %.1fms",
+					engine.getTicks(), game.getTime(), elapsed / 1000000d));
+			System.out.println(String.format("Player finished at (%.3f,%.3f) facing %.5f",
+					game.getPlayer().getX(), game.getPlayer().getY(), game.getPlayer().getRotation()));
+			FrameProfiler profiler = FrameProfiler.getInstance();
+			if (profiler.isEnabled()) {
+				System.out.print(profiler.toJson());
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+}
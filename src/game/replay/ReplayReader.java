@@ -0,0 +1,119 @@
+package game.replay;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import trigUtil.TrigUtil;
+import entity.PlayerInput;
+
+/**
+ * Reads back, tick by tick, a session log written by a <code>ReplayRecorder</code>.
+ * 
+ * @author Francis Stephens
+ */
+public class ReplayReader {
+	private final DataInputStream in;
+	private final long seed;
+	private final int alienCount;
+	private long delta;
+	private PlayerInput input;
+	
+	/**
+	 * Opens the log in fileName and reads its header.  The trigonometry of fast math mode gives different
+	 * results, so a log can only be read in the mode it was recorded in.
+	 * 
+	 * @param fileName The file holding the recorded session
+	 * @throws IOException If the file cannot be read, is not a session log or was recorded in the other math mode
+	 */
+	public ReplayReader(String fileName) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+		if (in.readInt() != ReplayRecorder.MAGIC) {
+			in.close();
+			throw new IOException(fileName + " is not a replay log");
+		}
+		int version = in.readUnsignedByte();
+		if (version != ReplayRecorder.VERSION) {
+			in.close();
+			throw new IOException("Unsupported replay log version " + version);
+		}
+		seed = in.readLong();
+		alienCount = in.readInt();
+		boolean fastMath = (in.readUnsignedByte() & ReplayRecorder.FAST_MATH_FLAG) != 0;
+		if (fastMath != TrigUtil.FAST_MATH) {
+			in.close();
+			throw new IOException(fileName + " was recorded with fastmath=" + fastMath
+					+ ", replay it with -Dfastmath=" + fastMath);
+		}
+	}
+	
+	/**
+	 * @return The seed of the recorded game
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * @return The number of aliens the recorded game spawned
+	 */
+	public int getAlienCount() {
+		return alienCount;
+	}
+	
+	/**
+	 * Reads the next tick of the log.
+	 * 
+	 * @return true if a tick was read, false if the end of the log has been reached
+	 * @throws IOException If the log cannot be read
+	 */
+	public boolean next() throws IOException {
+		int first;
+		try {
+			first = in.readUnsignedByte();
+		} catch (EOFException e) {
+			return false;
+		}
+		delta = readVarLong(first);
+		int flags = in.readUnsignedByte();
+		if ((flags & ReplayRecorder.DESTINATION_FLAG) != 0) {
+			input = new PlayerInput(flags, in.readShort(), in.readShort());
+		}
+		else {
+			input = new PlayerInput(flags);
+		}
+		return true;
+	}
+	
+	/**
+	 * @return The length, in millis, of the last tick read
+	 */
+	public long getDelta() {
+		return delta;
+	}
+	
+	/**
+	 * @return The player's input for the last tick read
+	 */
+	public PlayerInput getInput() {
+		return input;
+	}
+	
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	private long readVarLong(int first) throws IOException {
+		long value = first & 0x7F;
+		int shift = 7;
+		int b = first;
+		while ((b & 0x80) != 0) {
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,83 @@
+package game.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import trigUtil.TrigUtil;
+import entity.PlayerInput;
+
+/**
+ * Records a game session as a compact binary log which can be played back by the <code>ReplayEngine</code>.
+ * 
+ * The log starts with a header holding the game's random seed, the number of aliens it spawned and whether
+ * it ran in fast math mode, followed by one record per tick.  Each tick
+ * is the tick's length in millis as a variable length integer (a single byte for any tick shorter than 128ms),
+ * a byte holding the keys pressed and, only on the ticks where the player was given a new destination,
+ * the destination's coordinates.  A typical tick takes two bytes.
+ * 
+ * @author Francis Stephens
+ */
+public class ReplayRecorder {
+	static final int MAGIC = 0x32445250; // "2DRP"
+	static final int VERSION = 3;
+	static final int DESTINATION_FLAG = 1 << 7;
+	static final int FAST_MATH_FLAG = 1;
+	
+	private final DataOutputStream out;
+	
+	/**
+	 * Creates a recorder writing to fileName.
+	 * 
+	 * @param fileName The file to record the session to
+	 * @param seed The seed of the game being recorded
+	 * @param alienCount The number of aliens the game spawned
+	 * @throws IOException If the file cannot be written
+	 */
+	public ReplayRecorder(String fileName, long seed, int alienCount) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeLong(seed);
+		out.writeInt(alienCount);
+		out.writeByte(TrigUtil.FAST_MATH ? FAST_MATH_FLAG : 0);
+	}
+	
+	/**
+	 * Records a single tick.
+	 * 
+	 * @param delta The length of the tick in millis
+	 * @param input The input applied to the player at the start of the tick
+	 * @throws IOException If the tick cannot be written
+	 */
+	public synchronized void record(long delta, PlayerInput input) throws IOException {
+		writeVarLong(delta);
+		int flags = input.getKeys();
+		if (input.hasDestination()) {
+			out.writeByte(flags | DESTINATION_FLAG);
+			out.writeShort(input.getDestX());
+			out.writeShort(input.getDestY());
+		}
+		else {
+			out.writeByte(flags);
+		}
+	}
+	
+	/**
+	 * Flushes and closes the log.
+	 * 
+	 * @throws IOException If the log cannot be closed
+	 */
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+	
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+}
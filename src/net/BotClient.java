@@ -0,0 +1,66 @@
+package net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Random;
+
+import entity.PlayerInput;
+
+/**
+ * A client which plays by itself, holding down a random combination of keys for a random number of ticks
+ * before choosing another.  The bot predicts its own movement as a real client would.  Used to put a server
+ * under load.
+ * 
+ * @author Francis Stephens
+ */
+public class BotClient {
+	private static final int MIN_HOLD_TICKS = 10;
+	private static final int MAX_EXTRA_HOLD_TICKS = 50;
+	
+	private final GameClient client;
+	private final Random random;
+	private PredictedPlayer predicted;
+	private int keys;
+	private int ticksUntilChange;
+	
+	public BotClient(SocketAddress server, long seed) throws IOException {
+		client = new GameClient(server);
+		random = new Random(seed);
+	}
+	
+	/**
+	 * Plays a single tick: receives whatever the server has sent and sends the next input.
+	 * 
+	 * @throws IOException If the server cannot be reached
+	 */
+	public void step() throws IOException {
+		boolean newSnapshot = client.poll();
+		if (!client.isWelcomed()) {
+			client.sayHello();
+			return;
+		}
+		if (predicted == null) {
+			predicted = new PredictedPlayer(client.getSeed());
+		}
+		if (newSnapshot) {
+			predicted.reconcile(client.getLatestSnapshot(), client.getPlayerId(), client.getLastProcessedInputSeq());
+		}
+		if (--ticksUntilChange <= 0) {
+			keys = random.nextInt(PlayerInput.ALL_KEYS + 1);
+			ticksUntilChange = MIN_HOLD_TICKS + random.nextInt(MAX_EXTRA_HOLD_TICKS);
+		}
+		PlayerInput input = new PlayerInput(keys);
+		predicted.predict(client.sendInput(input), input);
+	}
+	
+	public GameClient getClient() {
+		return client;
+	}
+	
+	/**
+	 * @return The bot's predicted player, or null if it has not yet been welcomed
+	 */
+	public PredictedPlayer getPredictedPlayer() {
+		return predicted;
+	}
+}
@@ -0,0 +1,123 @@
+package net;
+
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+
+import entity.PlayerEntity;
+import entity.PlayerInput;
+
+/**
+ * The server's view of a single connected client: its player, the inputs it has sent which are waiting
+ * to be applied, the entities it is interested in and the snapshots recently sent to it.
+ * 
+ * @author Francis Stephens
+ */
+class ClientConnection {
+	// Inputs beyond this backlog are dropped so that a client running fast cannot build up latency
+	private static final int MAX_QUEUED_INPUTS = 8;
+	
+	final SocketAddress address;
+	final PlayerEntity player;
+	final InterestSet interest;
+	private final Snapshot[] history;
+	private final ArrayDeque<QueuedInput> inputs;
+	private int acknowledgedTick = -1;
+	private int lastQueuedSeq;
+	private int lastProcessedSeq;
+	private PlayerInput lastInput = PlayerInput.NONE;
+	long lastHeard;
+	long bytesSent;
+	
+	ClientConnection(SocketAddress address, PlayerEntity player) {
+		this.address = address;
+		this.player = player;
+		interest = new InterestSet(player);
+		history = new Snapshot[Protocol.SNAPSHOT_HISTORY];
+		inputs = new ArrayDeque<QueuedInput>();
+	}
+	
+	/**
+	 * Queues an input from the client unless it has already been queued.
+	 * 
+	 * @param seq The client's sequence number for the input
+	 * @param input The input
+	 */
+	void queueInput(int seq, PlayerInput input) {
+		if (seq <= lastQueuedSeq) {
+			return;
+		}
+		lastQueuedSeq = seq;
+		inputs.add(new QueuedInput(seq, input));
+		if (inputs.size() > MAX_QUEUED_INPUTS) {
+			inputs.poll();
+		}
+	}
+	
+	/**
+	 * Takes the input to apply to the client's player for the next tick.  If nothing has arrived the
+	 * client is assumed to be holding the same keys as before.
+	 * 
+	 * @return The input for the next tick
+	 */
+	PlayerInput nextInput() {
+		QueuedInput next = inputs.poll();
+		if (next == null) {
+			return new PlayerInput(lastInput.getKeys());
+		}
+		lastProcessedSeq = next.seq;
+		lastInput = next.input;
+		return next.input;
+	}
+	
+	/**
+	 * @return The sequence number of the last of the client's inputs applied to its player
+	 */
+	int getLastProcessedSeq() {
+		return lastProcessedSeq;
+	}
+	
+	/**
+	 * @return The tick of the latest snapshot the client has acknowledged, which is the world it is seeing, or -1
+	 */
+	int getAcknowledgedTick() {
+		return acknowledgedTick;
+	}
+	
+	/**
+	 * Records that the client has received the snapshot of tick.  An acknowledgement older than the latest is
+	 * ignored, as is one of a tick which has not been sent yet, which only a broken or forged packet could carry.
+	 * 
+	 * @param tick The tick acknowledged by the client
+	 * @param currentTick The latest tick the server has sent
+	 */
+	void acknowledge(int tick, int currentTick) {
+		if (tick > acknowledgedTick && tick <= currentTick) {
+			acknowledgedTick = tick;
+		}
+	}
+	
+	/**
+	 * @return The latest snapshot the client has acknowledged, or null if it is no longer remembered
+	 */
+	Snapshot getAcknowledgedSnapshot() {
+		if (acknowledgedTick < 0) {
+			return null;
+		}
+		Snapshot snapshot = history[acknowledgedTick % history.length];
+		return snapshot != null && snapshot.tick == acknowledgedTick ? snapshot : null;
+	}
+	
+	void remember(Snapshot snapshot) {
+		history[snapshot.tick % history.length] = snapshot;
+	}
+	
+	private static class QueuedInput {
+		final int seq;
+		final PlayerInput input;
+		
+		QueuedInput(int seq, PlayerInput input) {
+			this.seq = seq;
+			this.input = input;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import entity.PlayerInput;
+
+/**
+ * The client end of a connection to a <code>GameServer</code>.  The client is driven by its owner calling
+ * poll, to receive whatever the server has sent, and sendInput once per tick.
+ *
+ * @author Francis Stephens
+ */
+public class GameClient {
+	private final DatagramChannel channel;
+	private final ByteBuffer receiveBuffer;
+	private final ByteBuffer sendBuffer;
+	private final Snapshot[] history;
+	private final PlayerInput[] sentInputs;
+	private Snapshot latest;
+	private boolean welcomed;
+	private long seed;
+	private int playerId;
+	private int inputSeq;
+	private int lastProcessedInputSeq;
+	private long bytesReceived;
+
+	/**
+	 * Opens a connection to the server and says hello.
+	 *
+	 * @param server The address of the server
+	 * @throws IOException If the connection cannot be opened
+	 */
+	public GameClient(SocketAddress server) throws IOException {
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+		channel.connect(server);
+		receiveBuffer = ByteBuffer.allocate(Protocol.MAX_PACKET_SIZE);
+		sendBuffer = ByteBuffer.allocate(Protocol.MAX_PACKET_SIZE);
+		history = new Snapshot[Protocol.SNAPSHOT_HISTORY];
+		sentInputs = new PlayerInput[Protocol.REDUNDANT_INPUTS];
+		sayHello();
+	}
+
+	/**
+	 * Asks the server to admit this client.  This should be repeated until the client has been welcomed.
+	 *
+	 * @throws IOException If the hello cannot be sent
+	 */
+	public void sayHello() throws IOException {
+		sendBuffer.clear();
+		sendBuffer.put(Protocol.HELLO);
+		sendBuffer.flip();
+		channel.write(sendBuffer);
+	}
+
+	/**
+	 * Receives every packet the server has sent since the last poll.
+	 *
+	 * @return true if a new snapshot arrived, false otherwise
+	 * @throws IOException If the packets cannot be received
+	 */
+	public boolean poll() throws IOException {
+		boolean newSnapshot = false;
+		while (true) {
+			receiveBuffer.clear();
+			int read = channel.read(receiveBuffer);
+			if (read <= 0) {
+				return newSnapshot;
+			}
+			bytesReceived += read;
+			receiveBuffer.flip();
+			byte type = receiveBuffer.get();
+			if (type == Protocol.WELCOME) {
+				seed = receiveBuffer.getLong();
+				playerId = receiveBuffer.getInt();
+				welcomed = true;
+			}
+			else if (type == Protocol.SNAPSHOT) {
+				newSnapshot |= receiveSnapshot();
+			}
+		}
+	}
+
+	private boolean receiveSnapshot() {
+		int tick = receiveBuffer.getInt();
+		int baseTick = receiveBuffer.getInt();
+		int processedSeq = receiveBuffer.getInt();
+		if (latest != null && tick <= latest.tick) {
+			return false; // Arrived out of order
+		}
+		Snapshot base = null;
+		if (baseTick >= 0) {
+			base = history[baseTick % history.length];
+			if (base == null || base.tick != baseTick) {
+				return false; // We no longer hold the base, the server will fall back to an older one
+			}
+		}
+		latest = SnapshotCodec.decode(receiveBuffer, base, tick);
+		history[tick % history.length] = latest;
+		lastProcessedInputSeq = processedSeq;
+		return true;
+	}
+
+	/**
+	 * Sends the input for this client's next tick along with the last few inputs, in case they were lost.
+	 *
+	 * @param input The input for the next tick
+	 * @return The sequence number given to the input
+	 * @throws IOException If the input cannot be sent
+	 */
+	public int sendInput(PlayerInput input) throws IOException {
+		inputSeq++;
+		sentInputs[inputSeq % sentInputs.length] = input;
+		int count = Math.min(inputSeq, sentInputs.length);
+		sendBuffer.clear();
+		sendBuffer.put(Protocol.INPUT);
+		sendBuffer.putInt(latest == null ? -1 : latest.tick);
+		sendBuffer.putInt(inputSeq);
+		sendBuffer.put((byte) count);
+		for (int i = 0; i < count; i++) {
+			Protocol.writeInput(sendBuffer, sentInputs[(inputSeq - i) % sentInputs.length]);
+		}
+		sendBuffer.flip();
+		channel.write(sendBuffer);
+		return inputSeq;
+	}
+
+	/**
+	 * Tells the server this client is leaving and closes the connection.
+	 *
+	 * @throws IOException If the connection cannot be closed
+	 */
+	public void close() throws IOException {
+		sendBuffer.clear();
+		sendBuffer.put(Protocol.BYE);
+		sendBuffer.flip();
+		channel.write(sendBuffer);
+		channel.close();
+	}
+
+	public boolean isWelcomed() {
+		return welcomed;
+	}
+
+	/**
+	 * @return The seed of the server's game, from which the client can build an identical environment
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return The id of this client's player within the server's snapshots
+	 */
+	public int getPlayerId() {
+		return playerId;
+	}
+
+	/**
+	 * @return The latest snapshot received, or null if none has arrived yet
+	 */
+	public Snapshot getLatestSnapshot() {
+		return latest;
+	}
+
+	/**
+	 * @return The sequence number of the last input the server had applied when it sent the latest snapshot
+	 */
+	public int getLastProcessedInputSeq() {
+		return lastProcessedInputSeq;
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+}
@@ -0,0 +1,274 @@
+package net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import profiling.LatencyHistogram;
+import entity.PlayerEntity;
+import entity.PlayerInput;
+import game.Environment;
+import game.Game;
+import game.LooseQuadtree;
+
+/**
+ * A headless server which runs the authoritative simulation of a <code>Game</code> for any number of
+ * remote players.  Inputs arrive over UDP and are applied one per client per tick; after each tick every
+ * client is sent a snapshot of the entities it can see, delta compressed against the last snapshot it acknowledged.
+ *
+ * The server runs on a fixed tick so that clients can reproduce the movement of their own players exactly.
+ * Shots are lag compensated: each is tested against the world as its shooter last saw it.
+ *
+ * @author Francis Stephens
+ */
+public class GameServer implements Runnable {
+	public static final long TICK_MILLIS = 33;
+	private static final long CLIENT_TIMEOUT_MILLIS = 5000;
+	private static final int SPAWN_ATTEMPTS = 100;
+	private static final int INTEREST_TREE_DEPTH = 4;
+
+	private final Game game;
+	private final DatagramChannel channel;
+	private final Map<SocketAddress,ClientConnection> clients;
+	private final ByteBuffer receiveBuffer;
+	private final ByteBuffer sendBuffer;
+	private final LatencyHistogram tickCost;
+	private final LooseQuadtree entityTree;
+	private final LagCompensator lagCompensator;
+	private volatile boolean running;
+	private volatile int clientCount;
+	private int tick;
+	private long bytesSent;
+
+	/**
+	 * Creates a server for a new game, listening on port.
+	 *
+	 * @param port The UDP port to listen on, or 0 for any free port
+	 * @param seed The seed for the game
+	 * @throws IOException If the port cannot be bound
+	 */
+	public GameServer(int port, long seed) throws IOException {
+		game = new Game(seed);
+		game.initWorld();
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+		channel.socket().bind(new InetSocketAddress(port));
+		clients = new LinkedHashMap<SocketAddress,ClientConnection>();
+		receiveBuffer = ByteBuffer.allocate(Protocol.MAX_PACKET_SIZE);
+		sendBuffer = ByteBuffer.allocate(Protocol.MAX_SNAPSHOT_PACKET_SIZE);
+		tickCost = new LatencyHistogram();
+		entityTree = new LooseQuadtree(INTEREST_TREE_DEPTH);
+		lagCompensator = new LagCompensator();
+		game.setHitHistory(lagCompensator);
+	}
+
+	public int getPort() {
+		return channel.socket().getLocalPort();
+	}
+
+	/**
+	 * Runs the server until stop is called.
+	 */
+	@Override
+	public void run() {
+		running = true;
+		long nextTick = System.nanoTime();
+		try {
+			while (running) {
+				long start = System.nanoTime();
+				receivePackets();
+				step();
+				synchronized (this) {
+					tickCost.record(System.nanoTime() - start);
+				}
+				nextTick += TICK_MILLIS * 1000000L;
+				long sleep = (nextTick - System.nanoTime()) / 1000000L;
+				if (sleep > 0) {
+					Thread.sleep(sleep);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Advances the game by a single tick and sends every client the part of the snapshot it is interested in.
+	 *
+	 * @throws IOException If a snapshot cannot be sent
+	 */
+	void step() throws IOException {
+		for (ClientConnection client : clients.values()) {
+			client.player.setViewTick(client.getAcknowledgedTick());
+			client.player.applyInput(client.nextInput());
+		}
+		game.tick(TICK_MILLIS);
+		tick++;
+		lagCompensator.record(tick, game.getPlayers(), game.getAliens());
+		Snapshot snapshot = Snapshot.capture(game, tick);
+		entityTree.beginUpdate();
+		entityTree.update(game.getPlayers());
+		entityTree.update(game.getAliens());
+		entityTree.update(game.getShots());
+		entityTree.endUpdate();
+		long now = System.currentTimeMillis();
+		for (Iterator<ClientConnection> itr = clients.values().iterator(); itr.hasNext();) {
+			ClientConnection client = itr.next();
+			if (now - client.lastHeard > CLIENT_TIMEOUT_MILLIS) {
+				game.removePlayer(client.player);
+				itr.remove();
+				clientCount = clients.size();
+				continue;
+			}
+			client.interest.refresh(entityTree, game.getEnvironment());
+			sendSnapshot(client, client.interest.filter(snapshot));
+		}
+	}
+
+	/**
+	 * Sends snapshot to client as a delta from the latest snapshot it has acknowledged.  If the delta will not fit
+	 * in a single packet a full snapshot is tried, and if that will not fit either the snapshot is cut down, a
+	 * quarter at a time, to the entities nearest the client's player until one does.
+	 */
+	private void sendSnapshot(ClientConnection client, Snapshot snapshot) throws IOException {
+		Snapshot base = client.getAcknowledgedSnapshot();
+		Snapshot reduced = snapshot;
+		while (!writeSnapshot(client, base, reduced) && !writeSnapshot(client, null, reduced)) {
+			reduced = snapshot.nearest(reduced.count * 3 / 4, client.player.getX(), client.player.getY());
+		}
+		sendBuffer.flip();
+		int sent = channel.send(sendBuffer, client.address);
+		client.remember(reduced);
+		client.bytesSent += sent;
+		synchronized (this) {
+			bytesSent += sent;
+		}
+	}
+
+	private boolean writeSnapshot(ClientConnection client, Snapshot base, Snapshot snapshot) {
+		sendBuffer.clear();
+		sendBuffer.put(Protocol.SNAPSHOT);
+		sendBuffer.putInt(snapshot.tick);
+		sendBuffer.putInt(base == null ? -1 : base.tick);
+		sendBuffer.putInt(client.getLastProcessedSeq());
+		return SnapshotCodec.encode(sendBuffer, base, snapshot);
+	}
+
+	private void receivePackets() throws IOException {
+		while (true) {
+			receiveBuffer.clear();
+			SocketAddress from = channel.receive(receiveBuffer);
+			if (from == null) {
+				return;
+			}
+			receiveBuffer.flip();
+			if (!receiveBuffer.hasRemaining()) {
+				continue;
+			}
+			try {
+				handlePacket(from);
+			} catch (BufferUnderflowException e) {
+				// A truncated or garbled packet, there is nothing to do but ignore it
+			}
+		}
+	}
+
+	private void handlePacket(SocketAddress from) throws IOException {
+		byte type = receiveBuffer.get();
+		ClientConnection client = clients.get(from);
+		if (type == Protocol.HELLO) {
+			if (client == null) {
+				client = new ClientConnection(from, spawnPlayer());
+				clients.put(from, client);
+				clientCount = clients.size();
+			}
+			client.lastHeard = System.currentTimeMillis();
+			sendWelcome(client);
+		}
+		else if (client != null && type == Protocol.INPUT) {
+			client.lastHeard = System.currentTimeMillis();
+			client.acknowledge(receiveBuffer.getInt(), tick);
+			int newestSeq = receiveBuffer.getInt();
+			int count = Math.min(receiveBuffer.get() & 0xFF, Protocol.REDUNDANT_INPUTS);
+			List<PlayerInput> received = new ArrayList<PlayerInput>(count);
+			for (int i = 0; i < count; i++) {
+				received.add(Protocol.readInput(receiveBuffer));
+			}
+			// Inputs arrive newest first but must be queued oldest first
+			for (int i = count - 1; i >= 0; i--) {
+				client.queueInput(newestSeq - i, received.get(i));
+			}
+		}
+		else if (client != null && type == Protocol.BYE) {
+			game.removePlayer(client.player);
+			clients.remove(from);
+			clientCount = clients.size();
+		}
+	}
+
+	private void sendWelcome(ClientConnection client) throws IOException {
+		sendBuffer.clear();
+		sendBuffer.put(Protocol.WELCOME);
+		sendBuffer.putLong(game.getSeed());
+		sendBuffer.putInt(client.player.getId());
+		sendBuffer.flip();
+		client.bytesSent += channel.send(sendBuffer, client.address);
+	}
+
+	/**
+	 * Adds a player to the game at a random position clear of the walls.
+	 */
+	private PlayerEntity spawnPlayer() {
+		PlayerEntity player = game.addPlayer(0, 0);
+		Environment environment = game.getEnvironment();
+		Random random = game.getRandom();
+		for (int i = 0; i < SPAWN_ATTEMPTS; i++) {
+			int x = random.nextInt(Game.SCREEN_WIDTH - player.getWidth());
+			int y = random.nextInt(Game.SCREEN_HEIGHT - player.getHeight());
+			if (environment.isClear(x, y, player.getWidth(), player.getHeight())) {
+				player.setX(x);
+				player.setY(y);
+				break;
+			}
+		}
+		return player;
+	}
+
+	public int getClientCount() {
+		return clientCount;
+	}
+
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return A copy of the histogram of server tick costs in nanos, including snapshot encoding and sending
+	 */
+	public synchronized LatencyHistogram getTickCost() {
+		LatencyHistogram copy = new LatencyHistogram();
+		copy.add(tickCost);
+		return copy;
+	}
+}
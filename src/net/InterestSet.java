@@ -0,0 +1,153 @@
+package net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import trigUtil.TrigUtil;
+import entity.DynamicEntity;
+import entity.PlayerEntity;
+import game.Environment;
+import game.LooseQuadtree;
+
+/**
+ * The set of entities which are relevant to a single client, so that only they need be sent in its snapshots.
+ * An entity is relevant if it lies within the player's field of view, in the same cone the
+ * <code>Flashlight</code> uses, and is not hidden behind a wall, or if it is close enough to the player
+ * that it should be known about regardless.  The client's own player is always relevant.
+ *
+ * The set is refreshed incrementally.  Candidates come from a <code>LooseQuadtree</code> and an entity's
+ * visibility is only re-tested when it is new, when it has moved some distance since it was last tested or
+ * when the player itself has moved or turned some distance.
+ *
+ * @author Francis Stephens
+ */
+class InterestSet {
+	// The angle, either side from straight ahead, that the player can see
+	private static final double HORIZON = (Math.PI / 2) * 0.8;
+	// Nothing further than this is sent, capping the number of entities any one client receives
+	static final double VIEW_RANGE = 450;
+	// Anything this close is relevant whether it can be seen or not
+	private static final double PROXIMITY_RANGE = 60;
+	private static final double VIEWER_MOVE_THRESHOLD = 4;
+	private static final double VIEWER_TURN_THRESHOLD = 0.02;
+	private static final double ENTITY_MOVE_THRESHOLD = 4;
+	private static final int X = 0, Y = 1, VISIBLE = 2, STAMP = 3;
+
+	private final PlayerEntity player;
+	private final Map<Integer,double[]> entries; // id -> {x, y, visible, stamp}
+	private final List<DynamicEntity> candidates;
+	private double viewX, viewY, viewRotation;
+	private boolean viewed;
+	private int stamp;
+
+	InterestSet(PlayerEntity player) {
+		this.player = player;
+		entries = new HashMap<Integer,double[]>();
+		candidates = new ArrayList<DynamicEntity>();
+	}
+
+	/**
+	 * Brings the set up to date with the current positions of the player and the entities around it.
+	 *
+	 * @param tree A tree holding every dynamic entity in the game
+	 * @param environment The environment whose walls block the player's view
+	 */
+	void refresh(LooseQuadtree tree, Environment environment) {
+		stamp++;
+		double centreX = centreX(player);
+		double centreY = centreY(player);
+		double rotation = player.getRotation();
+		boolean viewerChanged = !viewed
+				|| TrigUtil.getDistanceSquared(viewX, viewY, centreX, centreY) > VIEWER_MOVE_THRESHOLD*VIEWER_MOVE_THRESHOLD
+				|| TrigUtil.rotationDistance(viewRotation, rotation) > VIEWER_TURN_THRESHOLD;
+		if (viewerChanged) {
+			viewX = centreX;
+			viewY = centreY;
+			viewRotation = rotation;
+			viewed = true;
+		}
+		tree.query(viewX - VIEW_RANGE, viewY - VIEW_RANGE, viewX + VIEW_RANGE, viewY + VIEW_RANGE, candidates);
+		for (DynamicEntity entity : candidates) {
+			if (entity == player) {
+				continue;
+			}
+			double x = centreX(entity);
+			double y = centreY(entity);
+			double[] entry = entries.get(entity.getId());
+			if (entry == null) {
+				entry = new double[4];
+				entries.put(entity.getId(), entry);
+			}
+			else if (!viewerChanged && TrigUtil.getDistanceSquared(entry[X], entry[Y], x, y) <= ENTITY_MOVE_THRESHOLD*ENTITY_MOVE_THRESHOLD) {
+				entry[STAMP] = stamp;
+				continue;
+			}
+			entry[X] = x;
+			entry[Y] = y;
+			entry[VISIBLE] = isVisible(entity, x, y, environment) ? 1 : 0;
+			entry[STAMP] = stamp;
+		}
+		// Anything the tree did not offer is out of range or gone from the game
+		for (Iterator<double[]> itr = entries.values().iterator(); itr.hasNext();) {
+			if (itr.next()[STAMP] != stamp) {
+				itr.remove();
+			}
+		}
+	}
+
+	/**
+	 * Builds a snapshot holding only the entities of snapshot which are in this set.
+	 *
+	 * @param snapshot A snapshot of the whole game
+	 * @return The part of snapshot relevant to this set's player
+	 */
+	Snapshot filter(Snapshot snapshot) {
+		Snapshot.Builder builder = new Snapshot.Builder(snapshot.tick, entries.size() + 1);
+		for (int i = 0; i < snapshot.count; i++) {
+			int id = snapshot.ids[i];
+			if (id != player.getId()) {
+				double[] entry = entries.get(id);
+				if (entry == null || entry[VISIBLE] == 0) {
+					continue;
+				}
+			}
+			builder.add(id, snapshot.types[i], snapshot.xs[i], snapshot.ys[i], snapshot.rotations[i]);
+		}
+		return builder.build();
+	}
+
+	private boolean isVisible(DynamicEntity entity, double x, double y, Environment environment) {
+		double distanceSquared = TrigUtil.getDistanceSquared(viewX, viewY, x, y);
+		if (distanceSquared <= PROXIMITY_RANGE*PROXIMITY_RANGE) {
+			return true;
+		}
+		if (distanceSquared > VIEW_RANGE*VIEW_RANGE) {
+			return false;
+		}
+		double direction = TrigUtil.normaliseRadians(TrigUtil.getLineRotation(viewX, viewY, x, y));
+		if (TrigUtil.rotationDistance(direction, TrigUtil.normaliseRadians(viewRotation)) > HORIZON) {
+			return false;
+		}
+		// Seeing any part of the entity is enough, the centre is tried first as it is the most likely to be seen
+		if (environment.hasLineOfSight(viewX, viewY, x, y)) {
+			return true;
+		}
+		for (double[] corner : entity.getCorners()) {
+			if (environment.hasLineOfSight(viewX, viewY, corner[0], corner[1])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static double centreX(DynamicEntity entity) {
+		return entity.getX() + entity.getWidth()/2;
+	}
+
+	private static double centreY(DynamicEntity entity) {
+		return entity.getY() + entity.getHeight()/2;
+	}
+}
@@ -0,0 +1,182 @@
+package net;
+
+import java.util.List;
+
+import entity.DynamicEntity;
+import game.HitHistory;
+
+/**
+ * Remembers where every hittable entity stood over the last few ticks so that the server can test a shot
+ * against the world its shooter was seeing, which is behind the server by the shooter's latency.
+ *
+ * The history is a ring of one slot per tick.  Each slot holds the ids and transforms of the entities in
+ * primitive arrays sorted by id, which are reused as the ring turns, so the memory used is fixed by the
+ * length of the history and the largest number of entities seen.  Each slot also records the furthest any
+ * entity moved since the slot before it, so that the margin by which the world may have changed since a
+ * past tick can be found without comparing positions.
+ *
+ * @author Francis Stephens
+ */
+public class LagCompensator implements HitHistory {
+	// About a second at the server's tick rate, shooters seeing further into the past are not compensated
+	static final int HISTORY_TICKS = 32;
+
+	private final int[] ticks;
+	private final int[] counts;
+	private final int[][] ids;
+	private final double[][] xs;
+	private final double[][] ys;
+	private final double[][] rotations;
+	private final double[] maxSteps;
+	private int latestTick = -1;
+
+	public LagCompensator() {
+		ticks = new int[HISTORY_TICKS];
+		counts = new int[HISTORY_TICKS];
+		ids = new int[HISTORY_TICKS][0];
+		xs = new double[HISTORY_TICKS][0];
+		ys = new double[HISTORY_TICKS][0];
+		rotations = new double[HISTORY_TICKS][0];
+		maxSteps = new double[HISTORY_TICKS];
+		for (int i = 0; i < HISTORY_TICKS; i++) {
+			ticks[i] = -1;
+		}
+	}
+
+	/**
+	 * Records where the entities given stand at tick.  This should be called once a tick, after the tick has
+	 * been simulated, with every entity that shots can hit.
+	 *
+	 * @param tick The tick just simulated
+	 * @param players The players in the game
+	 * @param aliens The aliens in the game
+	 */
+	public void record(int tick, List<? extends DynamicEntity> players, List<? extends DynamicEntity> aliens) {
+		int slot = tick % HISTORY_TICKS;
+		int capacity = players.size() + aliens.size();
+		if (ids[slot].length < capacity) {
+			int grown = Math.max(capacity, ids[slot].length * 2);
+			ids[slot] = new int[grown];
+			xs[slot] = new double[grown];
+			ys[slot] = new double[grown];
+			rotations[slot] = new double[grown];
+		}
+		ticks[slot] = tick;
+		counts[slot] = 0;
+		add(slot, players);
+		add(slot, aliens);
+		sort(slot);
+		maxSteps[slot] = findMaxStep(tick - 1, slot);
+		latestTick = tick;
+	}
+
+	@Override
+	public boolean findTransform(int tick, DynamicEntity target, double[] transform) {
+		int slot = slotFor(tick);
+		if (slot < 0) {
+			return false;
+		}
+		int i = indexOf(slot, target.getId());
+		if (i < 0) {
+			return false;
+		}
+		transform[0] = xs[slot][i];
+		transform[1] = ys[slot][i];
+		transform[2] = rotations[slot][i];
+		return true;
+	}
+
+	@Override
+	public double getRewindMargin(int tick) {
+		if (slotFor(tick) < 0) {
+			return 0;
+		}
+		double margin = 0;
+		for (int t = tick + 1; t <= latestTick; t++) {
+			margin += maxSteps[t % HISTORY_TICKS];
+		}
+		return margin;
+	}
+
+	private int slotFor(int tick) {
+		if (tick < 0 || tick > latestTick || latestTick - tick >= HISTORY_TICKS) {
+			return -1;
+		}
+		int slot = tick % HISTORY_TICKS;
+		return ticks[slot] == tick ? slot : -1;
+	}
+
+	private void add(int slot, List<? extends DynamicEntity> entities) {
+		for (DynamicEntity entity : entities) {
+			int i = counts[slot]++;
+			ids[slot][i] = entity.getId();
+			xs[slot][i] = entity.getX();
+			ys[slot][i] = entity.getY();
+			rotations[slot][i] = entity.getRotation();
+		}
+	}
+
+	/**
+	 * Insertion sort by id, the entities almost always arrive in order already.
+	 */
+	private void sort(int slot) {
+		int[] slotIds = ids[slot];
+		double[] slotXs = xs[slot], slotYs = ys[slot], slotRotations = rotations[slot];
+		for (int i = 1; i < counts[slot]; i++) {
+			int id = slotIds[i];
+			double x = slotXs[i], y = slotYs[i], rotation = slotRotations[i];
+			int j = i - 1;
+			while (j >= 0 && slotIds[j] > id) {
+				slotIds[j+1] = slotIds[j];
+				slotXs[j+1] = slotXs[j];
+				slotYs[j+1] = slotYs[j];
+				slotRotations[j+1] = slotRotations[j];
+				j--;
+			}
+			slotIds[j+1] = id;
+			slotXs[j+1] = x;
+			slotYs[j+1] = y;
+			slotRotations[j+1] = rotation;
+		}
+	}
+
+	/**
+	 * Finds the furthest any entity in slot moved since previousTick.  Both slots are sorted by id so
+	 * they are compared in a single pass.
+	 */
+	private double findMaxStep(int previousTick, int slot) {
+		int previous = slotFor(previousTick);
+		if (previous < 0) {
+			return 0;
+		}
+		double maxStep = 0;
+		for (int i = 0, j = 0; i < counts[slot]; i++) {
+			while (j < counts[previous] && ids[previous][j] < ids[slot][i]) {
+				j++;
+			}
+			if (j < counts[previous] && ids[previous][j] == ids[slot][i]) {
+				double step = Math.max(Math.abs(xs[slot][i] - xs[previous][j]), Math.abs(ys[slot][i] - ys[previous][j]));
+				maxStep = Math.max(maxStep, step);
+			}
+		}
+		return maxStep;
+	}
+
+	private int indexOf(int slot, int id) {
+		int low = 0;
+		int high = counts[slot] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (ids[slot][mid] < id) {
+				low = mid + 1;
+			}
+			else if (ids[slot][mid] > id) {
+				high = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,78 @@
+package net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import profiling.LatencyHistogram;
+
+/**
+ * Runs a <code>GameServer</code> and a number of <code>BotClient</code>s against it over loopback, reporting
+ * the server's tick cost, the bandwidth used per client and the mean correction applied to the clients'
+ * predicted players once a second.
+ * 
+ * Usage: LoopbackHarness [clients] [seconds]
+ * 
+ * @author Francis Stephens
+ */
+public class LoopbackHarness {
+	private static final int DEFAULT_CLIENTS = 8;
+	private static final int DEFAULT_SECONDS = 10;
+	
+	public static void main(String[] argv) throws IOException, InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		int clientCount = argv.length > 0 ? Integer.parseInt(argv[0]) : DEFAULT_CLIENTS;
+		int seconds = argv.length > 1 ? Integer.parseInt(argv[1]) : DEFAULT_SECONDS;
+		
+		GameServer server = new GameServer(0, System.currentTimeMillis());
+		Thread serverThread = new Thread(server, "GameServer");
+		serverThread.start();
+		
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+		List<BotClient> bots = new ArrayList<BotClient>(clientCount);
+		for (int i = 0; i < clientCount; i++) {
+			bots.add(new BotClient(address, i));
+		}
+		
+		long end = System.currentTimeMillis() + seconds * 1000L;
+		long nextReport = System.currentTimeMillis() + 1000;
+		long lastBytesSent = 0;
+		while (System.currentTimeMillis() < end) {
+			for (BotClient bot : bots) {
+				bot.step();
+			}
+			if (System.currentTimeMillis() >= nextReport) {
+				long bytesSent = server.getBytesSent();
+				LatencyHistogram tickCost = server.getTickCost();
+				int connected = Math.max(1, server.getClientCount());
+				System.out.println(String.format("clients %d  tick p50 %.3fms p99 %.3fms  %.0f B/s per client  correction %.3fpx",
+						server.getClientCount(), tickCost.getValueAtPercentile(50) / 1000000d,
+						tickCost.getValueAtPercentile(99) / 1000000d, (bytesSent - lastBytesSent) / (double) connected,
+						meanCorrection(bots)));
+				lastBytesSent = bytesSent;
+				nextReport += 1000;
+			}
+			Thread.sleep(GameServer.TICK_MILLIS);
+		}
+		
+		for (BotClient bot : bots) {
+			bot.getClient().close();
+		}
+		server.stop();
+		serverThread.join();
+	}
+	
+	private static double meanCorrection(List<BotClient> bots) {
+		double total = 0;
+		int predicting = 0;
+		for (BotClient bot : bots) {
+			if (bot.getPredictedPlayer() != null) {
+				total += bot.getPredictedPlayer().getMeanCorrection();
+				predicting++;
+			}
+		}
+		return predicting == 0 ? 0 : total / predicting;
+	}
+}
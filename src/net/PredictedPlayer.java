@@ -0,0 +1,100 @@
+package net;
+
+import trigUtil.TrigUtil;
+import entity.PlayerEntity;
+import entity.PlayerInput;
+import game.Game;
+
+/**
+ * A client's local copy of its own player, moved immediately by each input rather than waiting a round trip
+ * for the server to report the result.
+ *
+ * The copy lives in a private <code>Game</code> built from the server's seed, so it slides along exactly the
+ * same walls.  Every input sent is remembered by its sequence number.  When a snapshot arrives the player is
+ * put back where the server says it was after the last input the server processed, and the inputs the
+ * server has not yet seen are replayed on top.  If the prediction was right the player ends up where it
+ * already was; if not it is corrected without the client needing anything more from the server.
+ *
+ * @author Francis Stephens
+ */
+public class PredictedPlayer {
+	// Enough inputs to cover a round trip of two seconds at the server's tick rate
+	private static final int INPUT_HISTORY = 64;
+
+	private final Game game;
+	private final PlayerEntity player;
+	private final PlayerInput[] inputs;
+	private int latestSeq;
+	private boolean synced;
+	private double totalCorrection;
+	private int corrections;
+
+	/**
+	 * Builds a local world matching the server's.
+	 *
+	 * @param seed The seed of the server's game
+	 */
+	public PredictedPlayer(long seed) {
+		game = new Game(seed);
+		game.initWorld();
+		player = game.addPlayer(0, 0);
+		inputs = new PlayerInput[INPUT_HISTORY];
+	}
+
+	/**
+	 * Moves the player by an input which has just been sent to the server.
+	 *
+	 * @param seq The sequence number the input was sent with
+	 * @param input The input
+	 */
+	public void predict(int seq, PlayerInput input) {
+		inputs[seq % inputs.length] = input;
+		latestSeq = seq;
+		if (synced) {
+			player.predict(input, GameServer.TICK_MILLIS);
+		}
+	}
+
+	/**
+	 * Corrects the player against a snapshot from the server by rewinding to the server's position and
+	 * replaying every input the server had not processed when it took the snapshot.
+	 *
+	 * @param snapshot The latest snapshot from the server
+	 * @param playerId The id of this client's player
+	 * @param lastProcessedSeq The sequence number of the last input the server had applied to the player
+	 */
+	public void reconcile(Snapshot snapshot, int playerId, int lastProcessedSeq) {
+		int i = snapshot.indexOf(playerId);
+		if (i < 0) {
+			return;
+		}
+		double predictedX = player.getX();
+		double predictedY = player.getY();
+		player.setX(snapshot.getX(i));
+		player.setY(snapshot.getY(i));
+		player.setRotation(snapshot.getRotation(i));
+		int firstSeq = Math.max(lastProcessedSeq + 1, latestSeq - inputs.length + 1);
+		for (int seq = firstSeq; seq <= latestSeq; seq++) {
+			player.predict(inputs[seq % inputs.length], GameServer.TICK_MILLIS);
+		}
+		if (synced) {
+			totalCorrection += TrigUtil.getDistance(predictedX, predictedY, player.getX(), player.getY());
+			corrections++;
+		}
+		synced = true;
+	}
+
+	/**
+	 * @return The predicted player, or one at the origin if no snapshot has yet been reconciled
+	 */
+	public PlayerEntity getPlayer() {
+		return player;
+	}
+
+	/**
+	 * @return The mean distance, in pixels, that reconciling has moved the predicted player
+	 */
+	public double getMeanCorrection() {
+		return corrections == 0 ? 0 : totalCorrection / corrections;
+	}
+}
@@ -0,0 +1,57 @@
+package net;
+
+import java.nio.ByteBuffer;
+
+import entity.PlayerInput;
+
+/**
+ * The packet types and shared encodings of the client/server protocol.
+ * 
+ * Clients send a HELLO until they receive a WELCOME carrying the game's seed and the id of their player.
+ * From then on every client tick sends an INPUT packet, which repeats the last few inputs so that a single
+ * lost packet loses no input, and acknowledges the latest snapshot received.  Every server tick sends each
+ * client a SNAPSHOT delta compressed against the latest snapshot that client has acknowledged.  A snapshot
+ * too big for a single unfragmented packet is reduced to the entities nearest the client's player.
+ * 
+ * @author Francis Stephens
+ */
+final class Protocol {
+	static final byte HELLO = 0;
+	static final byte WELCOME = 1;
+	static final byte INPUT = 2;
+	static final byte SNAPSHOT = 3;
+	static final byte BYE = 4;
+	
+	// Loopback and LAN deployments accept datagrams up to the UDP maximum
+	static final int MAX_PACKET_SIZE = 65507;
+	// Snapshots are kept within an Ethernet MTU, less the IP and UDP headers, so they are never fragmented
+	static final int MAX_SNAPSHOT_PACKET_SIZE = 1472;
+	// The number of past inputs repeated in every INPUT packet
+	static final int REDUNDANT_INPUTS = 4;
+	// The number of snapshots either end remembers for delta compression
+	static final int SNAPSHOT_HISTORY = 32;
+	
+	private static final int DESTINATION_FLAG = 1 << 7;
+	
+	private Protocol() {
+	}
+	
+	static void writeInput(ByteBuffer out, PlayerInput input) {
+		if (input.hasDestination()) {
+			out.put((byte) (input.getKeys() | DESTINATION_FLAG));
+			out.putShort((short) input.getDestX());
+			out.putShort((short) input.getDestY());
+		}
+		else {
+			out.put((byte) input.getKeys());
+		}
+	}
+	
+	static PlayerInput readInput(ByteBuffer in) {
+		int flags = in.get() & 0xFF;
+		if ((flags & DESTINATION_FLAG) != 0) {
+			return new PlayerInput(flags, in.getShort(), in.getShort());
+		}
+		return new PlayerInput(flags);
+	}
+}
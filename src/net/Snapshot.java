@@ -0,0 +1,247 @@
+package net;
+
+import java.util.Arrays;
+import java.util.List;
+
+import trigUtil.TrigUtil;
+import entity.DynamicEntity;
+import game.Game;
+
+/**
+ * An immutable, quantised picture of every dynamic entity in a game at a single tick.  Positions are
+ * stored to an eighth of a pixel in a short and rotations to a 65536th of a circle in a char, so each
+ * entity needs only six bytes of state.  Entities are held in order of id so that two snapshots can be
+ * compared in a single pass.
+ *
+ * @author Francis Stephens
+ */
+public class Snapshot {
+	public static final byte PLAYER = 0;
+	public static final byte ALIEN = 1;
+	public static final byte SHOT = 2;
+
+	static final double POSITION_SCALE = 8;
+	static final double ROTATION_SCALE = 65536 / TrigUtil.FULL_CIRCLE;
+
+	final int tick;
+	final int count;
+	final int[] ids;
+	final byte[] types;
+	final short[] xs;
+	final short[] ys;
+	final char[] rotations;
+
+	Snapshot(int tick, int count, int[] ids, byte[] types, short[] xs, short[] ys, char[] rotations) {
+		this.tick = tick;
+		this.count = count;
+		this.ids = ids;
+		this.types = types;
+		this.xs = xs;
+		this.ys = ys;
+		this.rotations = rotations;
+	}
+
+	/**
+	 * Captures every player, alien and shot in game.
+	 *
+	 * @param game The game to capture
+	 * @param tick The tick the game has reached
+	 * @return A snapshot of the game
+	 */
+	public static Snapshot capture(Game game, int tick) {
+		int capacity = game.getPlayers().size() + game.getAliens().size() + game.getShots().size();
+		Builder builder = new Builder(tick, capacity);
+		builder.addAll(game.getPlayers(), PLAYER);
+		builder.addAll(game.getAliens(), ALIEN);
+		builder.addAll(game.getShots(), SHOT);
+		return builder.build();
+	}
+
+	public int getTick() {
+		return tick;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	public byte getType(int i) {
+		return types[i];
+	}
+
+	public double getX(int i) {
+		return xs[i] / POSITION_SCALE;
+	}
+
+	public double getY(int i) {
+		return ys[i] / POSITION_SCALE;
+	}
+
+	public double getRotation(int i) {
+		return rotations[i] / ROTATION_SCALE;
+	}
+
+	/**
+	 * Finds the entity with the given id.
+	 *
+	 * @param id The id of the entity
+	 * @return The index of the entity within this snapshot, or -1 if it is not present
+	 */
+	public int indexOf(int id) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (ids[mid] < id) {
+				low = mid + 1;
+			}
+			else if (ids[mid] > id) {
+				high = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reduces this snapshot to the entities nearest a point.
+	 *
+	 * @param limit The most entities to keep
+	 * @param x The x coord to measure from
+	 * @param y The y coord to measure from
+	 * @return A snapshot of the limit entities nearest (x,y), or this snapshot if it holds no more than limit
+	 */
+	Snapshot nearest(int limit, double x, double y) {
+		if (count <= limit) {
+			return this;
+		}
+		// The squared distance, in quantised units, above the index so that sorting orders by distance.  Even
+		// the furthest distance a short allows needs fewer than 40 bits, leaving 24 for the index
+		long[] keys = new long[count];
+		long qx = quantisePosition(x), qy = quantisePosition(y);
+		for (int i = 0; i < count; i++) {
+			long dx = xs[i] - qx, dy = ys[i] - qy;
+			keys[i] = ((dx*dx + dy*dy) << 24) | i;
+		}
+		Arrays.sort(keys);
+		boolean[] kept = new boolean[count];
+		for (int k = 0; k < limit; k++) {
+			kept[(int) (keys[k] & 0xFFFFFF)] = true;
+		}
+		Builder builder = new Builder(tick, limit);
+		for (int i = 0; i < count; i++) {
+			if (kept[i]) {
+				builder.add(ids[i], types[i], xs[i], ys[i], rotations[i]);
+			}
+		}
+		return builder.build();
+	}
+
+	static short quantisePosition(double position) {
+		double scaled = Math.round(position * POSITION_SCALE);
+		return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, scaled));
+	}
+
+	static char quantiseRotation(double rotation) {
+		return (char) (Math.round(TrigUtil.normaliseRadians(rotation) * ROTATION_SCALE) & 0xFFFF);
+	}
+
+	/**
+	 * Accumulates entities, in any order, into a snapshot.
+	 */
+	static class Builder {
+		private final int tick;
+		private int count;
+		private int[] ids;
+		private byte[] types;
+		private short[] xs, ys;
+		private char[] rotations;
+
+		Builder(int tick, int capacity) {
+			this.tick = tick;
+			ids = new int[capacity];
+			types = new byte[capacity];
+			xs = new short[capacity];
+			ys = new short[capacity];
+			rotations = new char[capacity];
+		}
+
+		void addAll(List<? extends DynamicEntity> entities, byte type) {
+			for (DynamicEntity entity : entities) {
+				add(entity.getId(), type, quantisePosition(entity.getX()), quantisePosition(entity.getY()), quantiseRotation(entity.getRotation()));
+			}
+		}
+
+		void add(int id, byte type, short x, short y, char rotation) {
+			if (count == ids.length) {
+				int capacity = Math.max(8, count * 2);
+				ids = copyOf(ids, capacity);
+				types = copyOf(types, capacity);
+				xs = copyOf(xs, capacity);
+				ys = copyOf(ys, capacity);
+				rotations = copyOf(rotations, capacity);
+			}
+			ids[count] = id;
+			types[count] = type;
+			xs[count] = x;
+			ys[count] = y;
+			rotations[count] = rotation;
+			count++;
+		}
+
+		Snapshot build() {
+			// Insertion sort by id, the entities almost always arrive in order already
+			for (int i = 1; i < count; i++) {
+				int id = ids[i];
+				byte type = types[i];
+				short x = xs[i], y = ys[i];
+				char rotation = rotations[i];
+				int j = i - 1;
+				while (j >= 0 && ids[j] > id) {
+					ids[j+1] = ids[j];
+					types[j+1] = types[j];
+					xs[j+1] = xs[j];
+					ys[j+1] = ys[j];
+					rotations[j+1] = rotations[j];
+					j--;
+				}
+				ids[j+1] = id;
+				types[j+1] = type;
+				xs[j+1] = x;
+				ys[j+1] = y;
+				rotations[j+1] = rotation;
+			}
+			return new Snapshot(tick, count, ids, types, xs, ys, rotations);
+		}
+
+		private static int[] copyOf(int[] array, int capacity) {
+			int[] copy = new int[capacity];
+			System.arraycopy(array, 0, copy, 0, array.length);
+			return copy;
+		}
+
+		private static byte[] copyOf(byte[] array, int capacity) {
+			byte[] copy = new byte[capacity];
+			System.arraycopy(array, 0, copy, 0, array.length);
+			return copy;
+		}
+
+		private static short[] copyOf(short[] array, int capacity) {
+			short[] copy = new short[capacity];
+			System.arraycopy(array, 0, copy, 0, array.length);
+			return copy;
+		}
+
+		private static char[] copyOf(char[] array, int capacity) {
+			char[] copy = new char[capacity];
+			System.arraycopy(array, 0, copy, 0, array.length);
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a <code>Snapshot</code> as the difference from an earlier snapshot which the receiver is known to hold.
+ *
+ * The encoding lists the ids of the entities which have gone, followed by each entity which is new or has
+ * changed.  Ids are written as the gap from the previous id and every changed entity carries a mask of the
+ * fields which follow, so an entity which has not moved costs nothing and one which has only turned costs
+ * four bytes.  Encoding against a null base produces a full snapshot.
+ *
+ * @author Francis Stephens
+ */
+public class SnapshotCodec {
+	private static final int TYPE = 1;
+	private static final int X = 1 << 1;
+	private static final int Y = 1 << 2;
+	private static final int ROTATION = 1 << 3;
+	private static final int ALL = TYPE | X | Y | ROTATION;
+	// The most an id, or the gap between two, can take as a variable length integer
+	private static final int MAX_VAR_INT_SIZE = 5;
+	// An id, the mask and every field
+	private static final int MAX_ENTITY_SIZE = MAX_VAR_INT_SIZE + 1 + 1 + 2 + 2 + 2;
+
+	/**
+	 * Writes current into out as a delta from base, provided it fits in the space remaining in out.
+	 *
+	 * @param out The buffer to write into
+	 * @param base The snapshot the receiver holds, or null to write a full snapshot
+	 * @param current The snapshot to write
+	 * @return true if the delta was written, false if out ran short of space, in which case anything written must be discarded
+	 */
+	public static boolean encode(ByteBuffer out, Snapshot base, Snapshot current) {
+		Snapshot from = base == null ? empty(current.tick) : base;
+		// Removed entities
+		int removed = countRemoved(from, current);
+		if (out.remaining() < (removed + 1) * MAX_VAR_INT_SIZE + 2) {
+			return false;
+		}
+		writeVarInt(out, removed);
+		int previousId = 0;
+		for (int i = 0, j = 0; i < from.count; i++) {
+			while (j < current.count && current.ids[j] < from.ids[i]) {
+				j++;
+			}
+			if (j == current.count || current.ids[j] != from.ids[i]) {
+				writeVarInt(out, from.ids[i] - previousId);
+				previousId = from.ids[i];
+			}
+		}
+		// New and changed entities
+		int countPosition = out.position();
+		out.putShort((short) 0);
+		int changed = 0;
+		previousId = 0;
+		for (int i = 0, j = 0; j < current.count; j++) {
+			while (i < from.count && from.ids[i] < current.ids[j]) {
+				i++;
+			}
+			int mask;
+			if (i < from.count && from.ids[i] == current.ids[j]) {
+				mask = (from.xs[i] != current.xs[j] ? X : 0)
+						| (from.ys[i] != current.ys[j] ? Y : 0)
+						| (from.rotations[i] != current.rotations[j] ? ROTATION : 0);
+				if (mask == 0) {
+					continue;
+				}
+			}
+			else {
+				mask = ALL;
+			}
+			if (out.remaining() < MAX_ENTITY_SIZE) {
+				return false;
+			}
+			writeVarInt(out, current.ids[j] - previousId);
+			previousId = current.ids[j];
+			out.put((byte) mask);
+			if ((mask & TYPE) != 0) {
+				out.put(current.types[j]);
+			}
+			if ((mask & X) != 0) {
+				out.putShort(current.xs[j]);
+			}
+			if ((mask & Y) != 0) {
+				out.putShort(current.ys[j]);
+			}
+			if ((mask & ROTATION) != 0) {
+				out.putChar(current.rotations[j]);
+			}
+			changed++;
+		}
+		out.putShort(countPosition, (short) changed);
+		return true;
+	}
+
+	/**
+	 * Reads a snapshot written by encode.
+	 *
+	 * @param in The buffer to read from
+	 * @param base The snapshot the delta was encoded against, or null if it is a full snapshot
+	 * @param tick The tick of the snapshot being read
+	 * @return The decoded snapshot
+	 */
+	public static Snapshot decode(ByteBuffer in, Snapshot base, int tick) {
+		Snapshot from = base == null ? empty(tick) : base;
+		int removedCount = readVarInt(in);
+		int[] removed = new int[removedCount];
+		int id = 0;
+		for (int i = 0; i < removedCount; i++) {
+			id += readVarInt(in);
+			removed[i] = id;
+		}
+		int changedCount = in.getShort() & 0xFFFF;
+		Snapshot.Builder builder = new Snapshot.Builder(tick, from.count + changedCount);
+		int i = 0; // Position in from
+		int r = 0; // Position in removed
+		id = 0;
+		for (int c = 0; c < changedCount; c++) {
+			id += readVarInt(in);
+			int mask = in.get();
+			// Carry over the unchanged entities which come before this one
+			while (i < from.count && from.ids[i] < id) {
+				r = carryOver(builder, from, i++, removed, r);
+			}
+			boolean existing = i < from.count && from.ids[i] == id;
+			byte type = (mask & TYPE) != 0 ? in.get() : from.types[i];
+			short x = (mask & X) != 0 ? in.getShort() : from.xs[i];
+			short y = (mask & Y) != 0 ? in.getShort() : from.ys[i];
+			char rotation = (mask & ROTATION) != 0 ? in.getChar() : from.rotations[i];
+			builder.add(id, type, x, y, rotation);
+			if (existing) {
+				i++;
+			}
+		}
+		while (i < from.count) {
+			r = carryOver(builder, from, i++, removed, r);
+		}
+		return builder.build();
+	}
+
+	private static int carryOver(Snapshot.Builder builder, Snapshot from, int i, int[] removed, int r) {
+		while (r < removed.length && removed[r] < from.ids[i]) {
+			r++;
+		}
+		if (r < removed.length && removed[r] == from.ids[i]) {
+			return r + 1;
+		}
+		builder.add(from.ids[i], from.types[i], from.xs[i], from.ys[i], from.rotations[i]);
+		return r;
+	}
+
+	private static int countRemoved(Snapshot from, Snapshot current) {
+		int removed = 0;
+		for (int i = 0, j = 0; i < from.count; i++) {
+			while (j < current.count && current.ids[j] < from.ids[i]) {
+				j++;
+			}
+			if (j == current.count || current.ids[j] != from.ids[i]) {
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	private static Snapshot empty(int tick) {
+		return new Snapshot(tick, 0, new int[0], new byte[0], new short[0], new short[0], new char[0]);
+	}
+
+	static void writeVarInt(ByteBuffer out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	static int readVarInt(ByteBuffer in) {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
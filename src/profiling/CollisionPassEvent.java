@@ -0,0 +1,28 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering a pass testing a group of entities against the environment's walls.
+ * 
+ * @author Francis Stephens
+ */
+@Name("shooter.CollisionPass")
+@Label("Collision Pass")
+@Category({"2D Shooter", "Collision"})
+@Description("Entities tested against the walls of the environment near them")
+public class CollisionPassEvent extends Event {
+	@Label("Walls Considered")
+	@Description("The walls tested, summed over every entity tested")
+	public int wallsConsidered;
+	
+	@Label("Entities Tested")
+	public int entitiesTested;
+	
+	@Label("Collision Found")
+	public boolean collided;
+}
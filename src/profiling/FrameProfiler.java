@@ -0,0 +1,221 @@
+package profiling;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import entity.Displayable;
+
+/**
+ * Collects per-tick timings for each <code>Phase</code> of the game loop along with the bytes allocated
+ * during each phase.  At the end of every frame the accumulated phase times are recorded into latency
+ * histograms from which percentiles can be read, drawn on screen or exported as JSON.
+ *
+ * Profiling is switched on with the system property <code>profile</code>.  When it is off start() and stop()
+ * return immediately so the calls may be left in place in the hot paths.  Phases may be timed from any
+ * thread but frames must be ended from the game loop thread.
+ *
+ * @author Francis Stephens
+ */
+public class FrameProfiler implements Displayable {
+	private static final double NANOS_PER_MILLI = 1000000d;
+	private static final FrameProfiler singleton = new FrameProfiler(Boolean.getBoolean("profile"));
+
+	private final boolean enabled;
+	private final Phase[] phases;
+	private final AtomicLongArray phaseNanos;
+	private final AtomicLongArray phaseBytes;
+	private final long[] lastPhaseNanos;
+	private final LatencyHistogram frameHistogram;
+	private final LatencyHistogram[] phaseHistograms;
+	private final long[] totalPhaseBytes;
+	private final com.sun.management.ThreadMXBean allocationBean;
+	private final ThreadLocal<long[]> startBytes;
+
+	private FrameProfiler(boolean enabled) {
+		this.enabled = enabled;
+		phases = Phase.values();
+		phaseNanos = new AtomicLongArray(phases.length);
+		phaseBytes = new AtomicLongArray(phases.length);
+		lastPhaseNanos = new long[phases.length];
+		frameHistogram = new LatencyHistogram();
+		phaseHistograms = new LatencyHistogram[phases.length];
+		for (int i = 0; i < phases.length; i++) {
+			phaseHistograms[i] = new LatencyHistogram();
+		}
+		totalPhaseBytes = new long[phases.length];
+		allocationBean = enabled ? findAllocationBean() : null;
+		startBytes = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[phases.length];
+			}
+		};
+	}
+
+	public static FrameProfiler getInstance() {
+		return singleton;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Marks the start of a phase.
+	 *
+	 * @param phase The phase being started
+	 * @return The start time which must be passed to the matching call to stop
+	 */
+	public long start(Phase phase) {
+		if (!enabled) {
+			return 0;
+		}
+		if (allocationBean != null) {
+			startBytes.get()[phase.ordinal()] = allocatedBytes();
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Marks the end of a phase, adding the time and allocations since the matching start to this frame.
+	 *
+	 * @param phase The phase being stopped
+	 * @param start The value returned by the matching call to start
+	 */
+	public void stop(Phase phase, long start) {
+		if (!enabled) {
+			return;
+		}
+		int i = phase.ordinal();
+		phaseNanos.addAndGet(i, System.nanoTime() - start);
+		if (allocationBean != null) {
+			phaseBytes.addAndGet(i, allocatedBytes() - startBytes.get()[i]);
+		}
+	}
+
+	/**
+	 * Ends the current frame, recording its total duration and the time spent in each phase.
+	 *
+	 * @param frameStart The System.nanoTime() at which the frame began
+	 */
+	public void endFrame(long frameStart) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (this) {
+			frameHistogram.record(System.nanoTime() - frameStart);
+			for (int i = 0; i < phases.length; i++) {
+				lastPhaseNanos[i] = phaseNanos.getAndSet(i, 0);
+				phaseHistograms[i].record(lastPhaseNanos[i]);
+				totalPhaseBytes[i] += phaseBytes.getAndSet(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * @param phase A phase of the game loop
+	 * @return The time spent in phase during the last frame ended, always 0 when profiling is off
+	 */
+	public synchronized long getLastFrameNanos(Phase phase) {
+		return lastPhaseNanos[phase.ordinal()];
+	}
+
+	/**
+	 * Draws a summary of the frame and phase latencies in the top left corner of the screen.
+	 */
+	@Override
+	public synchronized void draw(Graphics2D g) {
+		if (!enabled) {
+			return;
+		}
+		int y = 15;
+		g.setColor(Color.white);
+		g.drawString(String.format("frame p50 %.2fms p99 %.2fms max %.2fms",
+				millis(frameHistogram.getValueAtPercentile(50)), millis(frameHistogram.getValueAtPercentile(99)), millis(frameHistogram.getMax())), 5, y);
+		for (int i = 0; i < phases.length; i++) {
+			y += 15;
+			LatencyHistogram histogram = phaseHistograms[i];
+			g.drawString(String.format("%s p99 %.2fms %dB/frame", phases[i], millis(histogram.getValueAtPercentile(99)), bytesPerFrame(i)), 5, y);
+		}
+	}
+
+	/**
+	 * @return A JSON report of the frame and phase latencies recorded so far
+	 */
+	public synchronized String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"frames\": ").append(frameHistogram.getTotalCount());
+		json.append(",\n  \"frame\": ");
+		appendHistogram(json, frameHistogram, -1);
+		json.append(",\n  \"phases\": {");
+		for (int i = 0; i < phases.length; i++) {
+			json.append(i == 0 ? "\n    \"" : ",\n    \"").append(phases[i].name().toLowerCase()).append("\": ");
+			appendHistogram(json, phaseHistograms[i], bytesPerFrame(i));
+		}
+		json.append("\n  }\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the JSON report to the named file.
+	 *
+	 * @param fileName The file to write the report to
+	 * @throws IOException If the report could not be written
+	 */
+	public void writeJson(String fileName) throws IOException {
+		Writer writer = new FileWriter(fileName);
+		try {
+			writer.write(toJson());
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	private void appendHistogram(StringBuilder json, LatencyHistogram histogram, long bytesPerFrame) {
+		json.append("{\"meanNanos\": ").append((long) histogram.getMean());
+		json.append(", \"p50Nanos\": ").append(histogram.getValueAtPercentile(50));
+		json.append(", \"p90Nanos\": ").append(histogram.getValueAtPercentile(90));
+		json.append(", \"p99Nanos\": ").append(histogram.getValueAtPercentile(99));
+		json.append(", \"maxNanos\": ").append(histogram.getMax());
+		if (bytesPerFrame >= 0) {
+			json.append(", \"allocatedBytesPerFrame\": ").append(bytesPerFrame);
+		}
+		json.append("}");
+	}
+
+	private long bytesPerFrame(int phase) {
+		long frames = frameHistogram.getTotalCount();
+		return frames == 0 ? 0 : totalPhaseBytes[phase] / frames;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / NANOS_PER_MILLI;
+	}
+
+	private long allocatedBytes() {
+		return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Allocation counting relies on the HotSpot extension of ThreadMXBean.  On other VMs, or where it
+	 * cannot be enabled, allocations are simply not counted.
+	 */
+	private static com.sun.management.ThreadMXBean findAllocationBean() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+			if (hotspotBean.isThreadAllocatedMemorySupported()) {
+				hotspotBean.setThreadAllocatedMemoryEnabled(true);
+				return hotspotBean;
+			}
+		}
+		return null;
+	}
+}
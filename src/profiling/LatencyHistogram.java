@@ -0,0 +1,119 @@
+package profiling;
+
+/**
+ * A fixed size log-linear histogram of latencies, in the style of HdrHistogram.  Every power of two
+ * is split into a fixed number of linear sub-buckets, so any value up to Long.MAX_VALUE can be recorded
+ * with a bounded relative error (about 3%) and recording never allocates.
+ *
+ * This class is not thread safe, values should only be recorded from a single thread.
+ *
+ * @author Francis Stephens
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+	private final long[] counts;
+	private long totalCount;
+	private long total;
+	private long max;
+
+	public LatencyHistogram() {
+		counts = new long[BUCKET_COUNT];
+	}
+
+	/**
+	 * Records a single value.  Negative values are recorded as zero.
+	 *
+	 * @param value The value to record
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[indexFor(value)]++;
+		totalCount++;
+		total += value;
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Finds the value below which the given percentage of recorded values fall.  The value returned is the
+	 * highest value which would have been recorded in the same bucket.
+	 *
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The value at percentile, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		long countAtPercentile = Math.max(1, (long) Math.ceil((percentile / 100) * totalCount));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= countAtPercentile) {
+				return Math.min(max, highestValueFor(i));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Adds every value recorded by other to this histogram.
+	 *
+	 * @param other The histogram whose values are added
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return totalCount == 0 ? 0 : (double) total / totalCount;
+	}
+
+	/**
+	 * Discards every recorded value.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		totalCount = total = max = 0;
+	}
+
+	private static int indexFor(long value) {
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		if (highestBit < SUB_BUCKET_BITS) {
+			return (int) value;
+		}
+		int shift = highestBit - SUB_BUCKET_BITS + 1;
+		int subBucket = (int) (value >>> shift);
+		return shift * HALF_SUB_BUCKET_COUNT + subBucket;
+	}
+
+	private static long highestValueFor(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+		long subBucket = index - shift * HALF_SUB_BUCKET_COUNT;
+		long highest = ((subBucket + 1) << shift) - 1;
+		return highest < 0 ? Long.MAX_VALUE : highest;
+	}
+}
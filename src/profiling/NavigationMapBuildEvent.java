@@ -0,0 +1,27 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering the construction of a <code>NavigationMap</code>.
+ * 
+ * @author Francis Stephens
+ */
+@Name("shooter.NavigationMapBuild")
+@Label("Navigation Map Build")
+@Category({"2D Shooter", "Navigation"})
+@Description("A full build of the navigation map from the environment's walls")
+public class NavigationMapBuildEvent extends Event {
+	@Label("Walls Considered")
+	public int wallsConsidered;
+	
+	@Label("Nodes")
+	public int nodes;
+	
+	@Label("Connections")
+	public int connections;
+}
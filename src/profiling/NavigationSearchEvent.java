@@ -0,0 +1,40 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event recording a single <code>Navigator</code> path search, committed once the path is
+ * found.  A search may be spread across many ticks with waits in between, so rather than the event having a
+ * duration the time actually spent searching is recorded alongside the number of slices it took.
+ * 
+ * @author Francis Stephens
+ */
+@Name("shooter.NavigationSearch")
+@Label("Navigation Search")
+@Category({"2D Shooter", "Navigation"})
+@Description("A path search from an origin to a destination")
+public class NavigationSearchEvent extends Event {
+	@Label("Walls Considered")
+	public int wallsConsidered;
+	
+	@Label("Nodes Expanded")
+	public int nodesExpanded;
+	
+	@Label("Path Length")
+	@Description("The number of intermediate steps in the path found")
+	public int pointsReturned;
+	
+	@Label("Slices")
+	@Description("The number of separate turns the search was given to run")
+	public int slices;
+	
+	@Label("Search Time")
+	@Description("The time spent searching, summed over every slice")
+	@Timespan(Timespan.NANOSECONDS)
+	public long searchTime;
+}
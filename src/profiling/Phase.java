@@ -0,0 +1,15 @@
+package profiling;
+
+/**
+ * The phases of a game loop tick which are timed by the <code>FrameProfiler</code>.  Phases may nest, vision
+ * work done during collision handling is counted against both, so phase times need not sum to the frame time.
+ * 
+ * @author Francis Stephens
+ */
+public enum Phase {
+	UPDATE,
+	COLLISION,
+	VISION,
+	NAVIGATION,
+	RENDER
+}
@@ -0,0 +1,24 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering a single <code>VisionUtil.findViewablePoints</code> query.
+ * 
+ * @author Francis Stephens
+ */
+@Name("shooter.VisionQuery")
+@Label("Vision Query")
+@Category({"2D Shooter", "Vision"})
+@Description("A search for every corner point visible from a position")
+public class VisionQueryEvent extends Event {
+	@Label("Walls Considered")
+	public int wallsConsidered;
+	
+	@Label("Points Returned")
+	public int pointsReturned;
+}
@@ -37,9 +37,13 @@ public class SpriteStore {
 			if (sprite == null) {
 				URL url = this.getClass().getClassLoader().getResource(ref);
 				Image sourceImage = ImageIO.read(url);
-				GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
-				Image image = gc.createCompatibleImage(sourceImage.getWidth(null),sourceImage.getHeight(null),Transparency.BITMASK);
-				image.getGraphics().drawImage(sourceImage,0,0,null);
+				Image image = sourceImage;
+				// Without a screen there is no compatible image to accelerate, the source image will do
+				if (!GraphicsEnvironment.isHeadless()) {
+					GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+					image = gc.createCompatibleImage(sourceImage.getWidth(null),sourceImage.getHeight(null),Transparency.BITMASK);
+					image.getGraphics().drawImage(sourceImage,0,0,null);
+				}
 				// Create the sprite and cache it
 				sprite = new Sprite(image);
 				spritesMap.put(ref, sprite);
@@ -0,0 +1,89 @@
+package trigUtil;
+
+import java.util.Random;
+
+/**
+ * Checks the fast math approximations in <code>TrigUtil</code> against the exact <code>Math</code> functions
+ * and times both.  The worst error seen for each function is reported alongside its documented bound, and
+ * the report exits with a non zero status if any bound is broken.
+ *
+ * Usage: FastMathReport [samples]
+ *
+ * @author Francis Stephens
+ */
+public class FastMathReport {
+	private static final int DEFAULT_SAMPLES = 2000000;
+	private static final double SIN_BOUND = 3e-7;
+	private static final double ATAN2_BOUND = 2e-6;
+	private static final int TIMING_ROUNDS = 5;
+
+	public static void main(String[] argv) {
+		int samples = argv.length > 0 ? Integer.parseInt(argv[0]) : DEFAULT_SAMPLES;
+		Random random = new Random(1);
+		double[] angles = new double[samples];
+		double[] xs = new double[samples];
+		double[] ys = new double[samples];
+		for (int i = 0; i < samples; i++) {
+			// Rotations drift well outside a single turn, in both directions, as entities spin
+			angles[i] = (random.nextDouble() - 0.5) * 200 * Math.PI;
+			xs[i] = (random.nextDouble() - 0.5) * 2000;
+			ys[i] = (random.nextDouble() - 0.5) * 2000;
+		}
+
+		double sinError = 0, cosError = 0, atan2Error = 0;
+		for (int i = 0; i < samples; i++) {
+			sinError = Math.max(sinError, Math.abs(TrigUtil.fastSin(angles[i]) - Math.sin(angles[i])));
+			cosError = Math.max(cosError, Math.abs(TrigUtil.fastCos(angles[i]) - Math.cos(angles[i])));
+			atan2Error = Math.max(atan2Error, Math.abs(TrigUtil.fastAtan2(ys[i], xs[i]) - Math.atan2(ys[i], xs[i])));
+		}
+		// The octant boundaries and axes, where the reflections meet
+		double[] edges = {0, 1, -1, 1e-12, -1e-12};
+		for (double x : edges) {
+			for (double y : edges) {
+				if (x != 0 || y != 0) {
+					atan2Error = Math.max(atan2Error, Math.abs(TrigUtil.fastAtan2(y, x) - Math.atan2(y, x)));
+				}
+			}
+		}
+		boolean passed = true;
+		passed &= report("sin", sinError, SIN_BOUND);
+		passed &= report("cos", cosError, SIN_BOUND);
+		passed &= report("atan2", atan2Error, ATAN2_BOUND);
+
+		for (int round = 0; round < TIMING_ROUNDS; round++) {
+			double sink = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < samples; i++) {
+				sink += Math.sin(angles[i]) + Math.cos(angles[i]);
+			}
+			long exactTrig = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < samples; i++) {
+				sink += TrigUtil.fastSin(angles[i]) + TrigUtil.fastCos(angles[i]);
+			}
+			long fastTrig = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < samples; i++) {
+				sink += Math.atan2(ys[i], xs[i]);
+			}
+			long exactAtan2 = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < samples; i++) {
+				sink += TrigUtil.fastAtan2(ys[i], xs[i]);
+			}
+			long fastAtan2 = System.nanoTime() - start;
+			System.out.println(String.format("round %d  sin+cos %.1fns vs %.1fns  atan2 %.1fns vs %.1fns  (%s)",
+					round, exactTrig / (double) samples, fastTrig / (double) samples,
+					exactAtan2 / (double) samples, fastAtan2 / (double) samples, sink > 0 ? "+" : "-"));
+		}
+		if (!passed) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean report(String name, double error, double bound) {
+		boolean passed = error <= bound;
+		System.out.println(String.format("%-6s max error %.3e  bound %.1e  %s", name, error, bound, passed ? "ok" : "FAILED"));
+		return passed;
+	}
+}
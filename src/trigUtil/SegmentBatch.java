@@ -0,0 +1,89 @@
+package trigUtil;
+
+/**
+ * A fixed set of line segments held as parallel arrays of coordinates, so that many lines of sight can be
+ * tested against every segment in tight loops over primitive arrays.
+ *
+ * Segments are tested in chunks.  The loop within a chunk has no branches: every test is evaluated and
+ * combined with non short circuiting operators, leaving a straight run of arithmetic over contiguous arrays
+ * which HotSpot's superword pass is able to vectorise.  Between chunks the test stops as soon as the line
+ * of sight is known to be blocked, as most lines tested are.
+ *
+ * A line of sight is blocked by a segment when the two cross or touch, unless they share an end point, in
+ * keeping with <code>Entity.findIntersectionsIgnoringMutualTerminals</code>.  Parallel lines are never
+ * considered to cross.
+ *
+ * @author Francis Stephens
+ */
+public class SegmentBatch {
+	private static final int CHUNK = 16;
+	
+	private final double[] x1s, y1s, x2s, y2s;
+	private final double[] dxs, dys;
+
+	/**
+	 * Creates a batch from a flat array of segments.
+	 *
+	 * @param segments The segments, each taking four consecutive elements {x1,y1,x2,y2}
+	 */
+	public SegmentBatch(double[] segments) {
+		int count = segments.length / 4;
+		x1s = new double[count];
+		y1s = new double[count];
+		x2s = new double[count];
+		y2s = new double[count];
+		dxs = new double[count];
+		dys = new double[count];
+		for (int s = 0; s < count; s++) {
+			x1s[s] = segments[s*4];
+			y1s[s] = segments[s*4+1];
+			x2s[s] = segments[s*4+2];
+			y2s[s] = segments[s*4+3];
+			dxs[s] = x2s[s] - x1s[s];
+			dys[s] = y2s[s] - y1s[s];
+		}
+	}
+
+	/**
+	 * Indicates whether any of a run of the segments blocks the line of sight from (x1,y1) to (x2,y2).
+	 *
+	 * @param x1 The first x coord
+	 * @param y1 The first y coord
+	 * @param x2 The second x coord
+	 * @param y2 The second y coord
+	 * @param first The index of the first segment tested
+	 * @param end The index after the last segment tested
+	 * @return true if one of the segments crosses the line, false otherwise
+	 */
+	public boolean isBlocked(double x1, double y1, double x2, double y2, int first, int end) {
+		for (int start = first; start < end; start += CHUNK) {
+			if (countCrossings(x1, y1, x2, y2, start, Math.min(end, start + CHUNK)) > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int countCrossings(double x1, double y1, double x2, double y2, int start, int end) {
+		double rx = x2 - x1;
+		double ry = y2 - y1;
+		int crossings = 0;
+		for (int s = start; s < end; s++) {
+			double sx = x1s[s], sy = y1s[s], ex = x2s[s], ey = y2s[s];
+			double dx = dxs[s], dy = dys[s];
+			double denominator = rx*dy - ry*dx;
+			double ox = sx - x1, oy = sy - y1;
+			// The crossing lies at t along the line of sight and u along the segment, both scaled by the denominator
+			double t = ox*dy - oy*dx;
+			double u = ox*ry - oy*rx;
+			double sign = denominator < 0 ? -1 : 1;
+			double scale = denominator * sign;
+			t *= sign;
+			u *= sign;
+			boolean crosses = (scale > 0) & (t >= 0) & (t <= scale) & (u >= 0) & (u <= scale);
+			boolean mutualTerminal = (x1 == sx & y1 == sy) | (x1 == ex & y1 == ey) | (x2 == sx & y2 == sy) | (x2 == ex & y2 == ey);
+			crossings += (crosses & !mutualTerminal) ? 1 : 0;
+		}
+		return crossings;
+	}
+}
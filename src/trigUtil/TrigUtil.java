@@ -4,11 +4,114 @@ package trigUtil;
 /**
  * A utility class of static methods for doing common trigonometric calculations
  * 
+ * Running with -Dfastmath switches sin, cos and atan2, and everything built on them, from the exact
+ * <code>Math</code> functions to cheaper approximations:
+ * <ul>
+ * <li>sin and cos interpolate linearly in a table of 4096 samples per circle, within 3e-7 of the exact value</li>
+ * <li>atan2 uses an 11th degree odd polynomial for atan over [0,1], within 2e-6 radians of the exact angle</li>
+ * </ul>
+ * An error of 2e-6 radians moves the far end of a line across the whole screen by less than 0.002 pixels.
+ * The approximations are deterministic, so replays recorded in fast math mode replay identically in it,
+ * but a game recorded in one mode will not replay in the other.
+ * 
  * @author Francis Stephens
  */
 public class TrigUtil {
 	
 	public static final double FULL_CIRCLE = Math.PI * 2;
+	public static final boolean FAST_MATH = Boolean.getBoolean("fastmath");
+	
+	private static final int SIN_TABLE_BITS = 12;
+	private static final int SIN_TABLE_SIZE = 1 << SIN_TABLE_BITS;
+	private static final int SIN_TABLE_MASK = SIN_TABLE_SIZE - 1;
+	private static final double SIN_TABLE_SCALE = SIN_TABLE_SIZE / FULL_CIRCLE;
+	// One extra sample so that interpolation never needs to wrap
+	private static final double[] SIN_TABLE = new double[SIN_TABLE_SIZE + 1];
+	static {
+		for (int i = 0; i <= SIN_TABLE_SIZE; i++) {
+			SIN_TABLE[i] = Math.sin(i / SIN_TABLE_SCALE);
+		}
+	}
+	
+	/**
+	 * @param radians An angle
+	 * @return The sine of radians, approximated in fast math mode
+	 */
+	public static double sin(double radians) {
+		return FAST_MATH ? fastSin(radians) : Math.sin(radians);
+	}
+	
+	/**
+	 * @param radians An angle
+	 * @return The cosine of radians, approximated in fast math mode
+	 */
+	public static double cos(double radians) {
+		return FAST_MATH ? fastCos(radians) : Math.cos(radians);
+	}
+	
+	/**
+	 * @param y The y coordinate
+	 * @param x The x coordinate
+	 * @return The angle of (x,y) from the positive x axis in [-PI,PI], approximated in fast math mode
+	 */
+	public static double atan2(double y, double x) {
+		return FAST_MATH ? fastAtan2(y, x) : Math.atan2(y, x);
+	}
+	
+	/**
+	 * Approximates the sine of radians by interpolating in a table.  The error is at most (2PI/4096)^2/8, about 3e-7.
+	 * 
+	 * @param radians An angle
+	 * @return The approximate sine of radians
+	 */
+	public static double fastSin(double radians) {
+		return interpolate(radians * SIN_TABLE_SCALE, 0);
+	}
+	
+	/**
+	 * Approximates the cosine of radians by interpolating in a table.  The error is at most (2PI/4096)^2/8, about 3e-7.
+	 * 
+	 * @param radians An angle
+	 * @return The approximate cosine of radians
+	 */
+	public static double fastCos(double radians) {
+		// A quarter turn further round the same table
+		return interpolate(radians * SIN_TABLE_SCALE, SIN_TABLE_SIZE / 4);
+	}
+	
+	private static double interpolate(double scaled, int offset) {
+		double floor = Math.floor(scaled);
+		int i = ((int) (long) floor + offset) & SIN_TABLE_MASK;
+		double fraction = scaled - floor;
+		return SIN_TABLE[i] + (SIN_TABLE[i+1] - SIN_TABLE[i]) * fraction;
+	}
+	
+	/**
+	 * Approximates atan2 with a polynomial for atan over [0,1], reflected into the other octants.  The error is
+	 * at most 2e-6 radians.
+	 * 
+	 * @param y The y coordinate
+	 * @param x The x coordinate
+	 * @return The approximate angle of (x,y) from the positive x axis in [-PI,PI]
+	 */
+	public static double fastAtan2(double y, double x) {
+		double ax = Math.abs(x);
+		double ay = Math.abs(y);
+		if (ax == 0 && ay == 0) {
+			return 0;
+		}
+		boolean steep = ay > ax;
+		double z = steep ? ax / ay : ay / ax;
+		double z2 = z * z;
+		double angle = z * (0.99997726 + z2 * (-0.33262347 + z2 * (0.19354346 + z2 * (-0.11643287 + z2 * (0.05265332 + z2 * -0.01172120)))));
+		if (steep) {
+			angle = Math.PI / 2 - angle;
+		}
+		if (x < 0) {
+			angle = Math.PI - angle;
+		}
+		return y < 0 ? -angle : angle;
+	}
 	
 	/**
 	 * Determines the x,y coordinates at the other end of the extension defined by the parameters.
@@ -67,7 +170,7 @@ public class TrigUtil {
 	 * @return The slope and y intercept of the line passing through the point provided with the provided rotation
 	 */
 	public static double[] getLineEquation(double rotation, double x, double y) {
-		double coefficient = -(Math.cos(rotation) / Math.sin(rotation));
+		double coefficient = -(cos(rotation) / sin(rotation));
 		double shift = -(coefficient * x) + y;
 		return new double[] {coefficient,shift};
 	}
@@ -84,6 +187,10 @@ public class TrigUtil {
 	public static double getLineRotation(double x1, double y1, double x2, double y2) {
 		double dx = x2 - x1;
 		double dy = y1 - y2;
+		if (FAST_MATH) {
+			// Clockwise from straight up is anticlockwise from the x axis with x and y swapped
+			return normaliseRadians(fastAtan2(dx, dy));
+		}
 		double length = Math.sqrt((dx*dx)+(dy*dy));
 		double xRatio = dx/length;
 		double r1 = Math.asin(Math.abs(xRatio));
@@ -120,7 +227,7 @@ public class TrigUtil {
 		if (rotation == 0 || rotation == Math.PI) {
 			return 0;
 		}
-		return (length * Math.sin(rotation));
+		return (length * sin(rotation));
 	}
 	
 	/**
@@ -136,7 +243,7 @@ public class TrigUtil {
 			return 0;
 		}
 		// Because the coordinates are upside down we return the negative
-		return -(length * Math.cos(rotation));
+		return -(length * cos(rotation));
 	}
 	
 
@@ -264,9 +371,116 @@ public class TrigUtil {
 		}
 	}
 
+	/**
+	 * Sweeps a moving axis aligned box along the displacement (dx,dy) against a static axis aligned box and finds
+	 * the fraction of the displacement travelled before the two first touch.  Boxes which already overlap at the
+	 * start of the sweep, or which only graze each other at a corner, are not considered to collide so that
+	 * an entity can always move out of a wall it has become stuck in.
+	 *
+	 * @param x The left x coord of the moving box
+	 * @param y The top y coord of the moving box
+	 * @param width The width of the moving box
+	 * @param height The height of the moving box
+	 * @param dx The x displacement of the moving box
+	 * @param dy The y displacement of the moving box
+	 * @param ox The left x coord of the static box
+	 * @param oy The top y coord of the static box
+	 * @param oWidth The width of the static box
+	 * @param oHeight The height of the static box
+	 * @return {timeOfImpact,normalX,normalY} where timeOfImpact lies in [0,1] and the normal is the unit normal
+	 * of the static box's face which was hit, or null if the boxes do not meet during the sweep
+	 */
+	public static double[] sweepBox(double x, double y, double width, double height, double dx, double dy, double ox, double oy, double oWidth, double oHeight) {
+		double entryX, exitX, entryY, exitY;
+		if (dx > 0) {
+			entryX = (ox - (x + width)) / dx;
+			exitX = ((ox + oWidth) - x) / dx;
+		}
+		else if (dx < 0) {
+			entryX = ((ox + oWidth) - x) / dx;
+			exitX = (ox - (x + width)) / dx;
+		}
+		else if (x + width <= ox || x >= ox + oWidth) { // Never overlapping horizontally
+			return null;
+		}
+		else {
+			entryX = Double.NEGATIVE_INFINITY;
+			exitX = Double.POSITIVE_INFINITY;
+		}
+		if (dy > 0) {
+			entryY = (oy - (y + height)) / dy;
+			exitY = ((oy + oHeight) - y) / dy;
+		}
+		else if (dy < 0) {
+			entryY = ((oy + oHeight) - y) / dy;
+			exitY = (oy - (y + height)) / dy;
+		}
+		else if (y + height <= oy || y >= oy + oHeight) { // Never overlapping vertically
+			return null;
+		}
+		else {
+			entryY = Double.NEGATIVE_INFINITY;
+			exitY = Double.POSITIVE_INFINITY;
+		}
+		double entry = Math.max(entryX, entryY);
+		double exit = Math.min(exitX, exitY);
+		if (entry >= exit || entry < 0 || entry > 1) {
+			return null;
+		}
+		if (entryX > entryY) {
+			return new double[] {entry, dx > 0 ? -1 : 1, 0};
+		}
+		else {
+			return new double[] {entry, 0, dy > 0 ? -1 : 1};
+		}
+	}
+
+	/**
+	 * Indicates whether the line segment from (x1,y1) to (x2,y2) passes through, or lies inside, an axis aligned box.
+	 *
+	 * @param x1 The first x coord of the segment
+	 * @param y1 The first y coord of the segment
+	 * @param x2 The second x coord of the segment
+	 * @param y2 The second y coord of the segment
+	 * @param bx The left x coord of the box
+	 * @param by The top y coord of the box
+	 * @param width The width of the box
+	 * @param height The height of the box
+	 * @return true if some part of the segment lies within the box, false otherwise
+	 */
+	public static boolean segmentIntersectsBox(double x1, double y1, double x2, double y2, double bx, double by, double width, double height) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double entry = 0;
+		double exit = 1;
+		if (dx == 0) {
+			if (x1 < bx || x1 > bx + width) {
+				return false;
+			}
+		}
+		else {
+			double tx1 = (bx - x1) / dx;
+			double tx2 = (bx + width - x1) / dx;
+			entry = Math.max(entry, Math.min(tx1, tx2));
+			exit = Math.min(exit, Math.max(tx1, tx2));
+		}
+		if (dy == 0) {
+			if (y1 < by || y1 > by + height) {
+				return false;
+			}
+		}
+		else {
+			double ty1 = (by - y1) / dy;
+			double ty2 = (by + height - y1) / dy;
+			entry = Math.max(entry, Math.min(ty1, ty2));
+			exit = Math.min(exit, Math.max(ty1, ty2));
+		}
+		return entry <= exit;
+	}
+
 	/**
 	 * Tests whether point lies within the x and y boundaries given.
-	 * 
+	 *
 	 * @param point The point for bounds testing
 	 * @param bX1 The first x coord
 	 * @param bY1 The first y coord
@@ -456,6 +670,60 @@ public class TrigUtil {
 	public static double getDistance(double x, double y, double x1, double y1) {
 		return Math.sqrt(Math.pow(x-x1,2) + Math.pow(y-y1,2));
 	}
+	
+	/**
+	 * Gets the square of the straight line distance between the pair of points {(x,y),(x1,y1)}.  Where
+	 * distances are only compared with each other this gives the same order as getDistance without the square root.
+	 * 
+	 * @param x The first x coordinate
+	 * @param y The first y coordinate
+	 * @param x1 The second x coordinate
+	 * @param y1 The second y coordinate
+	 * @return The square of the straight line distance between {(x,y),(x1,y1)}
+	 */
+	public static double getDistanceSquared(double x, double y, double x1, double y1) {
+		double dx = x - x1;
+		double dy = y - y1;
+		return dx*dx + dy*dy;
+	}
+
+	/**
+	 * Gets the shortest straight line distance between any point on the segment {(ax1,ay1),(ax2,ay2)} and any
+	 * point on the segment {(bx1,by1),(bx2,by2)}.  Segments which cross or touch are no distance apart.
+	 *
+	 * @param ax1 The first x coord of the first segment
+	 * @param ay1 The first y coord of the first segment
+	 * @param ax2 The second x coord of the first segment
+	 * @param ay2 The second y coord of the first segment
+	 * @param bx1 The first x coord of the second segment
+	 * @param by1 The first y coord of the second segment
+	 * @param bx2 The second x coord of the second segment
+	 * @param by2 The second y coord of the second segment
+	 * @return The distance between the two segments
+	 */
+	public static double getSegmentDistance(double ax1, double ay1, double ax2, double ay2, double bx1, double by1, double bx2, double by2) {
+		double b1 = cross(ax1, ay1, ax2, ay2, bx1, by1), b2 = cross(ax1, ay1, ax2, ay2, bx2, by2);
+		double a1 = cross(bx1, by1, bx2, by2, ax1, ay1), a2 = cross(bx1, by1, bx2, by2, ax2, ay2);
+		if (((b1 > 0 && b2 < 0) || (b1 < 0 && b2 > 0)) && ((a1 > 0 && a2 < 0) || (a1 < 0 && a2 > 0))) {
+			return 0;
+		}
+		// Segments which do not cross are nearest at one of their ends
+		double distance = Math.min(getPointSegmentDistanceSquared(ax1, ay1, bx1, by1, bx2, by2), getPointSegmentDistanceSquared(ax2, ay2, bx1, by1, bx2, by2));
+		distance = Math.min(distance, getPointSegmentDistanceSquared(bx1, by1, ax1, ay1, ax2, ay2));
+		distance = Math.min(distance, getPointSegmentDistanceSquared(bx2, by2, ax1, ay1, ax2, ay2));
+		return Math.sqrt(distance);
+	}
+
+	private static double cross(double x1, double y1, double x2, double y2, double px, double py) {
+		return (x2 - x1)*(py - y1) - (y2 - y1)*(px - x1);
+	}
+
+	private static double getPointSegmentDistanceSquared(double px, double py, double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1, dy = y2 - y1;
+		double lengthSquared = dx*dx + dy*dy;
+		double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - x1)*dx + (py - y1)*dy) / lengthSquared));
+		return getDistanceSquared(px, py, x1 + t*dx, y1 + t*dy);
+	}
 
 	/**
 	 * Finds the shortest rotational distances, in radians between two rotations.